@@ -2,90 +2,96 @@ package com.github.johnnyjayjay.spigotmaps.example;
 
 import com.github.johnnyjayjay.spigotmaps.*;
 import com.github.johnnyjayjay.spigotmaps.rendering.*;
+import com.github.johnnyjayjay.spigotmaps.util.ImageLoader;
 import com.github.johnnyjayjay.spigotmaps.util.ImageTools;
 import com.madgag.gif.fmsware.GifDecoder;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
 import org.bukkit.map.MapRenderer;
 import org.bukkit.plugin.java.JavaPlugin;
 
-import java.awt.image.BufferedImage;
-import java.io.IOException;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 public class SamplePlugin extends JavaPlugin {
 
+    private final ImageLoader loader = ImageLoader.getDefault();
+
     @Override
     public boolean onCommand(CommandSender sender, Command command, String name, String[] args) {
         if (!(sender instanceof Player))
             return false;
 
         Player player = (Player) sender;
+        String text = String.join(" ", args);
         try {
-            if (name.equals("bigimage")) {
-                URL imageUrl = new URL(args[0]);
-                ImageTools.divideIntoMapSizedParts(ImageTools.loadWithUserAgentFrom(imageUrl), true).stream()
-                        .map(ImageRenderer::create)
-                        .map(RenderedMap::create)
-                        .map(RenderedMap::createItemStack)
-                        .forEach(item -> {
-                            player.getWorld().dropItem(player.getLocation(), item);
-                        });
-                return true;
-            } else if (name.equals("biggif")) {
-                GifDecoder decoder = new GifDecoder();
-                int code = decoder.read(args[0]);
-                if (GifDecoder.STATUS_OK == code) {
-                    GifImage image = GifImage.fromDecoder(decoder);
-                    ImageTools.divideIntoMapSizedParts(image, true).stream()
-                            .map(GifRenderer::create)
-                            .map(RenderedMap::create)
-                            .map(RenderedMap::createItemStack)
-                            .forEach((item) -> {
-                                player.getInventory().addItem(item);
-                                player.updateInventory();
-                                player.sendMessage("§aLook in your inventory!");
-                            });
-                } else {
-                    throw new IOException("Could not load gif image. Code: " + code);
-                }
-                return true;
+            switch (name) {
+                case "bigimage" -> whenLoaded(player, loader.load(new URL(text)), (image) ->
+                        ImageTools.divideIntoMapSizedParts(image, true).stream()
+                                .map(ImageRenderer::create)
+                                .map(RenderedMap::create)
+                                .map(RenderedMap::createItemStack)
+                                .forEach((item) -> player.getWorld().dropItem(player.getLocation(), item)));
+                case "biggif" -> whenLoaded(player, loader.loadGif(new URL(text)), (decoder) ->
+                        give(player, ImageTools.divideIntoMapSizedParts(GifImage.fromDecoder(decoder), true).stream()
+                                .map(GifRenderer::create)
+                                .map(RenderedMap::create)
+                                .map(RenderedMap::createItemStack)
+                                .collect(Collectors.toList())));
+                case "image" -> whenLoaded(player, loader.load(new URL(text)), (image) -> {
+                    MapRenderer renderer = ImageRenderer.builder()
+                            .addPlayers(player)
+                            .image(ImageTools.resizeToMapSize(image))
+                            .build();
+                    give(player, List.of(createMap(player, renderer).createItemStack()));
+                });
+                case "gif" -> whenLoaded(player, loader.loadGif(new URL(text)), (decoder) -> {
+                    MapRenderer renderer = GifRenderer.builder()
+                            .addPlayers(player)
+                            .gif(ImageTools.resizeToMapSize(GifImage.fromDecoder(decoder)))
+                            .repeat(decoder.getLoopCount() == 0 ? GifRenderer.REPEAT_FOREVER : decoder.getLoopCount())
+                            .build();
+                    give(player, List.of(createMap(player, renderer).createItemStack()));
+                });
+                case "text" -> give(player, List.of(createMap(player,
+                        SimpleTextRenderer.builder().addPlayers(player).addText(text).build()).createItemStack()));
+                case "atext" -> give(player, List.of(createMap(player,
+                        AnimatedTextRenderer.builder().addPlayers(player).addText(text).build()).createItemStack()));
+                default -> throw new AssertionError();
             }
-            RenderedMap map = createMap(player, name, String.join(" ", args));
-            player.getInventory().addItem(map.createItemStack());
-            player.updateInventory();
-            player.sendMessage("§aLook in your inventory!");
-        } catch (IOException e) {
+        } catch (MalformedURLException e) {
             player.sendMessage("§cCould not create map: " + e.getMessage());
         }
         return true;
     }
 
-    private RenderedMap createMap(Player player, String kind, String text) throws IOException {
-        MapRenderer renderer = switch (kind) {
-            case "image" -> {
-                URL imageUrl = new URL(text);
-                BufferedImage image = ImageTools.resizeToMapSize(ImageTools.loadWithUserAgentFrom(imageUrl));
-                break ImageRenderer.builder().addPlayers(player).image(image).build();
+    // downloads never block the main thread; the maps are created on it once the download is done
+    private <T> void whenLoaded(Player player, CompletableFuture<T> future, Consumer<T> action) {
+        player.sendMessage("§aLoading...");
+        future.whenComplete((result, error) -> getServer().getScheduler().runTask(this, () -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                player.sendMessage("§cCould not create map: " + cause.getMessage());
+            } else if (player.isOnline()) {
+                action.accept(result);
             }
-            case "text" -> SimpleTextRenderer.builder().addPlayers(player).addText(text).build();
-            case "atext" -> AnimatedTextRenderer.builder().addPlayers(player).addText(text).build();
-            case "gif" -> {
-                GifDecoder decoder = new GifDecoder();
-                int code = decoder.read(text);
-                if (code != GifDecoder.STATUS_OK)
-                    throw new IOException("Could not load gif image. Code: " + code);
+        }));
+    }
 
-                GifImage gif = ImageTools.resizeToMapSize(GifImage.fromDecoder(decoder));
-                break GifRenderer.builder()
-                        .addPlayers(player)
-                        .gif(gif)
-                        .repeat(decoder.getLoopCount() == 0 ? GifRenderer.REPEAT_FOREVER : decoder.getLoopCount())
-                        .build();
-            }
-            default -> throw new AssertionError();
-        };
+    private void give(Player player, List<ItemStack> items) {
+        items.forEach((item) -> player.getInventory().addItem(item));
+        player.updateInventory();
+        player.sendMessage("§aLook in your inventory!");
+    }
+
+    private RenderedMap createMap(Player player, MapRenderer renderer) {
         return MapBuilder.create().world(player.getWorld()).addRenderers(renderer).build();
     }
 }
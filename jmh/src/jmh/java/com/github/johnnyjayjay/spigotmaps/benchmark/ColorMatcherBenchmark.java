@@ -0,0 +1,55 @@
+package com.github.johnnyjayjay.spigotmaps.benchmark;
+
+import com.github.johnnyjayjay.spigotmaps.stub.Samples;
+import com.github.johnnyjayjay.spigotmaps.stub.StubBukkit;
+import com.github.johnnyjayjay.spigotmaps.util.ColorMatcher;
+import org.bukkit.map.MapPalette;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Converting a map sized frame to map colours, with the lookup tables of this library and with Bukkit's
+ * MapPalette, which searches the palette for every pixel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ColorMatcherBenchmark {
+
+    private BufferedImage frame;
+    private ColorMatcher defaultMatcher;
+    private ColorMatcher fullPrecision;
+
+    @Setup
+    public void setUp() {
+        StubBukkit.install();
+        frame = Samples.image(128, 128);
+        // the tables are built once when they are first used, which is not what is measured here
+        defaultMatcher = ColorMatcher.getDefault();
+        fullPrecision = ColorMatcher.getFullPrecision();
+    }
+
+    @Benchmark
+    public byte[] defaultMatcher() {
+        return defaultMatcher.convert(frame);
+    }
+
+    @Benchmark
+    public byte[] fullPrecision() {
+        return fullPrecision.convert(frame);
+    }
+
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public byte[] mapPalette() {
+        return MapPalette.imageToBytes(frame);
+    }
+}
@@ -0,0 +1,52 @@
+package com.github.johnnyjayjay.spigotmaps.benchmark;
+
+import com.github.johnnyjayjay.spigotmaps.rendering.GifImage;
+import com.github.johnnyjayjay.spigotmaps.stub.Samples;
+import com.github.johnnyjayjay.spigotmaps.stub.StubBukkit;
+import com.madgag.gif.fmsware.GifDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Turning the bundled sample gifs into GifImages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GifBenchmark {
+
+    @Param({"small.gif", "large.gif"})
+    public String sample;
+
+    private byte[] bytes;
+    private GifDecoder decoder;
+
+    @Setup
+    public void setUp() {
+        StubBukkit.install();
+        bytes = Samples.gifBytes(sample);
+        decoder = Samples.gif(sample);
+    }
+
+    @Benchmark
+    public GifImage fromDecoder() {
+        return GifImage.fromDecoder(decoder);
+    }
+
+    // decoding included, as it happens when a gif is downloaded
+    @Benchmark
+    public GifImage decodeAndConvert() {
+        GifDecoder decoder = new GifDecoder();
+        decoder.read(new ByteArrayInputStream(bytes));
+        return GifImage.fromDecoder(decoder);
+    }
+}
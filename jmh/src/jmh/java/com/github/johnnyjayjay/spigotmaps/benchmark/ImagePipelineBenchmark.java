@@ -0,0 +1,77 @@
+package com.github.johnnyjayjay.spigotmaps.benchmark;
+
+import com.github.johnnyjayjay.spigotmaps.rendering.GifImage;
+import com.github.johnnyjayjay.spigotmaps.stub.Samples;
+import com.github.johnnyjayjay.spigotmaps.stub.StubBukkit;
+import com.github.johnnyjayjay.spigotmaps.util.ImageTools;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.awt.image.BufferedImage;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * The work done once when a map is created from an image or gif: resizing, cropping or scaling and dividing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ImagePipelineBenchmark {
+
+    @Param({"640x480", "1920x1080"})
+    public String size;
+
+    @Param({"true", "false"})
+    public boolean crop;
+
+    private BufferedImage image;
+    private GifImage gif;
+    private MethodHandle cropToSquare;
+    private MethodHandle scaleToSquare;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        StubBukkit.install();
+        image = Samples.image(size);
+        gif = GifImage.fromDecoder(Samples.gif("large.gif"));
+        // these steps are private, but they are what divideIntoMapSizedParts spends most of its time on
+        cropToSquare = privateStep("cropToMapDividableSquare");
+        scaleToSquare = privateStep("scaleToMapDividableSquare");
+    }
+
+    private static MethodHandle privateStep(String name) throws ReflectiveOperationException {
+        Method method = ImageTools.class.getDeclaredMethod(name, BufferedImage.class);
+        method.setAccessible(true);
+        return MethodHandles.lookup().unreflect(method);
+    }
+
+    @Benchmark
+    public BufferedImage resizeToMapSize() {
+        return ImageTools.resizeToMapSize(image);
+    }
+
+    @Benchmark
+    public List<BufferedImage> divideImage() {
+        return ImageTools.divideIntoMapSizedParts(image, crop);
+    }
+
+    @Benchmark
+    public List<GifImage> divideGif() {
+        return ImageTools.divideIntoMapSizedParts(gif, crop);
+    }
+
+    @Benchmark
+    public BufferedImage toDividableSquare() throws Throwable {
+        return (BufferedImage) (crop ? cropToSquare : scaleToSquare).invokeExact(image);
+    }
+}
@@ -0,0 +1,86 @@
+package com.github.johnnyjayjay.spigotmaps.benchmark;
+
+import com.github.johnnyjayjay.spigotmaps.rendering.AnimationClock;
+import com.github.johnnyjayjay.spigotmaps.rendering.GifImage;
+import com.github.johnnyjayjay.spigotmaps.rendering.GifRenderer;
+import com.github.johnnyjayjay.spigotmaps.rendering.ImageRenderer;
+import com.github.johnnyjayjay.spigotmaps.stub.ArrayCanvas;
+import com.github.johnnyjayjay.spigotmaps.stub.Samples;
+import com.github.johnnyjayjay.spigotmaps.stub.StubBukkit;
+import com.github.johnnyjayjay.spigotmaps.util.ImageTools;
+import org.bukkit.entity.Player;
+import org.bukkit.map.MapView;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * What a single call of MapRenderer#render costs, i.e. what the server pays per map, viewer and tick.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RenderBenchmark {
+
+    private MapView view;
+    private ArrayCanvas canvas;
+    private Player player;
+    private ImageRenderer unchanged;
+    private ImageRenderer once;
+    private ImageRenderer redrawn;
+    private GifRenderer gif;
+
+    @Setup
+    public void setUp() {
+        StubBukkit.install();
+        AnimationClock.start(StubBukkit.plugin());
+        view = StubBukkit.mapView(1);
+        canvas = new ArrayCanvas(view);
+        player = StubBukkit.player("viewer");
+
+        unchanged = ImageRenderer.builder().image(Samples.image(128, 128)).renderOnce(false).build();
+        once = ImageRenderer.builder().image(Samples.image(128, 128)).build();
+        redrawn = ImageRenderer.builder().image(Samples.image(128, 128)).renderOnce(false).build();
+        gif = GifRenderer.builder()
+                .gif(ImageTools.resizeToMapSize(GifImage.fromDecoder(Samples.gif("small.gif"))))
+                .build();
+        unchanged.render(view, canvas, player);
+        once.render(view, canvas, player);
+    }
+
+    // a renderer whose image is already on the canvas
+    @Benchmark
+    public ArrayCanvas dispatchUnchanged() {
+        unchanged.render(view, canvas, player);
+        return canvas;
+    }
+
+    // a renderOnce renderer that has already rendered for the player
+    @Benchmark
+    public ArrayCanvas dispatchRenderOnce() {
+        once.render(view, canvas, player);
+        return canvas;
+    }
+
+    // an image renderer that draws its whole image, e.g. after the image was changed
+    @Benchmark
+    public ArrayCanvas imageRendererDraw() {
+        redrawn.markContentChanged();
+        redrawn.render(view, canvas, player);
+        return canvas;
+    }
+
+    // a tick of a gif: the clock advances and the current frame is drawn if it changed
+    @Benchmark
+    public ArrayCanvas gifRendererTick() {
+        StubBukkit.tick();
+        gif.render(view, canvas, player);
+        return canvas;
+    }
+}
@@ -0,0 +1,945 @@
+package com.github.johnnyjayjay.spigotmaps;
+
+import com.github.johnnyjayjay.spigotmaps.rendering.AbstractMapRenderer;
+import com.github.johnnyjayjay.spigotmaps.rendering.AnimatedTextRenderer;
+import com.github.johnnyjayjay.spigotmaps.rendering.CompositeRenderer;
+import com.github.johnnyjayjay.spigotmaps.rendering.GifRenderer;
+import com.github.johnnyjayjay.spigotmaps.rendering.ImageRenderer;
+import com.github.johnnyjayjay.spigotmaps.rendering.PaletteBuffer;
+import com.github.johnnyjayjay.spigotmaps.rendering.PreparedGif;
+import com.github.johnnyjayjay.spigotmaps.rendering.SimpleTextRenderer;
+import com.github.johnnyjayjay.spigotmaps.rendering.TextLayout;
+import com.github.johnnyjayjay.spigotmaps.rendering.TextRenderer;
+import com.github.johnnyjayjay.spigotmaps.util.Checks;
+import org.bukkit.Bukkit;
+import org.bukkit.map.MapFont;
+import org.bukkit.map.MapRenderer;
+import org.bukkit.map.MinecraftFont;
+
+import java.awt.Point;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link MapStorage} that stores renderers in a directory, so that an {@link InitializationListener} can add them
+ * to their maps again after a restart.
+ * <p>
+ * The renderers of this library are stored in a compact binary format, images and gifs as the map colours they
+ * have already been converted to. Other renderers can be stored by registering a {@link Codec} for them.
+ * What is stored are the renderers' contents and settings, not their receivers and preconditions or how far
+ * their animations have progressed. Text can only be stored if it uses {@link MinecraftFont#Font}.
+ * <p>
+ * The renderers of a map are appended to a data file whenever they change, and an index that maps map ids to
+ * positions in that file is updated. When the storage is opened, only the index is read, using a memory mapped
+ * file. The renderers of a map are read and decoded when they are {@link #provide(int) provided} for the first time.
+ * <p>
+ * {@link #store(int, MapRenderer)} and {@link #remove(int, MapRenderer)} do not write anything themselves.
+ * Changes are collected and written in batches on a background thread after a short {@link Builder#flushDelay(long,
+ * TimeUnit) delay}. The renderers are encoded at that time, so changes made to them right after storing them
+ * may be stored as well. Because the data file is only ever appended to, it is compacted when the storage is
+ * {@link #close() closed} and more than half of it is outdated.
+ * <p>
+ * Instances of this class are thread-safe. A directory must only be used by one instance at a time, and every
+ * instance should be closed when it is not needed anymore, e.g. when the plugin is disabled.
+ *
+ * @author Johnny_JayJay (https://www.github.com/JohnnyJayJay)
+ * @see Builder
+ */
+public final class FileMapStorage implements MapStorage, Closeable {
+
+    private static final int CURRENT_MAGIC = 0x534D4743; // "SMGC"
+    private static final int INDEX_MAGIC = 0x534D4958; // "SMIX"
+    private static final int DATA_MAGIC = 0x534D4441; // "SMDA"
+    private static final short FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    // offset (long) and length (int) of the latest record of a map; an offset of 0 means nothing is stored
+    private static final int SLOT_SIZE = 12;
+    // map id, body length and CRC32 of the body
+    private static final int RECORD_HEADER_SIZE = 12;
+    private static final int MAX_MAP_ID = (Integer.MAX_VALUE - HEADER_SIZE) / SLOT_SIZE - 1;
+    private static final long MIN_COMPACTION_WASTE = 1024 * 1024;
+    // the names of the built-in codecs start with this, so that codecs added later cannot clash with user codecs
+    private static final String BUILT_IN_NAMESPACE = "spigotmaps:";
+
+    private final Path directory;
+    private final long flushDelayNanos;
+    private final Map<Class<?>, NamedCodec<?>> codecsByType;
+    private final Map<String, NamedCodec<?>> codecsByName;
+    private final ScheduledExecutorService writer;
+    private final Set<Class<?>> warnedTypes;
+
+    // the renderers of every map that has been provided or changed, and the changes that have not been written yet
+    private final Map<Integer, List<MapRenderer>> loaded;
+    private final Map<Integer, List<MapRenderer>> pending;
+    private boolean flushScheduled;
+    private boolean closed;
+
+    // only modified by the writer thread
+    private final int generation;
+    private final FileChannel indexChannel;
+    private final FileChannel data;
+    private volatile MappedByteBuffer index;
+    private long dataEnd;
+
+    private FileMapStorage(Path directory, long flushDelayNanos, Map<Class<?>, NamedCodec<?>> codecs) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.flushDelayNanos = flushDelayNanos;
+        this.codecsByType = new HashMap<>();
+        this.codecsByName = new HashMap<>();
+        registerBuiltInCodecs();
+        codecs.forEach((type, codec) -> {
+            codecsByType.put(type, codec);
+            codecsByName.put(codec.name, codec);
+        });
+        this.warnedTypes = new HashSet<>();
+        this.loaded = new HashMap<>();
+        this.pending = new HashMap<>();
+        this.flushScheduled = false;
+        this.closed = false;
+
+        Path current = directory.resolve("current.bin");
+        if (Files.exists(current)) {
+            try (DataInputStream input = new DataInputStream(Files.newInputStream(current))) {
+                checkHeader(input.readInt(), input.readShort(), CURRENT_MAGIC, current);
+                this.generation = input.readInt();
+            }
+        } else {
+            this.generation = 0;
+            createFile(indexFile(0), INDEX_MAGIC);
+            createFile(dataFile(0), DATA_MAGIC);
+            writeCurrent(0);
+        }
+        deleteOtherGenerations();
+        this.indexChannel = FileChannel.open(indexFile(generation), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.data = FileChannel.open(dataFile(generation), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            checkHeader(indexChannel, INDEX_MAGIC, indexFile(generation));
+            checkHeader(data, DATA_MAGIC, dataFile(generation));
+            this.index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexChannel.size());
+            // a record that was not written completely before a crash is overwritten
+            this.dataEnd = Math.max(highestRecordEnd(), HEADER_SIZE);
+        } catch (IOException | RuntimeException e) {
+            indexChannel.close();
+            data.close();
+            throw e;
+        }
+        this.writer = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "spigot-maps storage writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Opens the storage in a directory with the default settings.
+     *
+     * @param directory the directory to store renderers in. It is created if it does not exist.
+     * @return a new FileMapStorage.
+     * @throws IllegalArgumentException if the directory is {@code null}.
+     * @throws IOException if the directory cannot be read or does not contain a storage of this class.
+     */
+    public static FileMapStorage open(Path directory) throws IOException {
+        return builder(directory).build();
+    }
+
+    /**
+     * Provides the renderers stored for a map. They are read from the data file the first time they are provided;
+     * afterwards, the same renderers are returned.
+     *
+     * @param mapId the identifier of the map whose renderers are to be retrieved
+     * @return a new list of renderers or {@code null}, if nothing is stored for the map or what is stored for
+     *         it cannot be read.
+     * @throws IllegalStateException if this storage has been closed.
+     */
+    @Override
+    public List<MapRenderer> provide(int mapId) {
+        List<MapRenderer> renderers = current(mapId);
+        return renderers == null ? null : new ArrayList<>(renderers);
+    }
+
+    /**
+     * Adds a renderer to a map. The change is written in the background.
+     * <p>
+     * If no {@link Codec} is registered for the class of the renderer, a warning is logged and it is not stored.
+     *
+     * @param mapId the identifier of the map whose renderers are to be modified
+     * @param renderer the renderer to be added
+     * @throws IllegalArgumentException if the renderer is {@code null} or the map id is negative.
+     * @throws IllegalStateException if this storage has been closed.
+     */
+    @Override
+    public void store(int mapId, MapRenderer renderer) {
+        Checks.checkNotNull(renderer, "Renderer");
+        Checks.check(mapId >= 0 && mapId <= MAX_MAP_ID, "Map id out of the supported range");
+        if (!codecsByType.containsKey(renderer.getClass())) {
+            warnUnsupported(renderer.getClass());
+            return;
+        }
+        current(mapId);
+        synchronized (this) {
+            checkOpen();
+            List<MapRenderer> renderers = loaded.computeIfAbsent(mapId, (id) -> new ArrayList<>());
+            if (!renderers.contains(renderer)) {
+                renderers.add(renderer);
+                changed(mapId, renderers);
+            }
+        }
+    }
+
+    /**
+     * Removes a renderer from a map. The change is written in the background.
+     *
+     * @param mapId the identifier of the map whose renderers are to be modified
+     * @param renderer the renderer to be removed
+     * @throws IllegalStateException if this storage has been closed.
+     */
+    @Override
+    public void remove(int mapId, MapRenderer renderer) {
+        current(mapId);
+        synchronized (this) {
+            checkOpen();
+            List<MapRenderer> renderers = loaded.get(mapId);
+            if (renderers != null && renderers.remove(renderer))
+                changed(mapId, renderers);
+        }
+    }
+
+    /**
+     * Writes all changes that have not been written yet and waits until that is done.
+     *
+     * @throws IOException if the changes could not be written. They are retried later.
+     * @throws IllegalStateException if this storage has been closed.
+     */
+    public void flush() throws IOException {
+        synchronized (this) {
+            checkOpen();
+        }
+        await(() -> {
+            writePending();
+            return null;
+        });
+    }
+
+    /**
+     * Writes all changes that have not been written yet, compacts the data file if it is mostly outdated and
+     * closes the files. Does nothing if this storage has been closed already.
+     *
+     * @throws IOException if the changes could not be written or the files could not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+        }
+        try {
+            await(() -> {
+                writePending();
+                compactIfWasteful();
+                return null;
+            });
+        } finally {
+            writer.shutdownNow();
+            try {
+                indexChannel.close();
+            } finally {
+                data.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the directory renderers are stored in.
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /*
+     * Returns the renderers of a map, reading them if they have not been read yet, or null if there are none.
+     * The record is read and decoded without holding the lock, so that a large record does not block other maps.
+     * If another thread loaded or changed the map in the meantime, its renderers are kept.
+     */
+    private List<MapRenderer> current(int mapId) {
+        synchronized (this) {
+            checkOpen();
+            List<MapRenderer> renderers = loaded.get(mapId);
+            if (renderers != null || mapId < 0 || mapId > MAX_MAP_ID)
+                return renderers;
+        }
+        List<MapRenderer> renderers = read(mapId);
+        synchronized (this) {
+            checkOpen();
+            if (renderers == null)
+                return loaded.get(mapId);
+            List<MapRenderer> previous = loaded.putIfAbsent(mapId, renderers);
+            return previous == null ? renderers : previous;
+        }
+    }
+
+    private void changed(int mapId, List<MapRenderer> renderers) {
+        pending.put(mapId, new ArrayList<>(renderers));
+        if (!flushScheduled) {
+            flushScheduled = true;
+            writer.schedule(this::writeInBackground, flushDelayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed)
+            throw new IllegalStateException("The storage has been closed");
+    }
+
+    private void warnUnsupported(Class<?> type) {
+        boolean first;
+        synchronized (warnedTypes) {
+            first = warnedTypes.add(type);
+        }
+        if (first)
+            Bukkit.getLogger().warning("Renderers of type " + type.getName() + " cannot be stored, because there is no codec for them");
+    }
+
+    private void writeInBackground() {
+        try {
+            writePending();
+        } catch (IOException | RuntimeException e) {
+            // nothing else would report it: the executor keeps exceptions of scheduled tasks to itself
+            Bukkit.getLogger().log(Level.SEVERE, "Could not write renderers to " + directory + ", retrying later", e);
+        }
+    }
+
+    /*
+     * Runs a task on the writer thread and waits for it, so that the files are only ever written by one thread.
+     * Records are read on other threads as well, but only with positional reads of parts that are never changed.
+     */
+    private void await(Callable<Void> task) throws IOException {
+        try {
+            writer.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the storage to be written", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /*
+     * Appends a record for every changed map to the data file and then points the index to them.
+     * The data is forced to the disk before the index is updated, so the index never points to incomplete records.
+     * Only called on the writer thread.
+     */
+    private void writePending() throws IOException {
+        Map<Integer, List<MapRenderer>> batch;
+        synchronized (this) {
+            flushScheduled = false;
+            if (pending.isEmpty())
+                return;
+            batch = new HashMap<>(pending);
+            pending.clear();
+        }
+        try {
+            ByteArrayOutputStream records = new ByteArrayOutputStream();
+            Map<Integer, long[]> positions = new HashMap<>();
+            for (Map.Entry<Integer, List<MapRenderer>> entry : batch.entrySet()) {
+                int start = records.size();
+                writeRecord(entry.getKey(), entry.getValue(), records);
+                positions.put(entry.getKey(), new long[] {dataEnd + start, records.size() - start});
+            }
+            writeFully(data, ByteBuffer.wrap(records.toByteArray()), dataEnd);
+            data.force(false);
+            for (Map.Entry<Integer, long[]> entry : positions.entrySet()) {
+                int slot = slotPosition(entry.getKey());
+                ensureIndexCapacity(slot + SLOT_SIZE);
+                index.putLong(slot, entry.getValue()[0]);
+                index.putInt(slot + 8, (int) entry.getValue()[1]);
+            }
+            index.force();
+            dataEnd += records.size();
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                // newer changes replace the failed ones
+                batch.forEach(pending::putIfAbsent);
+                if (!flushScheduled && !closed) {
+                    flushScheduled = true;
+                    writer.schedule(this::writeInBackground, Math.max(flushDelayNanos, TimeUnit.SECONDS.toNanos(5)),
+                            TimeUnit.NANOSECONDS);
+                }
+            }
+            throw e;
+        }
+    }
+
+    private void writeRecord(int mapId, List<MapRenderer> renderers, ByteArrayOutputStream output) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream bodyOutput = new DataOutputStream(body);
+        List<byte[]> encoded = new ArrayList<>(renderers.size());
+        List<String> names = new ArrayList<>(renderers.size());
+        for (MapRenderer renderer : renderers) {
+            try {
+                ByteArrayOutputStream payload = new ByteArrayOutputStream();
+                names.add(encode(renderer, new DataOutputStream(payload)));
+                encoded.add(payload.toByteArray());
+            } catch (IOException | RuntimeException e) {
+                Bukkit.getLogger().log(Level.WARNING, "Could not store a renderer of type "
+                        + renderer.getClass().getName() + " for map " + mapId, e);
+            }
+        }
+        bodyOutput.writeInt(encoded.size());
+        for (int i = 0; i < encoded.size(); i++) {
+            bodyOutput.writeUTF(names.get(i));
+            bodyOutput.writeInt(encoded.get(i).length);
+            bodyOutput.write(encoded.get(i));
+        }
+        bodyOutput.flush();
+        byte[] bytes = body.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        DataOutputStream recordOutput = new DataOutputStream(output);
+        recordOutput.writeInt(mapId);
+        recordOutput.writeInt(bytes.length);
+        recordOutput.writeInt((int) crc.getValue());
+        recordOutput.write(bytes);
+        recordOutput.flush();
+    }
+
+    // Reads and decodes the latest record of a map. Returns null if there is none or it is damaged.
+    private List<MapRenderer> read(int mapId) {
+        MappedByteBuffer index = this.index;
+        int slot = slotPosition(mapId);
+        if (slot + SLOT_SIZE > index.capacity())
+            return null;
+        long offset = index.getLong(slot);
+        int length = index.getInt(slot + 8);
+        if (offset == 0)
+            return null;
+        try {
+            if (length < RECORD_HEADER_SIZE || offset < HEADER_SIZE || offset + length > data.size())
+                throw new IOException("The index points outside of the data file");
+            ByteBuffer record = ByteBuffer.allocate(length);
+            readFully(data, record, offset);
+            record.flip();
+            int bodyLength = length - RECORD_HEADER_SIZE;
+            if (record.getInt() != mapId || record.getInt() != bodyLength)
+                throw new IOException("The index does not point to a record of this map");
+            int checksum = record.getInt();
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), RECORD_HEADER_SIZE, bodyLength);
+            if ((int) crc.getValue() != checksum)
+                throw new IOException("The record is damaged");
+            DataInputStream input = new DataInputStream(
+                    new ByteArrayInputStream(record.array(), RECORD_HEADER_SIZE, bodyLength));
+            int count = input.readInt();
+            List<MapRenderer> renderers = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String name = input.readUTF();
+                byte[] payload = new byte[input.readInt()];
+                input.readFully(payload);
+                MapRenderer renderer = decode(name, new DataInputStream(new ByteArrayInputStream(payload)));
+                if (renderer != null)
+                    renderers.add(renderer);
+            }
+            return renderers;
+        } catch (IOException | RuntimeException e) {
+            Bukkit.getLogger().log(Level.SEVERE, "Could not read the renderers of map " + mapId + " from " + directory, e);
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private String encode(MapRenderer renderer, DataOutputStream output) throws IOException {
+        NamedCodec<MapRenderer> codec = (NamedCodec<MapRenderer>) codecsByType.get(renderer.getClass());
+        if (codec == null)
+            throw new IOException("There is no codec for " + renderer.getClass().getName());
+        codec.codec.write(renderer, output);
+        output.flush();
+        return codec.name;
+    }
+
+    private MapRenderer decode(String name, DataInput input) throws IOException {
+        NamedCodec<?> codec = codecsByName.get(name);
+        if (codec == null) {
+            Bukkit.getLogger().warning("Could not read a renderer stored as " + name + ", because there is no codec for it");
+            return null;
+        }
+        return codec.codec.read(input);
+    }
+
+    /*
+     * Copies the latest records of all maps into the data file of a new generation if most of the current file
+     * is outdated. The new files are complete before current.bin is replaced, which switches to them atomically.
+     */
+    private void compactIfWasteful() throws IOException {
+        long live = 0;
+        for (int slot = HEADER_SIZE; slot + SLOT_SIZE <= index.capacity(); slot += SLOT_SIZE)
+            live += index.getLong(slot) == 0 ? 0 : index.getInt(slot + 8);
+        long waste = dataEnd - HEADER_SIZE - live;
+        if (waste < live || waste < MIN_COMPACTION_WASTE)
+            return;
+
+        int next = generation + 1;
+        ByteBuffer newIndex = ByteBuffer.allocate(index.capacity());
+        newIndex.putInt(INDEX_MAGIC).putShort(FORMAT_VERSION).putShort((short) 0);
+        createFile(dataFile(next), DATA_MAGIC);
+        try (FileChannel newData = FileChannel.open(dataFile(next), StandardOpenOption.WRITE)) {
+            long position = HEADER_SIZE;
+            for (int slot = HEADER_SIZE; slot + SLOT_SIZE <= index.capacity(); slot += SLOT_SIZE) {
+                long offset = index.getLong(slot);
+                int length = index.getInt(slot + 8);
+                if (offset == 0)
+                    continue;
+                for (long copied = 0; copied < length; )
+                    copied += data.transferTo(offset + copied, length - copied, newData.position(position + copied));
+                newIndex.putLong(slot, position).putInt(slot + 8, length);
+                position += length;
+            }
+            newData.force(true);
+        }
+        newIndex.clear();
+        try (FileChannel indexOutput = FileChannel.open(indexFile(next), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(indexOutput, newIndex, 0);
+            indexOutput.force(true);
+        }
+        writeCurrent(next);
+        // the old files are deleted the next time the storage is opened, because they might still be mapped
+    }
+
+    private int slotPosition(int mapId) {
+        return HEADER_SIZE + mapId * SLOT_SIZE;
+    }
+
+    private void ensureIndexCapacity(int size) throws IOException {
+        int capacity = index.capacity();
+        if (size > capacity) {
+            long newCapacity = Math.min(Math.max(size, (long) capacity * 2), Integer.MAX_VALUE);
+            index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, newCapacity);
+        }
+    }
+
+    // Finds the end of the last record the index points to. Only the index is read.
+    private long highestRecordEnd() {
+        long end = 0;
+        for (int slot = HEADER_SIZE; slot + SLOT_SIZE <= index.capacity(); slot += SLOT_SIZE) {
+            long offset = index.getLong(slot);
+            if (offset != 0)
+                end = Math.max(end, offset + index.getInt(slot + 8));
+        }
+        return end;
+    }
+
+    private Path indexFile(int generation) {
+        return directory.resolve("index-" + generation + ".bin");
+    }
+
+    private Path dataFile(int generation) {
+        return directory.resolve("data-" + generation + ".bin");
+    }
+
+    private void createFile(Path file, int magic) throws IOException {
+        try (DataOutputStream output = new DataOutputStream(Files.newOutputStream(file))) {
+            output.writeInt(magic);
+            output.writeShort(FORMAT_VERSION);
+            output.writeShort(0);
+        }
+    }
+
+    // replaces current.bin atomically, so that it always names a generation whose files are complete
+    private void writeCurrent(int generation) throws IOException {
+        Path temp = Files.createTempFile(directory, "current", ".tmp");
+        try {
+            try (DataOutputStream output = new DataOutputStream(Files.newOutputStream(temp))) {
+                output.writeInt(CURRENT_MAGIC);
+                output.writeShort(FORMAT_VERSION);
+                output.writeInt(generation);
+            }
+            Files.move(temp, directory.resolve("current.bin"),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // deletes the files of generations that were compacted or of a compaction that was interrupted
+    private void deleteOtherGenerations() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "{index,data}-*.bin")) {
+            for (Path file : files) {
+                if (!file.equals(indexFile(generation)) && !file.equals(dataFile(generation)))
+                    Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private static void checkHeader(FileChannel channel, int magic, Path file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header, 0);
+        header.flip();
+        checkHeader(header.getInt(), header.getShort(), magic, file);
+    }
+
+    private static void checkHeader(int actualMagic, short version, int magic, Path file) throws IOException {
+        if (actualMagic != magic)
+            throw new IOException(file + " is not a file of a FileMapStorage");
+        if (version != FORMAT_VERSION)
+            throw new IOException(file + " has an unsupported format version: " + version);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0)
+                throw new EOFException("Unexpected end of file");
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer, position + buffer.position());
+    }
+
+    private <T extends MapRenderer> void register(String name, Class<T> type, Codec<T> codec) {
+        NamedCodec<T> named = new NamedCodec<>(name, codec);
+        codecsByType.put(type, named);
+        codecsByName.put(name, named);
+    }
+
+    private void registerBuiltInCodecs() {
+        register("spigotmaps:image", ImageRenderer.class, new Codec<ImageRenderer>() {
+            @Override
+            public void write(ImageRenderer renderer, DataOutput output) throws IOException {
+                writeCommon(renderer, output);
+                output.writeBoolean(renderer.isRenderOnce());
+                writePalette(renderer.getPalette(), output);
+            }
+
+            @Override
+            public ImageRenderer read(DataInput input) throws IOException {
+                Point startingPoint = readPoint(input);
+                return ImageRenderer.builder()
+                        .startingPoint(startingPoint)
+                        .renderOnce(input.readBoolean())
+                        .image(readPalette(input))
+                        .build();
+            }
+        });
+        register("spigotmaps:text", SimpleTextRenderer.class, new Codec<SimpleTextRenderer>() {
+            @Override
+            public void write(SimpleTextRenderer renderer, DataOutput output) throws IOException {
+                writeCommon(renderer, output);
+                output.writeBoolean(renderer.isRenderOnce());
+                writeText(renderer, output);
+            }
+
+            @Override
+            public SimpleTextRenderer read(DataInput input) throws IOException {
+                SimpleTextRenderer.Builder builder = SimpleTextRenderer.builder()
+                        .startingPoint(readPoint(input))
+                        .renderOnce(input.readBoolean());
+                return readText(input, builder::addText, builder::layout).build();
+            }
+        });
+        register("spigotmaps:animated_text", AnimatedTextRenderer.class, new Codec<AnimatedTextRenderer>() {
+            @Override
+            public void write(AnimatedTextRenderer renderer, DataOutput output) throws IOException {
+                writeCommon(renderer, output);
+                writeText(renderer, output);
+                output.writeInt(renderer.getCharsPerSecond());
+                output.writeInt(renderer.getDelay());
+                output.writeBoolean(renderer.isPerViewer());
+            }
+
+            @Override
+            public AnimatedTextRenderer read(DataInput input) throws IOException {
+                AnimatedTextRenderer.Builder builder = AnimatedTextRenderer.builder().startingPoint(readPoint(input));
+                return readText(input, builder::addText, builder::layout)
+                        .charsPerSecond(input.readInt())
+                        .delay(input.readInt())
+                        .perViewer(input.readBoolean())
+                        .build();
+            }
+        });
+        register("spigotmaps:gif", GifRenderer.class, new Codec<GifRenderer>() {
+            @Override
+            public void write(GifRenderer renderer, DataOutput output) throws IOException {
+                writeCommon(renderer, output);
+                PreparedGif gif = renderer.getPreparedImage();
+                output.writeInt(gif.getWidth());
+                output.writeInt(gif.getHeight());
+                output.writeInt(gif.getFrameCount());
+                for (int i = 0; i < gif.getFrameCount(); i++) {
+                    output.writeInt(gif.getMsDelay(i));
+                    output.write(gif.getFrame(i).getColors());
+                }
+                output.writeInt(renderer.getStartFrame());
+                output.writeInt(renderer.getRepeat());
+                output.writeBoolean(renderer.isPerViewer());
+            }
+
+            @Override
+            public GifRenderer read(DataInput input) throws IOException {
+                Point startingPoint = readPoint(input);
+                int width = input.readInt();
+                int height = input.readInt();
+                int frameCount = input.readInt();
+                PreparedGif.Builder gif = PreparedGif.builder(width, height);
+                byte[] colors = new byte[width * height];
+                for (int i = 0; i < frameCount; i++) {
+                    int delay = input.readInt();
+                    input.readFully(colors);
+                    gif.addFrame(PaletteBuffer.fromColors(width, height, colors), delay);
+                }
+                return GifRenderer.builder()
+                        .startingPoint(startingPoint)
+                        .gif(gif.build())
+                        .startAt(input.readInt())
+                        .repeat(input.readInt())
+                        .perViewer(input.readBoolean())
+                        .build();
+            }
+        });
+        register("spigotmaps:composite", CompositeRenderer.class, new Codec<CompositeRenderer>() {
+            @Override
+            public void write(CompositeRenderer renderer, DataOutput output) throws IOException {
+                writeCommon(renderer, output);
+                output.writeBoolean(renderer.isRenderOnce());
+                List<AbstractMapRenderer> layers = renderer.getLayers();
+                output.writeInt(layers.size());
+                for (AbstractMapRenderer layer : layers) {
+                    ByteArrayOutputStream payload = new ByteArrayOutputStream();
+                    output.writeUTF(encode(layer, new DataOutputStream(payload)));
+                    output.writeInt(payload.size());
+                    output.write(payload.toByteArray());
+                }
+            }
+
+            @Override
+            public CompositeRenderer read(DataInput input) throws IOException {
+                CompositeRenderer.Builder builder = CompositeRenderer.builder()
+                        .startingPoint(readPoint(input))
+                        .renderOnce(input.readBoolean());
+                int layerCount = input.readInt();
+                for (int i = 0; i < layerCount; i++) {
+                    String name = input.readUTF();
+                    byte[] payload = new byte[input.readInt()];
+                    input.readFully(payload);
+                    MapRenderer layer = decode(name, new DataInputStream(new ByteArrayInputStream(payload)));
+                    if (!(layer instanceof AbstractMapRenderer))
+                        throw new IOException("Layer " + name + " could not be read");
+                    builder.addLayers((AbstractMapRenderer) layer);
+                }
+                return builder.build();
+            }
+        });
+    }
+
+    private static void writeCommon(AbstractMapRenderer renderer, DataOutput output) throws IOException {
+        Point startingPoint = renderer.getStartingPoint();
+        output.writeInt(startingPoint.x);
+        output.writeInt(startingPoint.y);
+    }
+
+    private static Point readPoint(DataInput input) throws IOException {
+        return new Point(input.readInt(), input.readInt());
+    }
+
+    private static void writePalette(PaletteBuffer palette, DataOutput output) throws IOException {
+        output.writeInt(palette.getWidth());
+        output.writeInt(palette.getHeight());
+        output.write(palette.getColors());
+    }
+
+    private static PaletteBuffer readPalette(DataInput input) throws IOException {
+        int width = input.readInt();
+        int height = input.readInt();
+        byte[] colors = new byte[width * height];
+        input.readFully(colors);
+        return PaletteBuffer.fromColors(width, height, colors);
+    }
+
+    // writes the text and, if there is one, the settings of its layout; a width of 0 means there is no layout
+    private static void writeText(TextRenderer renderer, DataOutput output) throws IOException {
+        MapFont font = renderer.getFont();
+        if (font != MinecraftFont.Font)
+            throw new IOException("Only text using MinecraftFont.Font can be stored");
+        TextLayout layout = renderer.getLayout();
+        output.writeInt(layout == null ? 0 : layout.getWidth());
+        output.writeInt(layout == null ? 0 : layout.getAlignment().ordinal());
+        byte[] text = renderer.getText().getBytes(StandardCharsets.UTF_8);
+        output.writeInt(text.length);
+        output.write(text);
+    }
+
+    /*
+     * Reads what writeText wrote and passes it to either of the functions, depending on whether it had a layout.
+     * The text of a layout already contains the line breaks it was wrapped with, so it is not wrapped again.
+     */
+    private static <T> T readText(DataInput input, Function<String, T> text, Function<TextLayout, T> layout)
+            throws IOException {
+        int width = input.readInt();
+        TextLayout.Alignment alignment = TextLayout.Alignment.values()[input.readInt()];
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        String string = new String(bytes, StandardCharsets.UTF_8);
+        if (width == 0)
+            return text.apply(string);
+        return layout.apply(TextLayout.builder().text(string).width(width).alignment(alignment).wrap(false).build());
+    }
+
+    /**
+     * Converts renderers of a specific type to bytes and back, so that a {@link FileMapStorage} can store them.
+     * <p>
+     * Codecs are registered using {@link Builder#codec(String, Class, Codec)}. Reading must read exactly
+     * what writing wrote. Writing is done on a background thread, reading on the thread that calls
+     * {@link FileMapStorage#provide(int)}, which is usually the main thread.
+     *
+     * @param <T> the type of renderer this codec can store.
+     * @author Johnny_JayJay (https://www.github.com/JohnnyJayJay)
+     */
+    public interface Codec<T extends MapRenderer> {
+
+        /**
+         * Writes the content and settings of a renderer.
+         *
+         * @param renderer the renderer to write.
+         * @param output the output to write to.
+         * @throws IOException if the renderer cannot be written. It is then left out.
+         */
+        void write(T renderer, DataOutput output) throws IOException;
+
+        /**
+         * Creates a renderer from what {@link #write(MapRenderer, DataOutput)} wrote.
+         *
+         * @param input the input to read from.
+         * @return a new renderer.
+         * @throws IOException if the renderer cannot be read.
+         */
+        T read(DataInput input) throws IOException;
+    }
+
+    private static final class NamedCodec<T extends MapRenderer> {
+
+        private final String name;
+        private final Codec<T> codec;
+
+        private NamedCodec(String name, Codec<T> codec) {
+            this.name = name;
+            this.codec = codec;
+        }
+    }
+
+    /**
+     * Creates and returns a new instance of this class' {@link Builder}.
+     *
+     * @param directory the directory to store renderers in. It is created if it does not exist.
+     * @return a new Builder.
+     */
+    public static Builder builder(Path directory) {
+        return new Builder(directory);
+    }
+
+    /**
+     * A builder class used to create instances of the enclosing {@link FileMapStorage} class.
+     *
+     * @author Johnny_JayJay (https://www.github.com/JohnnyJayJay)
+     * @see #builder(Path)
+     */
+    public static class Builder {
+
+        private final Path directory;
+        private final Map<Class<?>, NamedCodec<?>> codecs = new HashMap<>();
+        private long flushDelayNanos = TimeUnit.SECONDS.toNanos(1);
+
+        private Builder(Path directory) {
+            this.directory = directory;
+        }
+
+        /**
+         * Opens the storage based on the settings made.
+         *
+         * @return a new instance of {@link FileMapStorage}.
+         * @throws IllegalArgumentException if the directory is {@code null} or the flush delay is negative.
+         * @throws IOException if the directory cannot be read or does not contain a storage of this class.
+         */
+        public FileMapStorage build() throws IOException {
+            Checks.checkNotNull(directory, "Directory");
+            Checks.check(flushDelayNanos >= 0, "Flush delay must not be negative");
+            return new FileMapStorage(directory, flushDelayNanos, codecs);
+        }
+
+        /**
+         * Sets how long changes are collected before they are written.
+         * <p>
+         * This is optional. The default value is 1 second.
+         *
+         * @param amount the non-negative delay in the given unit.
+         * @param unit the non-{@code null} unit of the amount.
+         * @return this.
+         */
+        public Builder flushDelay(long amount, TimeUnit unit) {
+            Checks.checkNotNull(unit, "Unit");
+            this.flushDelayNanos = unit.toNanos(amount);
+            return this;
+        }
+
+        /**
+         * Registers a codec for renderers of a specific class, so that they can be stored. The codec is only used
+         * for that exact class, not for subclasses.
+         *
+         * @param name a unique name that is stored with every renderer written by the codec. It must not change
+         *             as long as renderers stored with it should be readable. Names starting with
+         *             {@code spigotmaps:} are reserved for the built-in codecs.
+         * @param type the class of the renderers. If a codec was registered for it before, that codec is replaced.
+         * @param codec the codec.
+         * @param <T> the type of the renderers.
+         * @return this.
+         * @throws IllegalArgumentException if any of the arguments is {@code null}, the name is reserved or it is
+         *                                  already used by the codec of another class.
+         */
+        public <T extends MapRenderer> Builder codec(String name, Class<T> type, Codec<T> codec) {
+            Checks.checkNotNull(name, "Name");
+            Checks.checkNotNull(type, "Type");
+            Checks.checkNotNull(codec, "Codec");
+            Checks.check(!name.startsWith(BUILT_IN_NAMESPACE), "Names starting with " + BUILT_IN_NAMESPACE
+                    + " are reserved for the built-in codecs");
+            codecs.forEach((registered, named) -> Checks.check(registered == type || !named.name.equals(name),
+                    "The name " + name + " is already used by the codec for " + registered.getName()));
+            codecs.put(type, new NamedCodec<>(name, codec));
+            return this;
+        }
+    }
+}
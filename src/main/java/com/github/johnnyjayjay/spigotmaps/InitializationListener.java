@@ -1,5 +1,6 @@
 package com.github.johnnyjayjay.spigotmaps;
 
+import com.github.johnnyjayjay.spigotmaps.rendering.RenderMetrics;
 import com.github.johnnyjayjay.spigotmaps.util.Compatibility;
 import org.bukkit.Bukkit;
 import org.bukkit.event.EventHandler;
@@ -31,7 +32,9 @@ public final class InitializationListener implements Listener {
     @EventHandler
     public void onMapInitialize(MapInitializeEvent event) {
         MapView map = event.getMap();
+        long start = System.nanoTime();
         List<MapRenderer> renderers = storage.provide(Compatibility.getId(map));
+        RenderMetrics.recordStorageLookup(System.nanoTime() - start);
         if (renderers != null) {
             map.getRenderers().forEach(map::removeRenderer);
             renderers.forEach(map::addRenderer);
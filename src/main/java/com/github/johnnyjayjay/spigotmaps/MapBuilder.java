@@ -1,6 +1,7 @@
 package com.github.johnnyjayjay.spigotmaps;
 
 import com.github.johnnyjayjay.spigotmaps.rendering.AbstractMapRenderer;
+import com.github.johnnyjayjay.spigotmaps.rendering.CompositeRenderer;
 import com.github.johnnyjayjay.spigotmaps.rendering.ImageRenderer;
 import com.github.johnnyjayjay.spigotmaps.rendering.SimpleTextRenderer;
 import com.github.johnnyjayjay.spigotmaps.util.Checks;
@@ -73,9 +74,13 @@ public class MapBuilder {
      *
      * Without setting any renderer, the map will have no renderers.
      *
+     * Bukkit runs every renderer of a map separately every tick. Several static renderers that are stacked
+     * on top of each other should therefore be combined into one {@link CompositeRenderer}.
+     *
      * @see AbstractMapRenderer
      * @see ImageRenderer
      * @see SimpleTextRenderer
+     * @see CompositeRenderer
      * @param renderers A non-null list of renderers.
      * @return this.
      */
@@ -29,12 +29,16 @@ public abstract class AbstractMapRenderer extends MapRenderer {
 
     protected Point startingPoint;
 
-    private final Set<RenderContext> alreadyReceived;
+    private final ReceivedPlayers alreadyReceived;
+    private final RenderContext context;
     private final boolean renderForAllPlayers, renderOnce;
     private final Set<Player> receivers;
     private final Predicate<RenderContext> precondition;
 
     private boolean stop;
+    private volatile int contentVersion;
+    private RenderMetrics.Stats stats;
+    private int statsMapId;
 
     protected AbstractMapRenderer(
             Point startingPoint,
@@ -42,31 +46,108 @@ public abstract class AbstractMapRenderer extends MapRenderer {
             boolean renderOnce,
             Predicate<RenderContext> precondition
     ) {
-        super(!receivers.isEmpty());
+        this(startingPoint, receivers, renderOnce, precondition, false);
+    }
+
+    /**
+     * Creates a renderer that can be made contextual, i.e. Bukkit gives it a separate canvas for every player,
+     * even if it renders for everyone. Renderers with receivers are always contextual.
+     *
+     * @param startingPoint the point the content is drawn at.
+     * @param receivers the players to render for or an empty set to render for everyone.
+     * @param renderOnce whether to render only once for every player.
+     * @param precondition the condition that must be met to render.
+     * @param contextual whether every player needs their own canvas, e.g. because players see different content.
+     */
+    protected AbstractMapRenderer(
+            Point startingPoint,
+            Set<Player> receivers,
+            boolean renderOnce,
+            Predicate<RenderContext> precondition,
+            boolean contextual
+    ) {
+        super(contextual || !receivers.isEmpty());
         this.startingPoint = startingPoint;
         this.renderForAllPlayers = receivers.isEmpty();
         this.receivers = receivers;
         this.renderOnce = renderOnce;
         this.precondition = precondition;
-        this.alreadyReceived = new HashSet<>(); // TODO consider an implementation with less overhead
+        this.alreadyReceived = renderOnce ? new ReceivedPlayers() : null;
+        this.context = new RenderContext();
         this.stop = false;
+        this.contentVersion = 0;
     }
 
+    /*
+     * Called by Bukkit for every viewer of the map every tick, always on the main thread. The same context
+     * is reused every time, so nothing is allocated unless a renderOnce renderer sees a new player or map.
+     */
     @Override
     public final void render(MapView map, MapCanvas canvas, Player player) {
-        RenderContext context = RenderContext.create(map, canvas, player);
-        if (mayRender(context)) {
+        RenderContext context = this.context.reset(map, canvas, player);
+        if (stop || !(renderForAllPlayers || receivers.contains(player)))
+            return;
+        RenderMetrics.Stats stats = RenderMetrics.isEnabled() ? stats(context) : null;
+        if (renderOnce && alreadyReceived.contains(context)) {
+            if (stats != null)
+                stats.skippedRenderOnce.increment();
+            return;
+        }
+        if (!precondition.test(context)) {
+            if (stats != null)
+                stats.skippedByPrecondition.increment();
+            return;
+        }
+        boolean scheduled = RenderScheduler.isEnabled();
+        if (scheduled && !RenderScheduler.admit(this, context)) {
+            if (stats != null)
+                stats.deferred.increment();
+            return;
+        }
+
+        if (stats == null && !scheduled) {
             render(context);
-            if (renderOnce)
-                alreadyReceived.add(context);
+        } else {
+            boolean sampled = stats != null && (scheduled || stats.sample());
+            RenderMetrics.pixels = 0;
+            long start = scheduled || sampled ? System.nanoTime() : 0;
+            render(context);
+            long elapsed = scheduled || sampled ? System.nanoTime() - start : 0;
+            if (scheduled)
+                RenderScheduler.finish(elapsed);
+            if (stats != null) {
+                stats.renders.increment();
+                stats.pixelsWritten.add(RenderMetrics.pixels);
+                if (sampled)
+                    stats.addSample(elapsed);
+            }
         }
+        if (renderOnce)
+            alreadyReceived.add(context);
     }
 
-    private boolean mayRender(RenderContext context) {
-        return !stop
-                &&(renderForAllPlayers || receivers.contains(context.getPlayer()))
-                && (!renderOnce || !alreadyReceived.contains(context))
-                && precondition.test(context);
+    // Returns the metrics of the rendered map, which are looked up again if the map or the metrics change.
+    private RenderMetrics.Stats stats(RenderContext context) {
+        RenderMetrics.Stats stats = this.stats;
+        if (stats == null || statsMapId != context.getMapViewId() || !RenderMetrics.isCurrent(stats)) {
+            this.stats = stats = RenderMetrics.statsFor(getClass(), context.getMapViewId());
+            statsMapId = context.getMapViewId();
+        }
+        return stats;
+    }
+
+    /**
+     * Called by Bukkit when this renderer is added to a map. A renderer that only renders once will render
+     * the map again for everyone afterwards.
+     * <p>
+     * Subclasses that override this method must call {@code super.initialize(map)}.
+     *
+     * @param map the map this renderer was added to.
+     */
+    @Override
+    public void initialize(MapView map) {
+        if (renderOnce)
+            alreadyReceived.clearMap(map);
     }
 
     /**
@@ -118,6 +199,29 @@ public abstract class AbstractMapRenderer extends MapRenderer {
     public void setStartingPoint(Point startingPoint) {
         Checks.checkStartingPoint(startingPoint);
         this.startingPoint = new Point(startingPoint);
+        markContentChanged();
+    }
+
+    /**
+     * Returns a number that changes whenever the content of this renderer changes, e.g. because a new image
+     * or text was set. Renderers that draw static content use this to only draw onto a canvas if it does not
+     * show the current version yet.
+     *
+     * @return the current content version.
+     */
+    public int getContentVersion() {
+        return contentVersion;
+    }
+
+    /**
+     * Notifies this renderer that what it draws has changed, so it is drawn again for every viewer.
+     * <p>
+     * The setters of this library's renderers call this automatically. It only needs to be called manually
+     * if the content was changed in a way the renderer cannot notice, e.g. if a mutable {@link CharSequence}
+     * given to {@link TextRenderer#setText(CharSequence)} was modified afterwards.
+     */
+    public void markContentChanged() {
+        contentVersion++;
     }
 
     /**
@@ -145,6 +249,16 @@ public abstract class AbstractMapRenderer extends MapRenderer {
         return stop;
     }
 
+    /**
+     * Returns whether what this renderer draws changes by itself over time, like a gif.
+     * The {@link RenderScheduler} prefers animated renderers if not everything can be rendered in a tick.
+     *
+     * @return {@code true}, if this renderer is animated. The default implementation returns {@code false}.
+     */
+    protected boolean isAnimated() {
+        return false;
+    }
+
     /**
      * Renders the map after the preconditions have passed, i.e.:
      * <ul>
@@ -2,26 +2,41 @@ package com.github.johnnyjayjay.spigotmaps.rendering;
 
 import com.github.johnnyjayjay.spigotmaps.util.Checks;
 import org.bukkit.entity.Player;
+import org.bukkit.map.MapCanvas;
 import org.bukkit.map.MapFont;
 
 import java.awt.Point;
+import java.util.Arrays;
 import java.util.Set;
 import java.util.function.Predicate;
 
 /**
  * An implementation of {@link TextRenderer} that renders texts onto a map character by character.
  * <p>
- * This class is not thread safe and will stop rendering automatically once the given text has fully rendered.
+ * This class is not thread safe. The animation is advanced by the {@link AnimationClock}, independent of how
+ * many players see it, and stops once the given text has been revealed completely. The renderer keeps drawing
+ * the revealed text onto canvases that do not show all of it yet, e.g. maps in item frames, which are only
+ * rendered every few ticks; for canvases that show the complete text, rendering does nothing.
+ * By default, all players see the same characters. If {@link Builder#perViewer(boolean) per viewer} playback is
+ * enabled, every player sees the whole animation, no matter when they first see the map.
+ * The text is rasterized once and only the characters that have been revealed since a canvas was last drawn on
+ * are drawn onto it, so every character costs the same, no matter how much text has been revealed before it.
  *
  * @author Johnny_JayJay (https://www.github.com/JohnnyJayJay)
  * @see Builder
  */
 public class AnimatedTextRenderer extends TextRenderer {
 
-    private StringBuilder renderedText;
-    private int currentChar;
+    private final CanvasTracker drawnChars;
+    private final AnimationClock.Animation animation;
+    private final int tickDelay;
+    private final ViewerPlayback playback;
+
+    // the playback state: a single entry that everyone sees or one entry per player slot if playback is per viewer
+    private int[] currentChar;
+    private long[] ticksToWait;
+    private int drawnVersion;
     private int charsPerSecond;
-    private long ticksToWait;
 
     private AnimatedTextRenderer(
             Point startingPoint,
@@ -30,16 +45,51 @@ public class AnimatedTextRenderer extends TextRenderer {
             CharSequence text,
             MapFont font,
             int charsPerSecond,
-            int tickDelay
+            int tickDelay,
+            boolean perViewer
     ) {
-        super(startingPoint, receivers, false, precondition, text, font);
+        super(startingPoint, receivers, false, precondition, text, font, perViewer);
         this.charsPerSecond = charsPerSecond;
-        this.currentChar = 0;
-        this.renderedText = new StringBuilder();
-        this.ticksToWait = tickDelay + 1;
+        this.tickDelay = tickDelay;
+        this.currentChar = new int[1];
+        this.ticksToWait = new long[] {tickDelay + 1};
+        this.drawnVersion = 0;
+        this.drawnChars = new CanvasTracker();
+        this.playback = perViewer ? new ViewerPlayback(null) {
+            @Override
+            void ensureCapacity(int capacity) {
+                currentChar = Arrays.copyOf(currentChar, capacity);
+                ticksToWait = Arrays.copyOf(ticksToWait, capacity);
+            }
+
+            @Override
+            void reset(int slot) {
+                currentChar[slot] = 0;
+                ticksToWait[slot] = AnimatedTextRenderer.this.tickDelay + 1;
+            }
+
+            @Override
+            boolean advance(int slot, long elapsedNanos) {
+                return AnimatedTextRenderer.this.advance(slot);
+            }
+        } : null;
+        this.animation = new AnimationClock.Animation() {
+            @Override
+            boolean advance(long elapsedNanos) {
+                if (isStopped())
+                    return false;
+                if (playback != null) {
+                    playback.advanceAll(elapsedNanos);
+                    return true;
+                }
+                // the renderer is not stopped, canvases that were not rendered since may still miss the last characters
+                return AnimatedTextRenderer.this.advance(0);
+            }
+        };
+        AnimationClock.register(animation);
     }
 
-    private double calculateTicksToWait() {
+    private double calculateTicksToWait(int currentChar) {
         double charsPerTick = charsPerSecond / 20D;
         return (currentChar + 1) / charsPerTick - currentChar / charsPerTick;
     }
@@ -50,24 +100,62 @@ public class AnimatedTextRenderer extends TextRenderer {
                 : 1;
     }
 
+    // called once per tick for the shared playback state (index 0) or for every viewer's state
+    private boolean advance(int index) {
+        if (--ticksToWait[index] > 0)
+            return true;
+
+        int currentChar = this.currentChar[index];
+        if (currentChar >= text.length())
+            return false;
+        double ticksToWait = calculateTicksToWait(currentChar);
+        this.ticksToWait[index] = ticksToWait < 1 ? 1 : Math.round(ticksToWait);
+        this.currentChar[index] = Math.min(charsToAppend(ticksToWait) + currentChar, text.length());
+        return true;
+    }
+
+    @Override
+    protected boolean isAnimated() {
+        return true;
+    }
+
     @Override
     protected void render(RenderContext context) {
-        if (--ticksToWait > 0)
-            return;
-
-        if (currentChar >= text.length()) {
-            stopRendering();
-        } else {
-            double ticksToWait = calculateTicksToWait();
-            this.ticksToWait = ticksToWait < 1 ? 1 : Math.round(ticksToWait);
-            for (int destinationLength = charsToAppend(ticksToWait) + currentChar;
-                 currentChar < destinationLength; currentChar++) {
-                renderedText.append(text.charAt(currentChar));
-            }
-            context.getCanvas().drawText(startingPoint.x, startingPoint.y, font, renderedText.toString());
+        int version = getContentVersion();
+        if (drawnVersion != version) {
+            // the text, font or position has changed, so what canvases show must be drawn again from the start
+            drawnChars.clear();
+            drawnVersion = version;
+        }
+        MapCanvas canvas = context.getCanvas();
+        TextRaster raster = raster();
+        int index = playback == null ? 0 : playback.start(context.getPlayer());
+        int revealed = Math.min(currentChar[index], raster.length());
+        int drawn = Math.max(drawnChars.get(canvas), 0);
+        if (drawn < revealed) {
+            raster.drawTo(canvas, drawn, revealed);
+            drawnChars.set(canvas, revealed);
         }
     }
 
+    /**
+     * Returns whether every player sees the whole animation, no matter when they first see it.
+     *
+     * @see Builder#perViewer(boolean)
+     */
+    public boolean isPerViewer() {
+        return playback != null;
+    }
+
+    /**
+     * Returns the delay in ticks before the animation starts.
+     *
+     * @see Builder#delay(int)
+     */
+    public int getDelay() {
+        return tickDelay;
+    }
+
     /**
      * Returns how many characters are rendered each second by this class.
      */
@@ -103,6 +191,7 @@ public class AnimatedTextRenderer extends TextRenderer {
 
         private int charsPerSecond = 20;
         private int delay = 0;
+        private boolean perViewer = false;
 
         private Builder() {
         }
@@ -112,7 +201,12 @@ public class AnimatedTextRenderer extends TextRenderer {
             super.check();
             Checks.check(charsPerSecond > 0, "Chars per second must be positive");
             Checks.check(delay >= 0, "Delay must not be negative");
-            return new AnimatedTextRenderer(startingPoint, receivers, precondition, text, font, charsPerSecond, delay);
+            AnimatedTextRenderer renderer =
+                    new AnimatedTextRenderer(startingPoint, receivers, precondition, text, font, charsPerSecond, delay,
+                            perViewer);
+            if (layout != null)
+                renderer.setLayout(layout);
+            return renderer;
         }
 
         /**
@@ -142,6 +236,25 @@ public class AnimatedTextRenderer extends TextRenderer {
             return this;
         }
 
+        /**
+         * Sets whether every player should see the whole animation, no matter when they first see the map.
+         * Each player's animation starts with the delay when they first see the map and runs at the speed set,
+         * independent of other players. It is reset when the player quits.
+         * <p>
+         * Every renderer starts the playback of a player on its own, so texts that are spread across multiple maps
+         * may be at different characters for a player who sees the maps at different ticks.
+         * <p>
+         * This is optional. By default, all players see the same characters. Per viewer playback makes Bukkit keep
+         * a separate canvas for every player, which costs 16 KiB per player and map.
+         *
+         * @param perViewer whether playback should be per viewer.
+         * @return this.
+         */
+        public Builder perViewer(boolean perViewer) {
+            this.perViewer = perViewer;
+            return this;
+        }
+
         /**
          * Not a supported operation, because every AnimatedTextRenderer MUST render more than once and this
          * value can therefore not be set individually.
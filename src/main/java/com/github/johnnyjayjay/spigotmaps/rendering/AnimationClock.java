@@ -0,0 +1,163 @@
+package com.github.johnnyjayjay.spigotmaps.rendering;
+
+import com.github.johnnyjayjay.spigotmaps.util.Checks;
+import org.bukkit.Bukkit;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+
+/**
+ * A clock that advances every animated renderer of this library exactly once per server tick.
+ * <p>
+ * Bukkit calls {@link org.bukkit.map.MapRenderer#render(org.bukkit.map.MapView, org.bukkit.map.MapCanvas, org.bukkit.entity.Player)}
+ * once per tick for every player that sees a map, so animations must not advance in there: they would run
+ * faster the more players watch them, and the parts of a gif that was divided into multiple maps would
+ * drift apart. Instead, animated renderers like {@link GifRenderer} and {@link AnimatedTextRenderer} are
+ * advanced by a single scheduler task and only draw their current state when rendering.
+ * <p>
+ * The clock starts automatically using the plugin that loaded this library. If that is not possible,
+ * e.g. because the library was loaded in an unusual way, it has to be started manually using {@link #start(Plugin)}.
+ *
+ * @author Johnny_JayJay (https://www.github.com/JohnnyJayJay)
+ */
+public final class AnimationClock {
+
+    private static final long NANOS_PER_TICK = 50_000_000;
+
+    private static final Queue<WeakReference<Animation>> added = new ConcurrentLinkedQueue<>();
+    private static final List<WeakReference<Animation>> animations = new ArrayList<>();
+
+    private static BukkitTask task;
+    private static volatile long currentTick;
+    private static long lastTickNanos;
+    private static long elapsedNanos;
+    private static boolean warnedNotStarted;
+
+    private AnimationClock() {}
+
+    /**
+     * Starts the clock by scheduling its task for the given plugin. Does nothing if it is already running.
+     *
+     * @param plugin the plugin to schedule the task for.
+     * @throws IllegalArgumentException if the plugin is {@code null}.
+     */
+    public static synchronized void start(Plugin plugin) {
+        Checks.checkNotNull(plugin, "Plugin");
+        if (!isRunning()) {
+            lastTickNanos = 0;
+            task = Bukkit.getScheduler().runTaskTimer(plugin, AnimationClock::tick, 1, 1);
+        }
+    }
+
+    /**
+     * Stops the clock. All animations will pause until it is {@link #start(Plugin) started} again.
+     */
+    public static synchronized void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+    }
+
+    /**
+     * Returns whether the clock is currently running.
+     */
+    public static synchronized boolean isRunning() {
+        return task != null && !task.isCancelled();
+    }
+
+    /**
+     * Returns the amount of ticks this clock has counted so far.
+     */
+    public static long getCurrentTick() {
+        return currentTick;
+    }
+
+    // Returns the sum of the time that has been passed to the animations so far. Only used on the main thread.
+    static long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /*
+     * Registers an animation to be advanced every tick until it is finished.
+     * The clock only holds a weak reference, so animations must be referenced by their renderer.
+     */
+    static void register(Animation animation) {
+        added.add(new WeakReference<>(animation));
+        if (!isRunning())
+            startWithProvidingPlugin();
+    }
+
+    // Starts the clock using the plugin that loaded this library, if possible.
+    static synchronized void startWithProvidingPlugin() {
+        if (isRunning())
+            return;
+        try {
+            Plugin plugin = JavaPlugin.getProvidingPlugin(AnimationClock.class);
+            if (plugin != null && plugin.isEnabled()) {
+                start(plugin);
+                return;
+            }
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            // not loaded by a plugin, start(Plugin) has to be called manually
+        }
+        if (!warnedNotStarted) {
+            warnedNotStarted = true;
+            Bukkit.getLogger().warning("The AnimationClock of spigot-maps could not be started, because the plugin that"
+                    + " loaded it is not enabled yet or could not be found. Animations do not play until"
+                    + " AnimationClock.start(Plugin) is called.");
+        }
+    }
+
+    private static void tick() {
+        currentTick++;
+        long now = System.nanoTime();
+        long elapsed = lastTickNanos == 0 ? NANOS_PER_TICK : now - lastTickNanos;
+        lastTickNanos = now;
+        elapsedNanos += elapsed;
+        for (WeakReference<Animation> reference = added.poll(); reference != null; reference = added.poll())
+            animations.add(reference);
+
+        Iterator<WeakReference<Animation>> iterator = animations.iterator();
+        while (iterator.hasNext()) {
+            Animation animation = iterator.next().get();
+            if (animation == null || !advance(animation, elapsed))
+                iterator.remove();
+        }
+    }
+
+    // an animation that throws is not advanced anymore, so that it does not stop the others or log every tick
+    private static boolean advance(Animation animation, long elapsed) {
+        try {
+            return animation.advance(elapsed);
+        } catch (RuntimeException e) {
+            Class<?> owner = animation.getClass().getEnclosingClass();
+            String name = (owner == null ? animation.getClass() : owner).getName();
+            Bukkit.getLogger().log(Level.SEVERE, "An animation of a " + name + " failed and is stopped", e);
+            return false;
+        }
+    }
+
+    /**
+     * Something that is advanced by the {@link AnimationClock}.
+     */
+    abstract static class Animation {
+
+        /**
+         * Advances this animation by one tick.
+         *
+         * @param elapsedNanos the real time that has passed since the previous tick in nanoseconds.
+         *                     This is 50 milliseconds if the server does not lag.
+         * @return {@code false}, if the animation is finished and should not be advanced anymore.
+         */
+        abstract boolean advance(long elapsedNanos);
+    }
+}
@@ -0,0 +1,201 @@
+package com.github.johnnyjayjay.spigotmaps.rendering;
+
+import com.github.johnnyjayjay.spigotmaps.util.Checks;
+import com.github.johnnyjayjay.spigotmaps.util.ImageTools;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.map.MapCanvas;
+
+import java.awt.Point;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+
+/**
+ * The base class for renderers whose content is expensive to create, e.g. because images have to be resized
+ * and converted to map colours or several things have to be drawn on top of each other.
+ * <p>
+ * Instead of drawing in {@link #render(RenderContext)}, which Bukkit calls on the main thread, subclasses
+ * draw their content in {@link #produce(MapCanvas)}, which is called on a worker thread whenever a new frame
+ * is {@link #requestFrame() requested}. The main thread only copies the latest completed frame onto the
+ * canvases that do not show it yet and never waits for a frame to be produced. Until the first frame is
+ * completed, nothing is drawn. Because of that, these renderers always render more than once.
+ * <p>
+ * Frame requests are coalesced: at most one frame of a renderer is produced at a time, and requests made
+ * while a frame is being produced result in only one more frame. If frames are produced faster than they
+ * are rendered, only the newest one is shown, so a slow producer never falls behind.
+ *
+ * @author Johnny_JayJay (https://www.github.com/JohnnyJayJay)
+ * @see Builder
+ */
+public abstract class AsyncMapRenderer extends AbstractMapRenderer {
+
+    private static final int SIZE = ImageTools.MINECRAFT_MAP_SIZE.width;
+
+    private final Executor executor;
+    private final CanvasTracker drawnVersions;
+    private final AtomicBoolean requested;
+    private final AtomicBoolean producing;
+    // completed frames are handed to the main thread through ready; the pixels of replaced frames come back
+    // through spare, so that at most three frames exist at a time
+    private final AtomicReference<PaletteBuffer> ready;
+    private final AtomicReference<byte[]> spare;
+
+    private PaletteBuffer front;
+    private boolean started;
+
+    protected AsyncMapRenderer(
+            Point startingPoint,
+            Set<Player> receivers,
+            Predicate<RenderContext> precondition,
+            Executor executor
+    ) {
+        // a render before the first frame is completed draws nothing, so it must not count as received
+        super(startingPoint, receivers, false, precondition);
+        this.executor = executor;
+        this.drawnVersions = new CanvasTracker();
+        this.requested = new AtomicBoolean();
+        this.producing = new AtomicBoolean();
+        this.ready = new AtomicReference<>();
+        this.spare = new AtomicReference<>();
+        this.front = null;
+        this.started = false;
+    }
+
+    @Override
+    protected final void render(RenderContext context) {
+        if (!started) {
+            started = true;
+            requestFrame();
+        }
+        PaletteBuffer next = ready.getAndSet(null);
+        if (next != null) {
+            if (front != null)
+                spare.set(front.pixels());
+            front = next;
+            markContentChanged();
+        }
+        if (front == null)
+            return;
+        int version = getContentVersion();
+        MapCanvas canvas = context.getCanvas();
+        if (drawnVersions.get(canvas) != version) {
+            front.drawTo(canvas, startingPoint.x, startingPoint.y);
+            drawnVersions.set(canvas, version);
+        }
+    }
+
+    /**
+     * Requests a new frame to be produced on a worker thread. This method never blocks and may be called from
+     * any thread. If a frame is being produced already, one more frame is produced after it, no matter how
+     * often this is called in the meantime.
+     * <p>
+     * The first frame is requested automatically when this renderer renders for the first time.
+     */
+    public void requestFrame() {
+        if (isStopped())
+            return;
+        requested.set(true);
+        if (producing.compareAndSet(false, true))
+            executor.execute(this::produceFrames);
+    }
+
+    /**
+     * Draws the content of a new frame. This is called on a worker thread, never on more than one thread at
+     * the same time.
+     * <p>
+     * The canvas only exists in memory, is as large as a map ({@link ImageTools#MINECRAFT_MAP_SIZE})
+     * and fully transparent at first. It does not belong to a map, so its {@link MapCanvas#getMapView() map}
+     * is {@code null}, and its cursors are ignored. Whatever is drawn is placed at the
+     * {@link #getStartingPoint() starting point} when it is rendered, so most implementations draw at (0, 0).
+     *
+     * @param canvas the canvas to draw the frame on.
+     */
+    protected abstract void produce(MapCanvas canvas);
+
+    /**
+     * Returns the executor frames are produced on.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    private void produceFrames() {
+        try {
+            while (requested.getAndSet(false) && !isStopped()) {
+                byte[] pixels = spare.getAndSet(null);
+                if (pixels == null)
+                    pixels = new byte[SIZE * SIZE];
+                else
+                    Arrays.fill(pixels, (byte) 0);
+                produce(new PaletteCanvas(null, pixels));
+                PaletteBuffer frame = new PaletteBuffer(SIZE, SIZE, pixels);
+                frame.opaqueRuns();
+                // a frame the main thread has not taken yet is replaced; its pixels can be used for the next one
+                PaletteBuffer skipped = ready.getAndSet(frame);
+                if (skipped != null)
+                    spare.compareAndSet(null, skipped.pixels());
+            }
+        } catch (RuntimeException e) {
+            Bukkit.getLogger().log(Level.SEVERE, "Could not produce a frame for " + getClass().getName(), e);
+        } finally {
+            producing.set(false);
+        }
+        // a request might have been made after the loop ended, but before producing was reset
+        if (requested.get() && !isStopped() && producing.compareAndSet(false, true))
+            executor.execute(this::produceFrames);
+    }
+
+    /**
+     * The base Builder class for children of {@link AsyncMapRenderer}.
+     *
+     * @param <T> The type that extends {@link AsyncMapRenderer}.
+     * @param <U> The type that extends this class.
+     * @author Johnny_JayJay (https://www.github.com/JohnnyJayJay)
+     */
+    @SuppressWarnings("unchecked")
+    protected static abstract class Builder<T extends AsyncMapRenderer, U extends Builder<T, U>>
+            extends AbstractMapRenderer.Builder<T, U> {
+
+        protected Executor executor = ForkJoinPool.commonPool();
+
+        /**
+         * Checks the settings of {@link AbstractMapRenderer.Builder#check()} and whether the executor is
+         * {@code null}.
+         */
+        @Override
+        protected void check() {
+            super.check();
+            Checks.checkNotNull(executor, "Executor");
+        }
+
+        /**
+         * Sets the {@link Executor} frames are produced on.
+         * <p>
+         * This is an optional setting, the default is {@link ForkJoinPool#commonPool()}.
+         *
+         * @param executor a non-{@code null} executor that runs tasks on other threads than the main thread.
+         * @return this.
+         */
+        public U executor(Executor executor) {
+            this.executor = executor;
+            return (U) this;
+        }
+
+        /**
+         * Not a supported operation, because every AsyncMapRenderer MUST render more than once and this
+         * value can therefore not be set individually.
+         *
+         * @throws UnsupportedOperationException always.
+         */
+        @Override
+        public U renderOnce(boolean renderOnce) {
+            throw new UnsupportedOperationException("renderOnce is always false for AsyncMapRenderers and thus not allowed to be set");
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.github.johnnyjayjay.spigotmaps.rendering;
+
+import org.bukkit.map.MapCanvas;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Remembers an int value per {@link MapCanvas}, e.g. which frame was last drawn onto it.
+ * <p>
+ * Canvases are kept as long as the server keeps them, so renderers can tell what a canvas currently shows.
+ * Bukkit creates a separate canvas for each player if a renderer is contextual.
+ *
+ * @author Johnny_JayJay (https://www.github.com/JohnnyJayJay)
+ */
+final class CanvasTracker {
+
+    /**
+     * The value returned for canvases nothing has been recorded for.
+     */
+    static final int UNKNOWN = -1;
+
+    private final Map<MapCanvas, int[]> values = new WeakHashMap<>();
+
+    int get(MapCanvas canvas) {
+        int[] value = values.get(canvas);
+        return value == null ? UNKNOWN : value[0];
+    }
+
+    void set(MapCanvas canvas, int value) {
+        int[] current = values.get(canvas);
+        if (current == null)
+            values.put(canvas, new int[] {value});
+        else
+            current[0] = value;
+    }
+
+    void clear() {
+        values.clear();
+    }
+}
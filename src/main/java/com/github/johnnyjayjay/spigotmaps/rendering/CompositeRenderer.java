@@ -0,0 +1,205 @@
+package com.github.johnnyjayjay.spigotmaps.rendering;
+
+import com.github.johnnyjayjay.spigotmaps.util.Checks;
+import org.bukkit.entity.Player;
+import org.bukkit.map.MapCanvas;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * An implementation of {@link AbstractMapRenderer} that combines several static renderers, e.g. a background
+ * {@link ImageRenderer} and some {@link SimpleTextRenderer}s on top of it, into one.
+ * <p>
+ * Adding each of these renderers to a map separately means that Bukkit runs all of them every tick.
+ * This renderer instead draws its layers into one {@link PaletteBuffer} in memory and then only copies that
+ * buffer onto the canvases that do not show it yet. The layers are only drawn again if one of them reports
+ * a change of its {@link #getContentVersion() content version}, e.g. because a new text was set. Canvases that
+ * show the previous result then only receive the pixels that changed.
+ * <p>
+ * Layers are drawn in the order they were added, i.e. the first layer is at the bottom. They are drawn the
+ * same way for everyone, so their receivers, preconditions and {@code renderOnce} settings are ignored;
+ * only the settings of this renderer apply. Transparent pixels of the result are only drawn where an earlier
+ * result was opaque, to remove what it showed there. Animated renderers cannot be used as layers, because they
+ * do not report their changes. Neither can {@link AsyncMapRenderer AsyncMapRenderers}, because they only copy
+ * frames that were produced on another thread and draw nothing until the first one is completed.
+ *
+ * @author Johnny_JayJay (https://www.github.com/JohnnyJayJay)
+ * @see Builder
+ */
+public class CompositeRenderer extends AbstractMapRenderer {
+
+    private final List<AbstractMapRenderer> layers;
+    private final int[] layerVersions;
+    private final RenderContext layerContext;
+    private final CanvasTracker drawnVersions;
+
+    private PaletteBuffer composite;
+    private int[] compositeRuns;
+    private int[] changedRuns;
+    private boolean[] drawnPixels;
+    private int compositeVersion;
+
+    private CompositeRenderer(
+            Point startingPoint,
+            Set<Player> receivers,
+            boolean renderOnce,
+            Predicate<RenderContext> precondition,
+            List<AbstractMapRenderer> layers
+    ) {
+        super(startingPoint, receivers, renderOnce, precondition);
+        this.layers = Collections.unmodifiableList(new ArrayList<>(layers));
+        this.layerVersions = new int[layers.size()];
+        this.layerContext = new RenderContext();
+        this.drawnVersions = new CanvasTracker();
+        this.composite = null;
+        this.compositeRuns = null;
+        this.changedRuns = null;
+        this.drawnPixels = null;
+    }
+
+    @Override
+    protected void render(RenderContext context) {
+        if (composite == null || layersChanged())
+            composite(context);
+        int version = getContentVersion();
+        MapCanvas canvas = context.getCanvas();
+        int drawn = drawnVersions.get(canvas);
+        if (drawn == version)
+            return;
+        // the changes can only be used if the last change of the content was caused by the layers
+        if (drawn == version - 1 && version == compositeVersion && changedRuns != null) {
+            PaletteBuffer.drawRuns(canvas, startingPoint.x, startingPoint.y,
+                    composite.pixels(), 0, composite.getWidth(), changedRuns);
+        } else {
+            PaletteBuffer.drawRuns(canvas, startingPoint.x, startingPoint.y,
+                    composite.pixels(), 0, composite.getWidth(), compositeRuns);
+        }
+        drawnVersions.set(canvas, version);
+    }
+
+    private boolean layersChanged() {
+        for (int i = 0; i < layerVersions.length; i++) {
+            if (layers.get(i).getContentVersion() != layerVersions[i])
+                return true;
+        }
+        return false;
+    }
+
+    private void composite(RenderContext context) {
+        PaletteCanvas canvas = new PaletteCanvas(context.getView());
+        layerContext.reset(context.getView(), canvas, context.getPlayer());
+        for (int i = 0; i < layerVersions.length; i++) {
+            AbstractMapRenderer layer = layers.get(i);
+            layerVersions[i] = layer.getContentVersion();
+            if (!layer.isStopped())
+                layer.render(layerContext);
+        }
+        PaletteBuffer previous = composite;
+        composite = canvas.toPaletteBuffer();
+        byte[] pixels = composite.pixels();
+        // transparent pixels are drawn where an earlier result was opaque, so that it does not remain
+        if (drawnPixels == null)
+            drawnPixels = new boolean[pixels.length];
+        for (int i = 0; i < pixels.length; i++)
+            drawnPixels[i] |= !PaletteBuffer.isTransparent(pixels[i]);
+        compositeRuns = PaletteBuffer.findRuns(pixels, 0, drawnPixels, composite.getWidth(), composite.getHeight());
+        changedRuns = previous == null ? null : PaletteBuffer.findRuns(
+                pixels, 0, previous.pixels(), 0, composite.getWidth(), composite.getHeight());
+        markContentChanged();
+        compositeVersion = getContentVersion();
+    }
+
+    /**
+     * Returns an immutable list of the layers of this renderer, from bottom to top.
+     */
+    public List<AbstractMapRenderer> getLayers() {
+        return layers;
+    }
+
+    /**
+     * Creates a new {@link CompositeRenderer} that renders the given layers for everyone.
+     *
+     * @param layers the layers to combine, from bottom to top.
+     * @return a never-null instance of {@link CompositeRenderer}.
+     * @throws IllegalArgumentException see {@link Builder#build()}.
+     */
+    public static CompositeRenderer create(AbstractMapRenderer... layers) {
+        return builder().addLayers(layers).build();
+    }
+
+    /**
+     * Creates and returns a new instance of this class' {@link Builder}.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * A builder class used to create instances of the enclosing {@link CompositeRenderer} class.
+     *
+     * @author Johnny_JayJay (https://github.com/johnnyjayjay)
+     * @see #builder()
+     */
+    public static class Builder extends AbstractMapRenderer.Builder<CompositeRenderer, Builder> {
+
+        private final List<AbstractMapRenderer> layers = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Builds a new instance of {@link CompositeRenderer} based on the settings made.
+         *
+         * @return a new instance of {@link CompositeRenderer}.
+         * @throws IllegalArgumentException if
+         *                                  <ul>
+         *                                  <li>The precondition is {@code null}</li>
+         *                                  <li>The starting point is {@code null}</li>
+         *                                  <li>No layers were added</li>
+         *                                  <li>A layer is {@code null}, animated, an AsyncMapRenderer or a CompositeRenderer itself</li>
+         *                                  <li>The starting point's coordinates are not positive</li>
+         *                                  <li>The starting point's coordinates are out of the minecraft map size bounds</li>
+         *                                  </ul>
+         */
+        @Override
+        public CompositeRenderer build() {
+            super.check();
+            Checks.check(!layers.isEmpty(), "At least one layer is required");
+            for (AbstractMapRenderer layer : layers) {
+                Checks.checkNotNull(layer, "Layer");
+                Checks.check(!layer.isAnimated(), "Animated renderers cannot be layers");
+                Checks.check(!(layer instanceof AsyncMapRenderer), "AsyncMapRenderers cannot be layers");
+                Checks.check(!(layer instanceof CompositeRenderer), "CompositeRenderers cannot be layers");
+            }
+            return new CompositeRenderer(startingPoint, receivers, renderOnce, precondition, layers);
+        }
+
+        /**
+         * Adds layers on top of the layers added so far.
+         *
+         * @param layers 0-n renderers to add. Must not be {@code null}.
+         * @return this.
+         */
+        public Builder addLayers(AbstractMapRenderer... layers) {
+            return addLayers(Arrays.asList(layers));
+        }
+
+        /**
+         * Adds a {@link Collection} of layers on top of the layers added so far.
+         *
+         * @param layers a collection of renderers, ordered from bottom to top. Must not be {@code null}.
+         * @return this.
+         */
+        public Builder addLayers(Collection<? extends AbstractMapRenderer> layers) {
+            this.layers.addAll(layers);
+            return this;
+        }
+    }
+}
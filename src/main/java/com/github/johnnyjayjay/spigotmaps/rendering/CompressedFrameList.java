@@ -0,0 +1,187 @@
+package com.github.johnnyjayjay.spigotmaps.rendering;
+
+import com.github.johnnyjayjay.spigotmaps.util.Checks;
+import com.madgag.gif.fmsware.GifDecoder;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A list of gif frames that are kept compressed in memory and only decompressed when they are accessed.
+ * <p>
+ * A limited amount of decompressed frames is cached. If the frames are accessed in order, the next frames
+ * are decompressed in the background before they are needed.
+ *
+ * @author Johnny_JayJay (https://www.github.com/JohnnyJayJay)
+ * @see GifImage#readLazily(java.io.InputStream, int)
+ */
+final class CompressedFrameList extends AbstractList<GifImage.Frame> {
+
+    private static final ExecutorService PREFETCHER = Executors.newSingleThreadExecutor((runnable) -> {
+        Thread thread = new Thread(runnable, "spigot-maps gif prefetcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final int width;
+    private final int height;
+    private final byte[][] compressedFrames;
+    private final int[] delays;
+    private final int prefetchCount;
+    private final Map<Integer, GifImage.Frame> cache;
+    private final Set<Integer> pending;
+
+    private volatile int lastAccessed;
+
+    private CompressedFrameList(int width, int height, byte[][] compressedFrames, int[] delays, int cachedFrames) {
+        this.width = width;
+        this.height = height;
+        this.compressedFrames = compressedFrames;
+        this.delays = delays;
+        this.prefetchCount = cachedFrames / 2;
+        this.cache = new LinkedHashMap<Integer, GifImage.Frame>(16, 0.75F, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, GifImage.Frame> eldest) {
+                return size() > cachedFrames;
+            }
+        };
+        this.pending = new HashSet<>();
+        this.lastAccessed = -1;
+    }
+
+    /**
+     * Creates a list from a decoder that has finished reading. The decoder's frames are compressed
+     * while they are read, so it never holds more than three decompressed frames at once.
+     */
+    static CompressedFrameList from(Decoder decoder, int cachedFrames) {
+        byte[][] frames = decoder.compressedFrames.toArray(new byte[0][]);
+        int[] delays = decoder.delays.stream().mapToInt(Integer::intValue).toArray();
+        Checks.check(Arrays.stream(delays).allMatch((delay) -> delay > 0), "Duration must be positive");
+        return new CompressedFrameList(decoder.getFrameSize().width, decoder.getFrameSize().height, frames, delays, cachedFrames);
+    }
+
+    @Override
+    public GifImage.Frame get(int index) {
+        if (index < 0 || index >= compressedFrames.length)
+            throw new IndexOutOfBoundsException("Frame index: " + index + ", frame count: " + compressedFrames.length);
+
+        GifImage.Frame frame;
+        synchronized (cache) {
+            frame = cache.get(index);
+        }
+        if (frame == null) {
+            frame = decompress(index);
+            synchronized (cache) {
+                cache.put(index, frame);
+            }
+        }
+
+        int previous = lastAccessed;
+        lastAccessed = index;
+        if (index == previous + 1 || (index == 0 && previous == compressedFrames.length - 1))
+            prefetch(index);
+        return frame;
+    }
+
+    @Override
+    public int size() {
+        return compressedFrames.length;
+    }
+
+    private void prefetch(int current) {
+        for (int i = 1; i <= prefetchCount; i++) {
+            int index = (current + i) % compressedFrames.length;
+            synchronized (cache) {
+                if (cache.containsKey(index) || !pending.add(index))
+                    continue;
+            }
+            PREFETCHER.execute(() -> {
+                GifImage.Frame frame = decompress(index);
+                synchronized (cache) {
+                    cache.put(index, frame);
+                    pending.remove(index);
+                }
+            });
+        }
+    }
+
+    private GifImage.Frame decompress(int index) {
+        int[] pixels = new int[width * height];
+        byte[] bytes = new byte[pixels.length * 4];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressedFrames[index]);
+            int read = 0;
+            while (read < bytes.length && !inflater.finished())
+                read += inflater.inflate(bytes, read, bytes.length - read);
+        } catch (DataFormatException e) {
+            throw new AssertionError("Compressed frame is corrupt", e);
+        } finally {
+            inflater.end();
+        }
+        ByteBuffer.wrap(bytes).asIntBuffer().get(pixels);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+        return GifImage.Frame.create(image, delays[index]);
+    }
+
+    private static byte[] compress(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        ByteBuffer bytes = ByteBuffer.allocate(pixels.length * 4);
+        bytes.asIntBuffer().put(pixels);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(bytes.array());
+            deflater.finish();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(pixels.length / 4);
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished())
+                output.write(chunk, 0, deflater.deflate(chunk));
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * A {@link GifDecoder} that compresses every frame as soon as it has been decoded and drops the
+     * decompressed images once the decoder does not need them for disposal anymore.
+     */
+    static final class Decoder extends GifDecoder {
+
+        private final List<byte[]> compressedFrames = new ArrayList<>();
+        private final List<Integer> delays = new ArrayList<>();
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected void readImage() {
+            int before = frameCount;
+            super.readImage();
+            if (frameCount > before) {
+                int index = frameCount - 1;
+                compressedFrames.add(compress(getFrame(index)));
+                delays.add(getDelay(index));
+                // the decoder reads the frame before the last one again to restore it for disposal method 3,
+                // so only the frames older than that are dropped
+                if (index >= 2)
+                    frames.set(index - 2, null);
+            }
+        }
+    }
+}
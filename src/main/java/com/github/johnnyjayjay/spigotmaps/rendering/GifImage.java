@@ -4,6 +4,8 @@ import com.github.johnnyjayjay.spigotmaps.util.Checks;
 import com.madgag.gif.fmsware.GifDecoder;
 
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -38,6 +40,34 @@ public class GifImage implements Iterable<GifImage.Frame> {
                 .collect(Collectors.toList()));
     }
 
+    /**
+     * Reads a gif from a stream without keeping all of its frames in memory.
+     * <p>
+     * The frames are compressed as soon as they are decoded and decompressed when they are accessed
+     * through {@link #get(int)} or the {@link #iterator()}. Up to {@code cachedFrames} decompressed frames
+     * are kept in memory. When the frames are accessed in order, the next frames are decompressed on a
+     * background thread ahead of time.
+     * <p>
+     * This is useful for long gifs that would take up a lot of memory otherwise. Note that accessing
+     * frames of such a gif is more expensive than accessing frames of a gif created by
+     * {@link #fromDecoder(GifDecoder)}, so it should be {@link PreparedGif#prepare(GifImage) prepared}
+     * before it is rendered.
+     *
+     * @param input the stream to read the gif from.
+     * @param cachedFrames the maximum amount of decompressed frames to keep in memory.
+     * @return a new, never-{@code null} GifImage.
+     * @throws IOException if the stream does not contain a valid gif.
+     * @throws IllegalArgumentException if {@code cachedFrames} is not positive or a frame has no positive delay.
+     */
+    public static GifImage readLazily(InputStream input, int cachedFrames) throws IOException {
+        Checks.check(cachedFrames > 0, "Amount of cached frames must be positive");
+        CompressedFrameList.Decoder decoder = new CompressedFrameList.Decoder();
+        int code = decoder.read(input);
+        if (code != GifDecoder.STATUS_OK)
+            throw new IOException("Could not read gif image. Code: " + code);
+        return new GifImage(CompressedFrameList.from(decoder, cachedFrames));
+    }
+
     /**
      * Creates a new {@link GifImage} based on a List of Frames.
      *
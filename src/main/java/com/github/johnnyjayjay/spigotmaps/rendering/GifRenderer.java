@@ -3,13 +3,21 @@ package com.github.johnnyjayjay.spigotmaps.rendering;
 import com.github.johnnyjayjay.spigotmaps.util.Checks;
 import com.madgag.gif.fmsware.GifDecoder;
 import org.bukkit.entity.Player;
+import org.bukkit.map.MapCanvas;
 
 import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
 import java.util.function.Predicate;
 
 /**
  * An implementation of {@link AbstractMapRenderer} that is able to render animated gifs.
+ * <p>
+ * The animation is advanced by the {@link AnimationClock}, independent of how many players see it.
+ * By default, all players see the same frame. If {@link Builder#perViewer(boolean) per viewer} playback is enabled,
+ * every player sees the gif from the start frame, no matter when they first see the map.
  *
  * @see Builder
  * @author Johnny_JayJay (https://www.github.com/JohnnyJayJay)
@@ -21,83 +29,249 @@ public class GifRenderer extends AbstractMapRenderer {
      */
     public static final int REPEAT_FOREVER = -1;
 
-    private final GifImage image;
+    private final PreparedGif frames;
+    private final CanvasTracker shownFrames;
+    private final AnimationClock.Animation animation;
     private final boolean repeatForever;
+    private final int startFrame;
+    private final int repeat;
+    private final ViewerPlayback playback;
 
-    private int currentFrame;
-    private int toRepeat;
-    private int ticksToWait;
+    private GifImage image;
+
+    // the playback state: a single entry that everyone sees or one entry per player slot if playback is per viewer
+    private int[] currentFrame;
+    private int[] toRepeat;
+    private long[] elapsedInFrame;
+    private long droppedFrames;
 
     private GifRenderer(
             Point startingPoint,
             Set<Player> receivers,
             Predicate<RenderContext> precondition,
             GifImage image,
+            PreparedGif frames,
             int startFrame,
-            int repeat
+            int repeat,
+            boolean perViewer
     ) {
-        super(startingPoint, receivers, false, precondition);
+        super(startingPoint, receivers, false, precondition, perViewer);
         this.image = image;
-        this.currentFrame = startFrame;
-        this.toRepeat = repeat;
-        this.ticksToWait = msToTicks(image.get(currentFrame).getMsDelay());
-        this.repeatForever = toRepeat < 0;
+        this.frames = frames;
+        this.shownFrames = new CanvasTracker();
+        this.startFrame = startFrame;
+        this.repeat = repeat;
+        this.currentFrame = new int[] {startFrame};
+        this.toRepeat = new int[] {repeat};
+        this.elapsedInFrame = new long[1];
+        this.droppedFrames = 0;
+        this.repeatForever = repeat < 0;
+        this.playback = perViewer ? new ViewerPlayback(this.frames.parts()) {
+            @Override
+            void ensureCapacity(int capacity) {
+                currentFrame = Arrays.copyOf(currentFrame, capacity);
+                toRepeat = Arrays.copyOf(toRepeat, capacity);
+                elapsedInFrame = Arrays.copyOf(elapsedInFrame, capacity);
+            }
+
+            @Override
+            void reset(int slot) {
+                currentFrame[slot] = GifRenderer.this.startFrame;
+                toRepeat[slot] = GifRenderer.this.repeat;
+                elapsedInFrame[slot] = 0;
+            }
+
+            @Override
+            boolean advance(int slot, long elapsedNanos) {
+                return GifRenderer.this.advance(slot, elapsedNanos);
+            }
+
+            @Override
+            boolean catchUp(int slot, long elapsedNanos) {
+                // the frames that are skipped to catch up with the other parts were not dropped because of lag
+                long dropped = droppedFrames;
+                boolean running = GifRenderer.this.advance(slot, elapsedNanos);
+                droppedFrames = dropped;
+                return running;
+            }
+        } : null;
+        this.animation = new AnimationClock.Animation() {
+            @Override
+            boolean advance(long elapsedNanos) {
+                if (isStopped())
+                    return false;
+                if (playback != null) {
+                    playback.advanceAll(elapsedNanos);
+                    return true;
+                }
+                if (GifRenderer.this.advance(0, elapsedNanos))
+                    return true;
+                stopRendering();
+                return false;
+            }
+        };
+        AnimationClock.register(animation);
     }
 
-    private int msToTicks(int millis) {
-        return millis / 1000 * 20;
+    private long delayNanos(int frame) {
+        return frames.getMsDelay(frame) * 1_000_000L;
     }
 
-    @Override
-    protected void render(RenderContext context) {
-        if (ticksToWait-- > 0)
-            return;
-
-        if (currentFrame >= image.getFrameCount()) {
-            currentFrame = 0;
-            if (!repeatForever && --toRepeat == 0) {
-                this.stopRendering();
-                return;
+    /*
+     * Called once per tick for the shared playback state (index 0) or for every viewer's state. Moves on by
+     * as many frames as fit into the time that has passed, so the gif plays at the speed given by its delays
+     * even if they are shorter than a tick or the server lags. Frames that are skipped this way are never
+     * displayed and counted as dropped. Returns false once the gif has repeated often enough.
+     */
+    private boolean advance(int index, long elapsedNanos) {
+        long elapsed = elapsedInFrame[index] + elapsedNanos;
+        int advanced = 0;
+        int frame = currentFrame[index];
+        for (long delay = delayNanos(frame); elapsed >= delay; delay = delayNanos(frame)) {
+            elapsed -= delay;
+            frame++;
+            advanced++;
+            if (frame >= frames.getFrameCount()) {
+                frame = 0;
+                if (!repeatForever && --toRepeat[index] == 0)
+                    return false;
             }
         }
+        currentFrame[index] = frame;
+        elapsedInFrame[index] = elapsed;
+        if (advanced > 1)
+            droppedFrames += advanced - 1;
+        return true;
+    }
 
-        GifImage.Frame frame = image.get(currentFrame++);
-        context.getCanvas().drawImage(startingPoint.x, startingPoint.y, frame.getImage());
-        ticksToWait = msToTicks(frame.getMsDelay());
+    @Override
+    protected boolean isAnimated() {
+        return true;
+    }
+
+    @Override
+    protected void render(RenderContext context) {
+        int index = playback == null ? 0 : playback.start(context.getPlayer());
+        int frame = currentFrame[index];
+        MapCanvas canvas = context.getCanvas();
+        int shown = shownFrames.get(canvas);
+        if (shown != frame) {
+            frames.drawFrame(canvas, startingPoint.x, startingPoint.y, frame, shown);
+            shownFrames.set(canvas, frame);
+        }
     }
 
     /**
      * Returns the {@link GifImage} used by this renderer.
+     * <p>
+     * If this renderer was given a {@link PreparedGif}, this is a gif created from its map colours.
      *
      * @return the image
      */
     public GifImage getImage() {
+        if (image == null) {
+            List<GifImage.Frame> converted = new ArrayList<>(frames.getFrameCount());
+            for (int i = 0; i < frames.getFrameCount(); i++)
+                converted.add(GifImage.Frame.create(frames.getFrame(i).toImage(), frames.getMsDelay(i)));
+            image = GifImage.create(converted);
+        }
         return image;
     }
 
+    /**
+     * Returns the frames of the gif in map colours, as they are drawn by this renderer.
+     */
+    public PreparedGif getPreparedImage() {
+        return frames;
+    }
+
+    /**
+     * Returns the index of the {@link GifImage.Frame} the gif starts at.
+     *
+     * @see Builder#startAt(int)
+     */
+    public int getStartFrame() {
+        return startFrame;
+    }
+
+    /**
+     * Returns how often the gif is repeated in total or {@link #REPEAT_FOREVER} if it repeats indefinitely.
+     *
+     * @see Builder#repeat(int)
+     * @see #getToRepeat()
+     */
+    public int getRepeat() {
+        return repeatForever ? REPEAT_FOREVER : repeat;
+    }
+
     /**
      * Returns how often the gif will still repeat itself or {@link #REPEAT_FOREVER} if it repeats indefinitely.
+     * <p>
+     * If playback is per viewer, this is how often the gif is played for every viewer.
      */
     public int getToRepeat() {
-        return repeatForever ? REPEAT_FOREVER : toRepeat;
+        return repeatForever ? REPEAT_FOREVER : playback == null ? toRepeat[0] : repeat;
     }
 
     /**
      * Returns the index of the {@link GifImage.Frame} this renderer is currently at.
+     * <p>
+     * If playback is per viewer, this is the frame new viewers start at. Use {@link #getCurrentFrame(Player)}
+     * to get the frame a specific viewer is at.
      */
     public int getCurrentFrame() {
-        return currentFrame;
+        return playback == null ? currentFrame[0] : startFrame;
+    }
+
+    /**
+     * Returns the index of the {@link GifImage.Frame} a player currently sees. This is the same for every player
+     * unless playback is per viewer.
+     *
+     * @param viewer the player.
+     * @return the index of the frame the player sees or the frame they will start at, if they have not seen
+     *         the gif yet.
+     * @throws IllegalArgumentException if the argument is {@code null}.
+     */
+    public int getCurrentFrame(Player viewer) {
+        Checks.checkNotNull(viewer, "Viewer");
+        if (playback == null)
+            return currentFrame[0];
+        int slot = playback.slotOf(viewer);
+        return slot < 0 ? startFrame : currentFrame[slot];
     }
 
     /**
-     * Sets the index of the {@link GifImage.Frame} this renderer will render next.
+     * Returns whether every player sees the gif from the start, no matter when they first see it.
+     *
+     * @see Builder#perViewer(boolean)
+     */
+    public boolean isPerViewer() {
+        return playback != null;
+    }
+
+    /**
+     * Jumps to the {@link GifImage.Frame} with the given index. It is displayed for its whole delay,
+     * starting with the next tick.
+     * <p>
+     * If playback is per viewer, every current viewer jumps to the frame. New viewers still start at the
+     * start frame.
      *
      * @param frame the frame to set.
      * @throws IllegalArgumentException if the index is out of bounds.
      */
     public void setFrame(int frame) {
-        Checks.checkBounds(frame, 0, image.getFrameCount(), "Frame index");
-        this.currentFrame = frame;
+        Checks.checkBounds(frame, 0, frames.getFrameCount(), "Frame index");
+        Arrays.fill(currentFrame, frame);
+        Arrays.fill(elapsedInFrame, 0);
+        shownFrames.clear();
+    }
+
+    /**
+     * Returns how many frames have been skipped so far because their delay was shorter than a tick
+     * or the server lagged.
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
     }
 
     /**
@@ -112,6 +286,18 @@ public class GifRenderer extends AbstractMapRenderer {
         return builder().gif(image).addPlayers(players).build();
     }
 
+    /**
+     * Creates a new {@link GifRenderer} that renders a gif that has already been converted to map colours
+     * for the specified players or everyone if none are specified.
+     *
+     * @param image   the prepared gif to render.
+     * @param players the players to render for. Must not be {@code null}.
+     * @return a never-null instance of {@link GifRenderer}.
+     */
+    public static GifRenderer create(PreparedGif image, Player... players) {
+        return builder().gif(image).addPlayers(players).build();
+    }
+
     /**
      * Creates and returns a new instance of this class' {@link Builder}.
      */
@@ -127,8 +313,10 @@ public class GifRenderer extends AbstractMapRenderer {
     public static class Builder extends AbstractMapRenderer.Builder<GifRenderer, Builder> {
 
         private GifImage gifImage = null;
+        private PreparedGif preparedGif = null;
         private int startFrame = 0;
         private int repeat = REPEAT_FOREVER;
+        private boolean perViewer = false;
 
         private Builder() {}
 
@@ -148,9 +336,18 @@ public class GifRenderer extends AbstractMapRenderer {
         @Override
         public GifRenderer build() {
             super.check();
-            Checks.checkNotNull(gifImage, "GIF image");
+            Checks.check(gifImage != null || preparedGif != null, "GIF image must not be null");
+            if (preparedGif != null) {
+                Checks.checkBounds(startFrame, 0, preparedGif.getFrameCount(), "Frame index");
+                return new GifRenderer(startingPoint, receivers, precondition, null, preparedGif, startFrame, repeat,
+                        perViewer);
+            }
             Checks.checkBounds(startFrame, 0, gifImage.getFrameCount(), "Frame index");
-            return new GifRenderer(startingPoint, receivers, precondition, gifImage, startFrame, repeat);
+            // identical consecutive frames are merged, so the start frame may have a lower index afterwards
+            int[] mergedIndices = new int[gifImage.getFrameCount()];
+            PreparedGif frames = PreparedGif.prepare(gifImage, mergedIndices);
+            return new GifRenderer(startingPoint, receivers, precondition, gifImage, frames, mergedIndices[startFrame],
+                    repeat, perViewer);
         }
 
         /**
@@ -161,12 +358,30 @@ public class GifRenderer extends AbstractMapRenderer {
          */
         public Builder gif(GifImage gifImage) {
             this.gifImage = gifImage;
+            this.preparedGif = null;
+            return this;
+        }
+
+        /**
+         * Sets a gif whose frames have already been converted to map colours.
+         * <p>
+         * This replaces {@link #gif(GifImage)}; one of both is required.
+         *
+         * @param preparedGif A {@link PreparedGif}, obtained using {@link PreparedGif#prepare(GifImage)}.
+         * @return this.
+         */
+        public Builder gif(PreparedGif preparedGif) {
+            this.preparedGif = preparedGif;
+            this.gifImage = null;
             return this;
         }
 
         /**
          * Sets the frame this renderer should start at.
          *
+         * If a {@link GifImage} is set whose frame is identical to the one before it, the gif starts at the
+         * frame both are merged into.
+         *
          * @param frame the index of the frame to start at. Must be in bounds of the {@link GifImage} set.
          * @return this.
          */
@@ -186,6 +401,28 @@ public class GifRenderer extends AbstractMapRenderer {
             return this;
         }
 
+        /**
+         * Sets whether every player should see the gif from the start frame, no matter when they first see the map.
+         * Each player's playback runs at the speed of the gif and repeats as often as set, independent of other
+         * players. It is reset when the player quits.
+         * <p>
+         * Every part of a gif that is divided into multiple maps has its own renderer. To make sure that all parts show
+         * the same frame, even though a player usually sees them at different ticks, use parts that are
+         * {@link PreparedGif#playInSync(List) marked as parts of one gif}, like the ones returned by
+         * {@link com.github.johnnyjayjay.spigotmaps.util.ImageTools#divideIntoPreparedParts(GifImage, boolean, boolean)}.
+         * Otherwise, the playback of each part starts when the player first sees that part.
+         * <p>
+         * This is optional. By default, all players see the same frame. Per viewer playback makes Bukkit keep
+         * a separate canvas for every player, which costs 16 KiB per player and map.
+         *
+         * @param perViewer whether playback should be per viewer.
+         * @return this.
+         */
+        public Builder perViewer(boolean perViewer) {
+            this.perViewer = perViewer;
+            return this;
+        }
+
         /**
          * Not a supported operation, because every GifRenderer MUST render more than once and this
          * value can therefore not be set individually.
@@ -0,0 +1,80 @@
+package com.github.johnnyjayjay.spigotmaps.rendering;
+
+import com.github.johnnyjayjay.spigotmaps.util.Compatibility;
+import org.bukkit.Material;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
+import org.bukkit.inventory.meta.MapMeta;
+
+import java.util.Arrays;
+
+/*
+ * Tells which maps players hold in their hands. Looking into an inventory copies item metadata, so the result
+ * is remembered per player slot for the duration of a tick.
+ * Like everything that is called while rendering, this class must only be used on the main thread.
+ */
+final class HeldMaps {
+
+    private static final long NANOS_PER_TICK = 50_000_000;
+    private static final int MAP_VIEW = 0, MAP_ID = 1, FILLED_MAP_DURABILITY = 2, MAP_DURABILITY = 3;
+    private static final int ID_SOURCE = idSource();
+
+    private static long[] checkedAt = new long[0];
+    private static int[] mainHand = new int[0];
+    private static int[] offHand = new int[0];
+
+    private HeldMaps() {}
+
+    static boolean isHeld(Player player, int mapId) {
+        int slot = PlayerSlots.slotOf(player);
+        if (slot >= checkedAt.length) {
+            int length = Math.max(slot + 1, checkedAt.length * 2);
+            checkedAt = Arrays.copyOf(checkedAt, length);
+            mainHand = Arrays.copyOf(mainHand, length);
+            offHand = Arrays.copyOf(offHand, length);
+        }
+        long now = System.nanoTime();
+        if (checkedAt[slot] == 0 || now - checkedAt[slot] >= NANOS_PER_TICK) {
+            PlayerInventory inventory = player.getInventory();
+            mainHand[slot] = mapIdOf(inventory.getItemInMainHand());
+            offHand[slot] = mapIdOf(inventory.getItemInOffHand());
+            checkedAt[slot] = now;
+        }
+        return mainHand[slot] == mapId || offHand[slot] == mapId;
+    }
+
+    // Returns the id of the map an item stack shows or -1 if it is not a map.
+    @SuppressWarnings("deprecation")
+    static int mapIdOf(ItemStack item) {
+        if (item == null)
+            return -1;
+        switch (ID_SOURCE) {
+            case MAP_VIEW:
+            case MAP_ID:
+                if (item.getType() != Material.FILLED_MAP || !item.hasItemMeta())
+                    return -1;
+                MapMeta meta = (MapMeta) item.getItemMeta();
+                if (ID_SOURCE == MAP_ID)
+                    return meta.hasMapId() ? meta.getMapId() : -1;
+                return meta.hasMapView() ? Compatibility.getId(meta.getMapView()) : -1;
+            case FILLED_MAP_DURABILITY:
+                return item.getType() == Material.FILLED_MAP ? item.getDurability() : -1;
+            default:
+                return item.getType() == Material.MAP ? item.getDurability() : -1;
+        }
+    }
+
+    /*
+     * Where items keep the id of their map depends on the version: MapMeta#getMapView exists since 1.14,
+     * MapMeta#getMapId since 1.13.2. Before that, the id is the durability of the item, which is a FILLED_MAP
+     * in 1.13 and 1.13.1 and a MAP before 1.13.
+     */
+    private static int idSource() {
+        if (Compatibility.isAtLeast(1, 14, 0))
+            return MAP_VIEW;
+        if (Compatibility.isAtLeast(1, 13, 2))
+            return MAP_ID;
+        return Compatibility.isAtLeast(1, 13, 0) ? FILLED_MAP_DURABILITY : MAP_DURABILITY;
+    }
+}
@@ -3,6 +3,7 @@ package com.github.johnnyjayjay.spigotmaps.rendering;
 import com.github.johnnyjayjay.spigotmaps.util.Checks;
 import com.github.johnnyjayjay.spigotmaps.util.ImageTools;
 import org.bukkit.entity.Player;
+import org.bukkit.map.MapCanvas;
 
 import java.awt.Color;
 import java.awt.Point;
@@ -13,46 +14,93 @@ import java.util.function.Predicate;
 
 /**
  * An implementation of {@link AbstractMapRenderer} that renders an image onto a map.
+ * <p>
+ * The image is only drawn onto a canvas if the canvas does not show it yet, so a renderer that does not
+ * {@link #isRenderOnce() render once} costs close to nothing while its image does not change.
  *
  * @author Johnny_JayJay (https://www.github.com/JohnnyJayJay)
  * @see Builder
  */
 public class ImageRenderer extends AbstractMapRenderer {
 
+    private final CanvasTracker drawnVersions;
+
     private BufferedImage image;
+    private PaletteBuffer palette;
 
     private ImageRenderer(
             Set<Player> receivers,
             Predicate<RenderContext> precondition,
             boolean renderOnce,
             BufferedImage image,
+            PaletteBuffer palette,
             Point startingPoint
     ) {
         super(startingPoint, receivers, renderOnce, precondition);
         this.image = image;
+        this.palette = palette == null ? PaletteBuffer.fromImage(image) : palette;
+        this.drawnVersions = new CanvasTracker();
     }
 
     @Override
     protected void render(RenderContext context) {
-        context.getCanvas().drawImage(startingPoint.x, startingPoint.y, image);
+        // the version is read first, so the palette is at least as new as the version that is recorded
+        int version = getContentVersion();
+        MapCanvas canvas = context.getCanvas();
+        if (drawnVersions.get(canvas) != version) {
+            palette.drawTo(canvas, startingPoint.x, startingPoint.y);
+            drawnVersions.set(canvas, version);
+        }
     }
 
     /**
      * Returns the {@link BufferedImage} used by this renderer.
+     * <p>
+     * If this renderer was given a {@link PaletteBuffer} instead of an image, this is an image created
+     * from the buffer's map colours.
      */
     public BufferedImage getImage() {
+        if (image == null)
+            image = palette.toImage();
         return image;
     }
 
+    /**
+     * Returns the map colours this renderer draws.
+     */
+    public PaletteBuffer getPalette() {
+        return palette;
+    }
+
+    /**
+     * Sets the map colours this renderer should draw. In contrast to {@link #setImage(BufferedImage)},
+     * this does not need to convert anything.
+     *
+     * @param palette an already converted image to be rendered onto maps.
+     * @throws IllegalArgumentException if the argument is {@code null}.
+     * @see ImageTools#toPaletteBufferAsync(BufferedImage, boolean, java.util.concurrent.Executor)
+     */
+    public void setPalette(PaletteBuffer palette) {
+        Checks.checkNotNull(palette, "Palette");
+        this.palette = palette;
+        this.image = null;
+        markContentChanged();
+    }
+
     /**
      * Sets the image used by this renderer.
+     * <p>
+     * The image is converted to map colours right away, so later changes to the {@link BufferedImage}
+     * will not be visible until it is set again.
      *
      * @param image a BufferedImage to be rendered onto maps.
      * @throws IllegalArgumentException if the argument is {@code null}.
      */
     public void setImage(BufferedImage image) {
         Checks.checkNotNull(image, "Image");
+        this.palette = PaletteBuffer.fromImage(image);
         this.image = image;
+        markContentChanged();
     }
 
     /**
@@ -67,6 +115,18 @@ public class ImageRenderer extends AbstractMapRenderer {
         return builder().image(image).addPlayers(players).build();
     }
 
+    /**
+     * Creates a new {@link ImageRenderer} that renders an image that has already been converted to
+     * map colours for the specified players or everyone if none are specified.
+     *
+     * @param palette the converted image to render.
+     * @param players the players to render for. Must not be {@code null}.
+     * @return a never-null instance of {@link ImageRenderer}.
+     */
+    public static ImageRenderer create(PaletteBuffer palette, Player... players) {
+        return builder().image(palette).addPlayers(players).build();
+    }
+
     /**
      * Creates a new {@link ImageRenderer} that renders a single color onto a map for the specified players
      * or everybody if none are specified.
@@ -95,6 +155,7 @@ public class ImageRenderer extends AbstractMapRenderer {
     public static class Builder extends AbstractMapRenderer.Builder<ImageRenderer, Builder> {
 
         private BufferedImage image = null;
+        private PaletteBuffer palette = null;
 
         private Builder() {
         }
@@ -115,8 +176,8 @@ public class ImageRenderer extends AbstractMapRenderer {
         @Override
         public ImageRenderer build() {
             super.check();
-            Checks.checkNotNull(image, "Image");
-            return new ImageRenderer(receivers, precondition, renderOnce, image, startingPoint);
+            Checks.check(image != null || palette != null, "Image must not be null");
+            return new ImageRenderer(receivers, precondition, renderOnce, image, palette, startingPoint);
         }
 
         /**
@@ -130,6 +191,22 @@ public class ImageRenderer extends AbstractMapRenderer {
          */
         public Builder image(BufferedImage image) {
             this.image = image;
+            this.palette = null;
+            return this;
+        }
+
+        /**
+         * Sets an image that has already been converted to map colours to be rendered onto the map.
+         * <p>
+         * This replaces {@link #image(BufferedImage)}; one of both is required.
+         *
+         * @param palette the non-{@code null} {@link PaletteBuffer} to draw.
+         * @return this.
+         * @see ImageTools#divideIntoMapSizedPalettes(BufferedImage, boolean, boolean)
+         */
+        public Builder image(PaletteBuffer palette) {
+            this.palette = palette;
+            this.image = null;
             return this;
         }
     }
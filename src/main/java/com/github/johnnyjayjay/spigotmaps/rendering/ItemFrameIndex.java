@@ -0,0 +1,368 @@
+package com.github.johnnyjayjay.spigotmaps.rendering;
+
+import com.github.johnnyjayjay.spigotmaps.util.Checks;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.BlockFace;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.ItemFrame;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.entity.EntityDamageEvent;
+import org.bukkit.event.hanging.HangingBreakEvent;
+import org.bukkit.event.player.PlayerInteractEntityEvent;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+/**
+ * An index of the item frames in loaded chunks that contain maps, which allows renderers to skip players that
+ * cannot see a framed map without looking at any entities while rendering.
+ * <p>
+ * Bukkit renders a framed map for every player near its frame, regardless of where they are looking.
+ * On a server with many framed maps, most of these renderings are wasted. The preconditions returned by
+ * {@link #visibleWithin(double)} and {@link #visibleWithin(double, double)} look up the frames of the
+ * rendered map in this index and only pass if the player is close enough to, in front of and facing one of them:
+ * <pre>{@code
+ * ImageRenderer renderer = ImageRenderer.builder()
+ *         .image(image)
+ *         .precondition(ItemFrameIndex.visibleWithin(32, 110))
+ *         .build();
+ * }</pre>
+ * Maps that are not in any indexed frame, e.g. because they are only held by players, always pass, and so do
+ * maps that the player holds in their hand.
+ * <p>
+ * The index is kept up to date using chunk, entity and interaction events. It starts automatically using the
+ * plugin that loaded this library as soon as a precondition is created. If that is not possible, it has to be
+ * started manually using {@link #start(Plugin)}. Plugins that change the item of a frame themselves should
+ * call {@link #update(ItemFrame)} afterwards. Like rendering itself, the index must only be used on the main
+ * thread.
+ *
+ * @author Johnny_JayJay (https://www.github.com/JohnnyJayJay)
+ */
+public final class ItemFrameIndex {
+
+    private static final Frame[] NO_FRAMES = new Frame[0];
+    private static final double ALWAYS_VISIBLE_DISTANCE = 2;
+    // roughly half the diagonal of a map, so that frames at the edge of the view still count as visible
+    private static final double FRAME_RADIUS = 0.71;
+
+    // frames per map id; map ids are small and dense, so an array allows lookups without allocating
+    private static Frame[][] byMapId = new Frame[0][];
+    private static final Map<UUID, Frame> byEntity = new HashMap<>();
+    private static final Map<UUID, Map<Long, List<Frame>>> byChunk = new HashMap<>();
+    private static final Location playerLocation = new Location(null, 0, 0, 0);
+
+    private static Plugin plugin;
+    private static int frameCount = 0;
+
+    private ItemFrameIndex() {}
+
+    /**
+     * Starts the index for the given plugin by listening to the relevant events and indexing all item frames
+     * in the chunks that are currently loaded. Does nothing if it is already running.
+     *
+     * @param plugin the plugin to register the listener for.
+     * @throws IllegalArgumentException if the plugin is {@code null}.
+     */
+    public static void start(Plugin plugin) {
+        Checks.checkNotNull(plugin, "Plugin");
+        if (isRunning())
+            return;
+        ItemFrameIndex.plugin = plugin;
+        Bukkit.getPluginManager().registerEvents(new IndexListener(), plugin);
+        for (World world : Bukkit.getWorlds()) {
+            for (Chunk chunk : world.getLoadedChunks())
+                addChunk(chunk);
+        }
+    }
+
+    /**
+     * Returns whether the index is running, i.e. whether it is kept up to date.
+     */
+    public static boolean isRunning() {
+        return plugin != null && plugin.isEnabled();
+    }
+
+    /**
+     * Updates the index entry of an item frame. This should be called after changing the item of a frame.
+     *
+     * @param frame the non-{@code null} frame that changed.
+     * @throws IllegalArgumentException if the frame is {@code null}.
+     */
+    public static void update(ItemFrame frame) {
+        Checks.checkNotNull(frame, "Frame");
+        remove(frame.getUniqueId());
+        if (frame.isValid())
+            add(frame);
+    }
+
+    /**
+     * Returns the amount of item frames with maps that are currently indexed.
+     */
+    public static int getIndexedFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Returns a precondition that passes if the player is within the given distance of a frame of the map and
+     * in front of it. This is the same as {@code visibleWithin(maxDistance, 360)}.
+     *
+     * @param maxDistance the maximum distance in blocks. Must be positive.
+     * @return a never-null precondition that can be used with {@link AbstractMapRenderer.Builder#precondition(Predicate)}.
+     * @throws IllegalArgumentException if the distance is not positive.
+     */
+    public static Predicate<RenderContext> visibleWithin(double maxDistance) {
+        return visibleWithin(maxDistance, 360);
+    }
+
+    /**
+     * Returns a precondition that passes if the player is within the given distance of a frame of the map,
+     * in front of it and looking towards it.
+     * <p>
+     * The field of view describes a cone around the direction the player is looking in. Minecraft's default
+     * field of view of 70 degrees is vertical, so about 110 degrees are a reasonable value to cover the whole
+     * screen. Frames closer than 2 blocks always count as visible, so that maps do not pause while a player
+     * turns around right in front of them.
+     *
+     * @param maxDistance the maximum distance in blocks. Must be positive.
+     * @param fovDegrees the angle of the view cone in degrees, between 0 (exclusive) and 360 (inclusive).
+     * @return a never-null precondition that can be used with {@link AbstractMapRenderer.Builder#precondition(Predicate)}.
+     * @throws IllegalArgumentException if the distance is not positive or the angle is out of bounds.
+     */
+    public static Predicate<RenderContext> visibleWithin(double maxDistance, double fovDegrees) {
+        Checks.check(maxDistance > 0, "Distance must be positive");
+        Checks.check(fovDegrees > 0 && fovDegrees <= 360, "Field of view must be between 0 and 360 degrees");
+        if (!isRunning())
+            startWithProvidingPlugin();
+        return new Visibility(maxDistance, fovDegrees);
+    }
+
+    private static void startWithProvidingPlugin() {
+        try {
+            Plugin plugin = JavaPlugin.getProvidingPlugin(ItemFrameIndex.class);
+            if (plugin != null && plugin.isEnabled())
+                start(plugin);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            // not loaded by a plugin, start(Plugin) has to be called manually
+        }
+    }
+
+    private static Frame[] framesOf(int mapId) {
+        Frame[] frames = mapId >= 0 && mapId < byMapId.length ? byMapId[mapId] : null;
+        return frames == null ? NO_FRAMES : frames;
+    }
+
+    private static void addChunk(Chunk chunk) {
+        for (Entity entity : chunk.getEntities()) {
+            if (entity instanceof ItemFrame && !byEntity.containsKey(entity.getUniqueId()))
+                add((ItemFrame) entity);
+        }
+    }
+
+    private static void removeChunk(Chunk chunk) {
+        Map<Long, List<Frame>> chunks = byChunk.get(chunk.getWorld().getUID());
+        List<Frame> frames = chunks == null ? null : chunks.get(chunkKey(chunk.getX(), chunk.getZ()));
+        if (frames == null)
+            return;
+        for (Frame frame : frames.toArray(NO_FRAMES))
+            remove(frame.entityId);
+    }
+
+    private static void removeWorld(World world) {
+        Map<Long, List<Frame>> chunks = byChunk.get(world.getUID());
+        if (chunks == null)
+            return;
+        List<Frame> frames = new ArrayList<>();
+        chunks.values().forEach(frames::addAll);
+        for (Frame frame : frames)
+            remove(frame.entityId);
+    }
+
+    private static void add(ItemFrame entity) {
+        int mapId = HeldMaps.mapIdOf(entity.getItem());
+        if (mapId < 0)
+            return;
+        Location location = entity.getLocation();
+        Frame frame = new Frame(entity, location, mapId);
+        byEntity.put(frame.entityId, frame);
+        byChunk.computeIfAbsent(frame.worldId, (id) -> new HashMap<>())
+                .computeIfAbsent(frame.chunkKey, (key) -> new ArrayList<>()).add(frame);
+        if (mapId >= byMapId.length)
+            byMapId = Arrays.copyOf(byMapId, Math.max(mapId + 1, byMapId.length * 2));
+        Frame[] frames = framesOf(mapId);
+        frames = Arrays.copyOf(frames, frames.length + 1);
+        frames[frames.length - 1] = frame;
+        byMapId[mapId] = frames;
+        frameCount++;
+    }
+
+    private static void remove(UUID entityId) {
+        Frame frame = byEntity.remove(entityId);
+        if (frame == null)
+            return;
+        Map<Long, List<Frame>> chunks = byChunk.get(frame.worldId);
+        List<Frame> inChunk = chunks.get(frame.chunkKey);
+        inChunk.remove(frame);
+        if (inChunk.isEmpty())
+            chunks.remove(frame.chunkKey);
+        if (chunks.isEmpty())
+            byChunk.remove(frame.worldId);
+
+        Frame[] frames = byMapId[frame.mapId];
+        if (frames.length == 1) {
+            byMapId[frame.mapId] = null;
+        } else {
+            Frame[] remaining = new Frame[frames.length - 1];
+            int i = 0;
+            for (Frame other : frames) {
+                if (other != frame)
+                    remaining[i++] = other;
+            }
+            byMapId[frame.mapId] = remaining;
+        }
+        frameCount--;
+    }
+
+    private static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    /*
+     * The position of an item frame with a map. Item frames cannot move, so this never changes.
+     */
+    private static final class Frame {
+
+        private final UUID entityId;
+        private final UUID worldId;
+        private final long chunkKey;
+        private final int mapId;
+        private final double x, y, z;
+        private final int facingX, facingY, facingZ;
+
+        private Frame(ItemFrame entity, Location location, int mapId) {
+            this.entityId = entity.getUniqueId();
+            this.worldId = entity.getWorld().getUID();
+            this.chunkKey = chunkKey(location.getBlockX() >> 4, location.getBlockZ() >> 4);
+            this.mapId = mapId;
+            this.x = location.getX();
+            this.y = location.getY();
+            this.z = location.getZ();
+            BlockFace facing = entity.getFacing();
+            this.facingX = facing.getModX();
+            this.facingY = facing.getModY();
+            this.facingZ = facing.getModZ();
+        }
+    }
+
+    private static final class Visibility implements Predicate<RenderContext> {
+
+        private final double maxDistanceSquared;
+        private final double minCosine;
+
+        private Visibility(double maxDistance, double fovDegrees) {
+            this.maxDistanceSquared = maxDistance * maxDistance;
+            this.minCosine = fovDegrees >= 360 ? -1 : Math.cos(Math.toRadians(fovDegrees / 2));
+        }
+
+        @Override
+        public boolean test(RenderContext context) {
+            Frame[] frames = framesOf(context.getMapViewId());
+            if (frames.length == 0)
+                return true;
+            Player player = context.getPlayer();
+            Location location = player.getLocation(playerLocation);
+            UUID worldId = location.getWorld().getUID();
+            double eyeX = location.getX();
+            double eyeY = location.getY() + player.getEyeHeight();
+            double eyeZ = location.getZ();
+            for (Frame frame : frames) {
+                if (frame.worldId.equals(worldId) && isVisible(frame, eyeX, eyeY, eyeZ, location))
+                    return true;
+            }
+            return HeldMaps.isHeld(player, context.getMapViewId());
+        }
+
+        private boolean isVisible(Frame frame, double eyeX, double eyeY, double eyeZ, Location location) {
+            double dx = frame.x - eyeX;
+            double dy = frame.y - eyeY;
+            double dz = frame.z - eyeZ;
+            double distanceSquared = dx * dx + dy * dy + dz * dz;
+            if (distanceSquared > maxDistanceSquared)
+                return false;
+            // the front of a frame points in the direction it is facing, so the player has to be on that side
+            if (frame.facingX * dx + frame.facingY * dy + frame.facingZ * dz > 0)
+                return false;
+            if (minCosine <= -1 || distanceSquared < ALWAYS_VISIBLE_DISTANCE * ALWAYS_VISIBLE_DISTANCE)
+                return true;
+            double yaw = Math.toRadians(location.getYaw());
+            double pitch = Math.toRadians(location.getPitch());
+            double cosPitch = Math.cos(pitch);
+            double lookX = -Math.sin(yaw) * cosPitch;
+            double lookY = -Math.sin(pitch);
+            double lookZ = Math.cos(yaw) * cosPitch;
+            return lookX * dx + lookY * dy + lookZ * dz + FRAME_RADIUS >= minCosine * Math.sqrt(distanceSquared);
+        }
+    }
+
+    private static final class IndexListener implements Listener {
+
+        private IndexListener() {}
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onChunkLoad(ChunkLoadEvent event) {
+            addChunk(event.getChunk());
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onChunkUnload(ChunkUnloadEvent event) {
+            removeChunk(event.getChunk());
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onWorldUnload(WorldUnloadEvent event) {
+            if (!event.isCancelled())
+                removeWorld(event.getWorld());
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onBreak(HangingBreakEvent event) {
+            if (!event.isCancelled())
+                remove(event.getEntity().getUniqueId());
+        }
+
+        // putting a map into a frame or rotating it
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onInteract(PlayerInteractEntityEvent event) {
+            if (!event.isCancelled())
+                updateLater(event.getRightClicked());
+        }
+
+        // taking a map out of a frame
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onDamage(EntityDamageEvent event) {
+            if (!event.isCancelled())
+                updateLater(event.getEntity());
+        }
+
+        // the item only changes after the event has been handled
+        private void updateLater(Entity entity) {
+            if (entity instanceof ItemFrame)
+                Bukkit.getScheduler().runTask(plugin, () -> update((ItemFrame) entity));
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.github.johnnyjayjay.spigotmaps.rendering;
+
+import com.github.johnnyjayjay.spigotmaps.util.Checks;
+import com.github.johnnyjayjay.spigotmaps.util.ColorMatcher;
+import com.github.johnnyjayjay.spigotmaps.util.Compatibility;
+import com.github.johnnyjayjay.spigotmaps.util.ImageTools;
+import org.bukkit.map.MapCanvas;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * An image that has already been converted to Minecraft map colours.
+ * <p>
+ * Converting a {@link BufferedImage} to map colours is expensive, because the closest palette colour
+ * has to be looked up for every single pixel. {@link MapCanvas#drawImage(int, int, java.awt.Image)} does
+ * that on every call, which is why renderers that draw the same image repeatedly should convert it once
+ * using this class and then {@link #drawTo(MapCanvas, int, int) copy} the result.
+ * <p>
+ * Transparent pixels are not stored as part of the drawing instructions, i.e. they are skipped without
+ * being looked at when drawing the buffer.
+ *
+ * @author Johnny_JayJay (https://www.github.com/JohnnyJayJay)
+ * @see ImageRenderer
+ */
+public final class PaletteBuffer {
+
+    private final int width;
+    private final int height;
+    private final byte[] pixels;
+
+    private volatile int[] opaqueRuns;
+
+    PaletteBuffer(int width, int height, byte[] pixels) {
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+
+    /**
+     * Converts an image to map colours using the {@link ColorMatcher#getDefault() default ColorMatcher}.
+     *
+     * @param image the non-{@code null} image to convert.
+     * @return a new, never-{@code null} PaletteBuffer with the same size as the image.
+     * @throws IllegalArgumentException if the argument is {@code null}.
+     */
+    public static PaletteBuffer fromImage(BufferedImage image) {
+        return fromImage(image, ColorMatcher.getDefault());
+    }
+
+    /**
+     * Converts an image to map colours using a specific {@link ColorMatcher}.
+     *
+     * @param image the non-{@code null} image to convert.
+     * @param matcher the non-{@code null} matcher to use.
+     * @return a new, never-{@code null} PaletteBuffer with the same size as the image.
+     * @throws IllegalArgumentException if any of the arguments is {@code null}.
+     */
+    public static PaletteBuffer fromImage(BufferedImage image, ColorMatcher matcher) {
+        return fromImage(image, matcher, false);
+    }
+
+    /**
+     * Converts an image to map colours using a specific {@link ColorMatcher}, optionally with dithering.
+     * <p>
+     * Dithering is expensive, so if it is enabled, this should be called asynchronously,
+     * e.g. using {@link ImageTools#toPaletteBufferAsync(BufferedImage, boolean, java.util.concurrent.Executor)}.
+     *
+     * @param image the non-{@code null} image to convert.
+     * @param matcher the non-{@code null} matcher to use.
+     * @param dither whether to use {@link ColorMatcher#dither(BufferedImage) dithering}.
+     * @return a new, never-{@code null} PaletteBuffer with the same size as the image.
+     * @throws IllegalArgumentException if the image or the matcher is {@code null}.
+     */
+    public static PaletteBuffer fromImage(BufferedImage image, ColorMatcher matcher, boolean dither) {
+        Checks.checkNotNull(image, "Image");
+        Checks.checkNotNull(matcher, "ColorMatcher");
+        byte[] pixels = dither ? matcher.dither(image) : matcher.convert(image);
+        return new PaletteBuffer(image.getWidth(), image.getHeight(), pixels);
+    }
+
+    /**
+     * Creates a buffer from map colours that have already been computed, e.g. read from a file.
+     *
+     * @param width the width of the image in pixels.
+     * @param height the height of the image in pixels.
+     * @param colors the map colours of the image, row by row. The array is copied.
+     * @return a new, never-{@code null} PaletteBuffer.
+     * @throws IllegalArgumentException if the size is not positive or does not match the amount of colours.
+     */
+    public static PaletteBuffer fromColors(int width, int height, byte[] colors) {
+        Checks.checkNotNull(colors, "Colors");
+        Checks.check(width > 0 && height > 0 && colors.length == width * height, "Size does not match the amount of colors");
+        return new PaletteBuffer(width, height, colors.clone());
+    }
+
+    /**
+     * Returns whether the given map colour is one of the transparent palette entries.
+     *
+     * @param color a map colour.
+     * @return {@code true}, if nothing should be drawn for this colour.
+     */
+    public static boolean isTransparent(byte color) {
+        return (color & 0xFF) < 4;
+    }
+
+    /**
+     * Draws the opaque pixels of this buffer onto a canvas. Pixels that would land outside of the
+     * canvas are skipped.
+     *
+     * @param canvas the canvas to draw on.
+     * @param x the x coordinate on the canvas where the upper left corner of this buffer is drawn.
+     * @param y the y coordinate on the canvas where the upper left corner of this buffer is drawn.
+     */
+    public void drawTo(MapCanvas canvas, int x, int y) {
+        drawRuns(canvas, x, y, pixels, 0, width, opaqueRuns());
+    }
+
+    // Returns the runs of opaque pixels, which are computed once. Can be called in advance off the main thread.
+    int[] opaqueRuns() {
+        int[] runs = opaqueRuns;
+        if (runs == null)
+            opaqueRuns = runs = findRuns(pixels, 0, null, 0, width, height);
+        return runs;
+    }
+
+    /*
+     * Draws (x, y, length) runs of an image of the given width that starts at the given offset
+     * of the pixels array. Pixels that do not fit on the canvas are skipped.
+     */
+    static void drawRuns(MapCanvas canvas, int x, int y, byte[] pixels, int offset, int width, int[] runs) {
+        int canvasWidth = ImageTools.MINECRAFT_MAP_SIZE.width;
+        int canvasHeight = ImageTools.MINECRAFT_MAP_SIZE.height;
+        int written = 0;
+        for (int i = 0; i < runs.length; i += 3) {
+            int targetY = y + runs[i + 1];
+            if (targetY < 0 || targetY >= canvasHeight)
+                continue;
+            int startX = Math.max(x + runs[i], 0);
+            int endX = Math.min(x + runs[i] + runs[i + 2], canvasWidth);
+            int source = offset + runs[i + 1] * width + (startX - x);
+            for (int targetX = startX; targetX < endX; targetX++)
+                canvas.setPixel(targetX, targetY, pixels[source++]);
+            written += Math.max(endX - startX, 0);
+        }
+        // in-memory canvases are drawn off the main thread or are not what players see
+        if (RenderMetrics.isEnabled() && !(canvas instanceof PaletteCanvas))
+            RenderMetrics.pixels += written;
+    }
+
+    /*
+     * Collects the parts of every row of an image that need to be drawn as (x, y, length) triples.
+     * If there is no previous image, those are the opaque pixels. Otherwise, they are the pixels that differ
+     * from the previous image, including those that became transparent, i.e. drawing them onto a canvas that
+     * shows the previous image has the same result as drawing the whole image onto an empty canvas.
+     */
+    static int[] findRuns(byte[] pixels, int offset, byte[] previous, int previousOffset, int width, int height) {
+        return findRuns(pixels, offset, previous, previousOffset, null, width, height);
+    }
+
+    /*
+     * Collects the opaque pixels of an image and the transparent pixels that are set in "cleared", i.e. the ones
+     * that have to be drawn to replace whatever was drawn onto those pixels before.
+     */
+    static int[] findRuns(byte[] pixels, int offset, boolean[] cleared, int width, int height) {
+        return findRuns(pixels, offset, null, 0, cleared, width, height);
+    }
+
+    private static int[] findRuns(byte[] pixels, int offset, byte[] previous, int previousOffset,
+                                  boolean[] cleared, int width, int height) {
+        int[] runs = new int[12];
+        int size = 0;
+        for (int y = 0; y < height; y++) {
+            int row = offset + y * width;
+            int previousRow = previousOffset + y * width;
+            int x = 0;
+            while (x < width) {
+                while (x < width && isSkipped(pixels[row + x], previous, previousRow + x, cleared, y * width + x))
+                    x++;
+                int start = x;
+                while (x < width && !isSkipped(pixels[row + x], previous, previousRow + x, cleared, y * width + x))
+                    x++;
+                if (x > start) {
+                    if (size + 3 > runs.length)
+                        runs = Arrays.copyOf(runs, runs.length * 2);
+                    runs[size++] = start;
+                    runs[size++] = y;
+                    runs[size++] = x - start;
+                }
+            }
+        }
+        return Arrays.copyOf(runs, size);
+    }
+
+    private static boolean isSkipped(byte color, byte[] previous, int previousIndex, boolean[] cleared, int index) {
+        if (previous != null) {
+            byte before = previous[previousIndex];
+            // all transparent colours look the same
+            return before == color || (isTransparent(before) && isTransparent(color));
+        }
+        return isTransparent(color) && (cleared == null || !cleared[index]);
+    }
+
+    /**
+     * Returns a copy of a rectangular part of this buffer.
+     *
+     * @param x the x coordinate of the upper left corner of the part.
+     * @param y the y coordinate of the upper left corner of the part.
+     * @param width the width of the part.
+     * @param height the height of the part.
+     * @return a new PaletteBuffer.
+     * @throws IllegalArgumentException if the part is not completely inside of this buffer.
+     */
+    public PaletteBuffer getSubBuffer(int x, int y, int width, int height) {
+        Checks.check(x >= 0 && y >= 0 && width > 0 && height > 0
+                && x + width <= this.width && y + height <= this.height, "Sub buffer out of bounds");
+        byte[] part = new byte[width * height];
+        for (int row = 0; row < height; row++)
+            System.arraycopy(pixels, (y + row) * this.width + x, part, row * width, width);
+        return new PaletteBuffer(width, height, part);
+    }
+
+    /**
+     * Creates an image that shows the content of this buffer, using the colours of the
+     * {@link Compatibility#getPalette() map palette}.
+     *
+     * @return a new image of the same size as this buffer.
+     */
+    public BufferedImage toImage() {
+        Color[] palette = Compatibility.getPalette();
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int i = 0; i < pixels.length; i++) {
+            int index = pixels[i] & 0xFF;
+            int argb = isTransparent(pixels[i]) || index >= palette.length ? 0 : palette[index].getRGB();
+            image.setRGB(i % width, i / width, argb);
+        }
+        return image;
+    }
+
+    /**
+     * Returns the map colour at the given position.
+     *
+     * @param x the x coordinate of the pixel.
+     * @param y the y coordinate of the pixel.
+     * @return a map colour as used by {@link MapCanvas#setPixel(int, int, byte)}.
+     * @throws IndexOutOfBoundsException if the coordinates are out of bounds.
+     */
+    public byte getPixel(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height)
+            throw new IndexOutOfBoundsException("Pixel (" + x + ", " + y + ") out of bounds");
+        return pixels[y * width + x];
+    }
+
+    /**
+     * Returns a copy of the map colours of this buffer, row by row.
+     */
+    public byte[] getColors() {
+        return pixels.clone();
+    }
+
+    /**
+     * Returns the width of this buffer in pixels.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height of this buffer in pixels.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    // Gives classes in this package access to the pixels without copying them. They must not be modified.
+    byte[] pixels() {
+        return pixels;
+    }
+}
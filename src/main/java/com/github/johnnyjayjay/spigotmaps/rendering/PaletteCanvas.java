@@ -0,0 +1,98 @@
+package com.github.johnnyjayjay.spigotmaps.rendering;
+
+import com.github.johnnyjayjay.spigotmaps.util.ColorMatcher;
+import com.github.johnnyjayjay.spigotmaps.util.ImageTools;
+import org.bukkit.map.MapCanvas;
+import org.bukkit.map.MapCursorCollection;
+import org.bukkit.map.MapFont;
+import org.bukkit.map.MapView;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+
+/*
+ * A MapCanvas that only exists in memory. Renderers can draw onto it like onto a real canvas,
+ * and the result can then be turned into a PaletteBuffer.
+ * drawText and drawImage behave exactly like their implementations in CraftBukkit.
+ */
+final class PaletteCanvas implements MapCanvas {
+
+    private static final int SIZE = ImageTools.MINECRAFT_MAP_SIZE.width;
+
+    private final MapView mapView;
+    private final byte[] pixels;
+    private MapCursorCollection cursors;
+
+    PaletteCanvas(MapView mapView) {
+        this(mapView, new byte[SIZE * SIZE]);
+    }
+
+    // draws into the given array of SIZE * SIZE pixels, which is not cleared
+    PaletteCanvas(MapView mapView, byte[] pixels) {
+        this.mapView = mapView;
+        this.pixels = pixels;
+        this.cursors = new MapCursorCollection();
+    }
+
+    // Returns the content of this canvas. The canvas must not be used afterwards.
+    PaletteBuffer toPaletteBuffer() {
+        return new PaletteBuffer(SIZE, SIZE, pixels);
+    }
+
+    @Override
+    public MapView getMapView() {
+        return mapView;
+    }
+
+    @Override
+    public MapCursorCollection getCursors() {
+        return cursors;
+    }
+
+    @Override
+    public void setCursors(MapCursorCollection cursors) {
+        this.cursors = cursors;
+    }
+
+    @Override
+    public void setPixel(int x, int y, byte color) {
+        if (x >= 0 && y >= 0 && x < SIZE && y < SIZE)
+            pixels[y * SIZE + x] = color;
+    }
+
+    @Override
+    public byte getPixel(int x, int y) {
+        if (x < 0 || y < 0 || x >= SIZE || y >= SIZE)
+            return 0;
+        return pixels[y * SIZE + x];
+    }
+
+    // all layers share this canvas, so what is below a layer is what has been drawn so far
+    @Override
+    public byte getBasePixel(int x, int y) {
+        return getPixel(x, y);
+    }
+
+    @Override
+    public void drawImage(int x, int y, Image image) {
+        BufferedImage buffered;
+        if (image instanceof BufferedImage) {
+            buffered = (BufferedImage) image;
+        } else {
+            buffered = new BufferedImage(image.getWidth(null), image.getHeight(null), BufferedImage.TYPE_INT_ARGB);
+            Graphics2D graphics = buffered.createGraphics();
+            graphics.drawImage(image, 0, 0, null);
+            graphics.dispose();
+        }
+        int width = buffered.getWidth();
+        byte[] colors = ColorMatcher.getDefault().convert(buffered);
+        for (int i = 0; i < colors.length; i++)
+            setPixel(x + i % width, y + i / width, colors[i]);
+    }
+
+    @Override
+    public void drawText(int x, int y, MapFont font, String text) {
+        TextRaster.of(x, y, font, text).drawTo(this);
+    }
+}
@@ -0,0 +1,126 @@
+package com.github.johnnyjayjay.spigotmaps.rendering;
+
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/*
+ * Assigns every online player a small, dense number ("slot") that renderers can use as an index into
+ * bit sets or arrays instead of keeping references to Player objects. Slots are freed when a player quits
+ * and then reused for the next player.
+ *
+ * Per-player state that is indexed by slots must be registered using track, so that it is cleared when a
+ * player quits or a world is unloaded. This happens automatically using the plugin that loaded this library.
+ * Like everything that is called while rendering, this class must only be used on the main thread.
+ */
+final class PlayerSlots {
+
+    private static final Map<UUID, Integer> slots = new HashMap<>();
+    private static final BitSet used = new BitSet();
+    private static final List<WeakReference<SlotState>> states = new ArrayList<>();
+
+    private static boolean listening = false;
+
+    private PlayerSlots() {}
+
+    // Returns the slot of a player, assigning a new one if the player does not have one yet.
+    static int slotOf(Player player) {
+        Integer slot = slots.get(player.getUniqueId());
+        if (slot != null)
+            return slot;
+        if (!listening)
+            listen();
+        int newSlot = used.nextClearBit(0);
+        used.set(newSlot);
+        slots.put(player.getUniqueId(), newSlot);
+        return newSlot;
+    }
+
+    // Registers state that should be cleared when slots are freed. Only a weak reference is held.
+    static void track(SlotState state) {
+        states.add(new WeakReference<>(state));
+    }
+
+    private static void listen() {
+        try {
+            Plugin plugin = JavaPlugin.getProvidingPlugin(PlayerSlots.class);
+            if (plugin != null && plugin.isEnabled()) {
+                Bukkit.getPluginManager().registerEvents(new SlotListener(), plugin);
+                listening = true;
+            }
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            // not loaded by a plugin; slots are never freed, which only costs memory
+            listening = true;
+        }
+    }
+
+    private static void free(UUID player) {
+        Integer slot = slots.remove(player);
+        if (slot == null)
+            return;
+        Iterator<WeakReference<SlotState>> iterator = states.iterator();
+        while (iterator.hasNext()) {
+            SlotState state = iterator.next().get();
+            if (state == null)
+                iterator.remove();
+            else
+                state.clearSlot(slot);
+        }
+        used.clear(slot);
+    }
+
+    private static void unloadWorld(World world) {
+        Iterator<WeakReference<SlotState>> iterator = states.iterator();
+        while (iterator.hasNext()) {
+            SlotState state = iterator.next().get();
+            if (state == null)
+                iterator.remove();
+            else
+                state.clearWorld(world);
+        }
+    }
+
+    /*
+     * State that stores something per player slot.
+     */
+    interface SlotState {
+
+        // Forgets everything about the player with the given slot, because the slot is about to be reused.
+        void clearSlot(int slot);
+
+        // Forgets everything about maps in the given world, because it is unloaded.
+        void clearWorld(World world);
+    }
+
+    private static final class SlotListener implements Listener {
+
+        private SlotListener() {}
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onQuit(PlayerQuitEvent event) {
+            free(event.getPlayer().getUniqueId());
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onWorldUnload(WorldUnloadEvent event) {
+            if (!event.isCancelled())
+                unloadWorld(event.getWorld());
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.github.johnnyjayjay.spigotmaps.rendering;
+
+import com.github.johnnyjayjay.spigotmaps.util.Checks;
+import com.github.johnnyjayjay.spigotmaps.util.ColorMatcher;
+import com.github.johnnyjayjay.spigotmaps.util.ImageTools;
+import org.bukkit.map.MapCanvas;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A {@link GifImage} whose frames have been converted to map colours and compared to each other.
+ * <p>
+ * The map colours of all frames are stored in one contiguous array, which takes a quarter of the memory
+ * ARGB images of the same size would need. Consecutive frames that are identical are merged into one
+ * frame with the sum of their delays, so the {@link #getFrameCount() frame count} may be lower than the
+ * frame count of the source gif.
+ * <p>
+ * Most frames of an animated gif only differ from the previous frame in a small area. For every frame,
+ * this class stores which pixels changed compared to the frame before it, so that a canvas that already
+ * shows the previous frame only needs those pixels to be drawn. Pixels that become transparent are drawn
+ * as {@link org.bukkit.map.MapPalette#TRANSPARENT transparent}, so transparent gifs do not leave trails.
+ *
+ * @author Johnny_JayJay (https://www.github.com/JohnnyJayJay)
+ * @see GifRenderer
+ * @see ImageTools#resizeToPreparedGif(GifImage)
+ */
+public final class PreparedGif {
+
+    private final int width;
+    private final int height;
+    private final byte[] pixels;
+    private final int[] delays;
+    private final int[][] frameRuns;
+    private final int[][] changedRuns;
+
+    private volatile ViewerPlayback.Group parts;
+
+    private PreparedGif(int width, int height, byte[] pixels, int[] delays) {
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+        this.delays = delays;
+        int frameSize = width * height;
+        // a transparent pixel of a frame has to be drawn if another frame may have drawn something there
+        boolean[] drawnByAnyFrame = new boolean[frameSize];
+        for (int i = 0; i < pixels.length; i++) {
+            if (!PaletteBuffer.isTransparent(pixels[i]))
+                drawnByAnyFrame[i % frameSize] = true;
+        }
+        this.frameRuns = new int[delays.length][];
+        this.changedRuns = new int[delays.length][];
+        for (int i = 0; i < delays.length; i++) {
+            frameRuns[i] = PaletteBuffer.findRuns(pixels, i * frameSize, drawnByAnyFrame, width, height);
+            if (i > 0) {
+                int[] changes = PaletteBuffer.findRuns(pixels, i * frameSize, pixels, (i - 1) * frameSize, width, height);
+                // if most of the frame changed, drawing it completely is just as fast and saves the memory
+                changedRuns[i] = changes.length < frameRuns[i].length ? changes : null;
+            }
+        }
+    }
+
+    /**
+     * Converts the frames of a gif to map colours using the {@link ColorMatcher#getDefault() default ColorMatcher}
+     * and computes the changes between them.
+     *
+     * @param gif the non-{@code null} gif to prepare.
+     * @return a new, never-{@code null} PreparedGif.
+     * @throws IllegalArgumentException if the gif is {@code null} or does not have any frames.
+     */
+    public static PreparedGif prepare(GifImage gif) {
+        return prepare(gif, null);
+    }
+
+    /*
+     * Does the same as prepare(GifImage) and stores the index every frame of the gif has in the result in
+     * mergedIndices, if it is not null, because identical consecutive frames are merged.
+     */
+    static PreparedGif prepare(GifImage gif, int[] mergedIndices) {
+        Checks.checkNotNull(gif, "GIF image");
+        Checks.check(gif.getFrameCount() > 0, "GIF image must have at least one frame");
+        GifImage.Frame first = gif.get(0);
+        Builder builder = builder(first.getImage().getWidth(), first.getImage().getHeight());
+        int index = 0;
+        for (GifImage.Frame frame : gif) {
+            builder.addFrame(PaletteBuffer.fromImage(frame.getImage()), frame.getMsDelay());
+            if (mergedIndices != null)
+                mergedIndices[index++] = builder.frameCount - 1;
+        }
+        return builder.build();
+    }
+
+    /*
+     * Draws a frame onto a canvas that currently shows the frame with the index "shown" (or something else
+     * if that is CanvasTracker.UNKNOWN). If the canvas shows the previous frame, only the changes are drawn,
+     * otherwise the whole frame is drawn. The first frame is always drawn completely.
+     * Both clear the pixels that are transparent in the drawn frame, as long as any frame is opaque there,
+     * so that nothing of the frame shown before remains.
+     */
+    void drawFrame(MapCanvas canvas, int x, int y, int frame, int shown) {
+        if (frame == shown)
+            return;
+        int[] changes = changedRuns[frame];
+        int[] runs = frame > 0 && shown == frame - 1 && changes != null ? changes : frameRuns[frame];
+        PaletteBuffer.drawRuns(canvas, x, y, pixels, frame * width * height, width, runs);
+    }
+
+    /**
+     * Marks gifs as the parts of a gif that has been divided into multiple maps, which
+     * {@link ImageTools#divideIntoPreparedParts(GifImage, boolean, boolean)} does for the parts it returns.
+     * <p>
+     * If {@link GifRenderer.Builder#perViewer(boolean) playback is per viewer}, a player usually sees the parts of
+     * a wall at different ticks, e.g. because they come into view one after another. {@link GifRenderer}s of parts
+     * that are marked this way start the playback of a player at the same time for all parts, so that they always
+     * show the same frame, no matter which part the player sees first.
+     *
+     * @param parts the non-{@code null} parts. A part that has been marked as part of another gif before is
+     *              moved to this one.
+     * @throws IllegalArgumentException if the list or any of the parts is {@code null}.
+     */
+    public static void playInSync(List<PreparedGif> parts) {
+        Checks.checkNotNull(parts, "Parts");
+        ViewerPlayback.Group group = new ViewerPlayback.Group();
+        for (PreparedGif part : parts) {
+            Checks.checkNotNull(part, "Part");
+            part.parts = group;
+        }
+    }
+
+    // Returns the group of the parts this gif belongs to or null if it is not part of a bigger gif.
+    ViewerPlayback.Group parts() {
+        return parts;
+    }
+
+    /**
+     * Returns the amount of frames.
+     */
+    public int getFrameCount() {
+        return delays.length;
+    }
+
+    /**
+     * Returns a copy of the map colours of the frame with the given index.
+     *
+     * @param index the index of the frame.
+     * @return a new, never-{@code null} PaletteBuffer.
+     * @throws IndexOutOfBoundsException if the index is out of bounds.
+     */
+    public PaletteBuffer getFrame(int index) {
+        if (index < 0 || index >= delays.length)
+            throw new IndexOutOfBoundsException("Frame index: " + index + ", frame count: " + delays.length);
+        int frameSize = width * height;
+        return new PaletteBuffer(width, height, Arrays.copyOfRange(pixels, index * frameSize, (index + 1) * frameSize));
+    }
+
+    /**
+     * Returns how long the frame with the given index should be displayed in milliseconds.
+     *
+     * @param index the index of the frame.
+     * @return a positive delay.
+     * @throws IndexOutOfBoundsException if the index is out of bounds.
+     */
+    public int getMsDelay(int index) {
+        return delays[index];
+    }
+
+    /**
+     * Returns the width of the frames in pixels.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height of the frames in pixels.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Creates a new {@link Builder} for gifs whose frames have the given size.
+     *
+     * @param width the width of the frames in pixels.
+     * @param height the height of the frames in pixels.
+     * @return a new Builder.
+     * @throws IllegalArgumentException if the size is not positive.
+     */
+    public static Builder builder(int width, int height) {
+        Checks.check(width > 0 && height > 0, "Size must be positive");
+        return new Builder(width, height);
+    }
+
+    /**
+     * A builder class that collects frames that have already been converted to map colours.
+     *
+     * @see #builder(int, int)
+     * @author Johnny_JayJay (https://github.com/johnnyjayjay)
+     */
+    public static final class Builder {
+
+        private final int width;
+        private final int height;
+        private byte[] pixels;
+        private int[] delays;
+        private int frameCount;
+
+        private Builder(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.pixels = new byte[width * height * 4];
+            this.delays = new int[4];
+            this.frameCount = 0;
+        }
+
+        /**
+         * Adds a frame. If it is identical to the previously added frame, the previous frame is
+         * displayed longer instead.
+         *
+         * @param frame the non-{@code null} map colours of the frame. Must have the size given to this builder.
+         * @param msDelay a duration in milliseconds, i.e. how long this frame should be displayed.
+         * @return this.
+         * @throws IllegalArgumentException if the frame is {@code null} or has the wrong size
+         *                                  or if the delay is not positive.
+         */
+        public Builder addFrame(PaletteBuffer frame, int msDelay) {
+            Checks.checkNotNull(frame, "Frame");
+            Checks.check(frame.getWidth() == width && frame.getHeight() == height, "The frames must all have the same size");
+            Checks.check(msDelay > 0, "Duration must be positive");
+            int frameSize = width * height;
+            byte[] framePixels = frame.pixels();
+            if (frameCount > 0 && isPreviousFrame(framePixels, frameSize)) {
+                delays[frameCount - 1] += msDelay;
+                return this;
+            }
+            if (frameCount == delays.length) {
+                delays = Arrays.copyOf(delays, frameCount * 2);
+                pixels = Arrays.copyOf(pixels, frameCount * 2 * frameSize);
+            }
+            System.arraycopy(framePixels, 0, pixels, frameCount * frameSize, frameSize);
+            delays[frameCount++] = msDelay;
+            return this;
+        }
+
+        private boolean isPreviousFrame(byte[] framePixels, int frameSize) {
+            int offset = (frameCount - 1) * frameSize;
+            for (int i = 0; i < frameSize; i++) {
+                if (pixels[offset + i] != framePixels[i])
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * Builds a {@link PreparedGif} from the frames added so far.
+         *
+         * @return a new PreparedGif.
+         * @throws IllegalArgumentException if no frames have been added.
+         */
+        public PreparedGif build() {
+            Checks.check(frameCount > 0, "GIF image must have at least one frame");
+            int frameSize = width * height;
+            return new PreparedGif(width, height, Arrays.copyOf(pixels, frameCount * frameSize), Arrays.copyOf(delays, frameCount));
+        }
+    }
+}
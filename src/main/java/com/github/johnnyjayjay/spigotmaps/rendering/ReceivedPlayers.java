@@ -0,0 +1,84 @@
+package com.github.johnnyjayjay.spigotmaps.rendering;
+
+import org.bukkit.World;
+import org.bukkit.map.MapView;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/*
+ * Remembers which players a renderer has already rendered a map for, as one bit set of player slots per map.
+ * A renderer is almost always attached to a single map, so the maps are stored in small arrays.
+ * Entries are cleared when a player quits, when the world of a map is unloaded and when a renderer is
+ * (re-)initialized for a map.
+ */
+final class ReceivedPlayers implements PlayerSlots.SlotState {
+
+    private int[] mapIds = new int[1];
+    private MapView[] maps = new MapView[1];
+    private BitSet[] players = new BitSet[1];
+    private int size = 0;
+
+    ReceivedPlayers() {
+        PlayerSlots.track(this);
+    }
+
+    boolean contains(RenderContext context) {
+        int index = indexOf(context.getMapViewId());
+        return index >= 0 && players[index].get(PlayerSlots.slotOf(context.getPlayer()));
+    }
+
+    void add(RenderContext context) {
+        int index = indexOf(context.getMapViewId());
+        if (index < 0) {
+            if (size == mapIds.length) {
+                mapIds = Arrays.copyOf(mapIds, size * 2);
+                maps = Arrays.copyOf(maps, size * 2);
+                players = Arrays.copyOf(players, size * 2);
+            }
+            index = size++;
+            mapIds[index] = context.getMapViewId();
+            maps[index] = context.getView();
+            players[index] = new BitSet();
+        }
+        players[index].set(PlayerSlots.slotOf(context.getPlayer()));
+    }
+
+    void clearMap(MapView map) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (maps[i] == map)
+                remove(i);
+        }
+    }
+
+    @Override
+    public void clearSlot(int slot) {
+        for (int i = 0; i < size; i++)
+            players[i].clear(slot);
+    }
+
+    @Override
+    public void clearWorld(World world) {
+        for (int i = size - 1; i >= 0; i--) {
+            if (world.equals(maps[i].getWorld()))
+                remove(i);
+        }
+    }
+
+    private int indexOf(int mapId) {
+        for (int i = 0; i < size; i++) {
+            if (mapIds[i] == mapId)
+                return i;
+        }
+        return -1;
+    }
+
+    private void remove(int index) {
+        size--;
+        mapIds[index] = mapIds[size];
+        maps[index] = maps[size];
+        players[index] = players[size];
+        maps[size] = null;
+        players[size] = null;
+    }
+}
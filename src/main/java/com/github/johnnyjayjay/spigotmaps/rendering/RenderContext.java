@@ -6,27 +6,34 @@ import org.bukkit.entity.Player;
 import org.bukkit.map.MapCanvas;
 import org.bukkit.map.MapView;
 
-import java.util.Objects;
-
 /**
  * A container class for every map rendering operation. It contains the subject
  * {@link MapView}, a {@link MapCanvas} as well as the {@link Player} the map is rendered for.
+ * <p>
+ * To avoid allocations while rendering, {@link AbstractMapRenderer}s reuse one instance for all of their
+ * rendering operations. The context passed to a renderer or its precondition is therefore only valid during
+ * that call and must not be stored.
  *
  * @see AbstractMapRenderer
  * @author Johnny_JayJay (https://www.github.com/JohnnyJayJay)
  */
 public class RenderContext {
 
-    private final MapView mapView;
-    private final MapCanvas mapCanvas;
-    private final Player player;
-    private final int mapViewId;
+    private MapView mapView;
+    private MapCanvas mapCanvas;
+    private Player player;
+    private int mapViewId;
 
-    private RenderContext(MapView mapView, MapCanvas mapCanvas, Player player) {
+    private RenderContext(MapView mapView, MapCanvas mapCanvas, Player player, int mapViewId) {
         this.mapView = mapView;
         this.mapCanvas = mapCanvas;
         this.player = player;
-        this.mapViewId = Compatibility.getId(mapView);
+        this.mapViewId = mapViewId;
+    }
+
+    // creates an empty context that is filled by reset
+    RenderContext() {
+        this(null, null, null, 0);
     }
 
     /**
@@ -42,7 +49,27 @@ public class RenderContext {
         Checks.checkNotNull(mapView, "MapView");
         Checks.checkNotNull(mapCanvas, "MapCanvas");
         Checks.checkNotNull(player, "Player");
-        return new RenderContext(mapView, mapCanvas, player);
+        return new RenderContext(mapView, mapCanvas, player, Compatibility.getId(mapView));
+    }
+
+    /*
+     * Makes this context describe another rendering operation. The arguments are not checked, since Bukkit
+     * never passes null. A renderer almost always renders the same MapView, so its id is only looked up if
+     * the MapView changes.
+     */
+    RenderContext reset(MapView mapView, MapCanvas mapCanvas, Player player) {
+        if (mapView != this.mapView) {
+            this.mapView = mapView;
+            this.mapViewId = Compatibility.getId(mapView);
+        }
+        this.mapCanvas = mapCanvas;
+        this.player = player;
+        return this;
+    }
+
+    // Returns the id of the MapView, which is looked up once per MapView.
+    int getMapViewId() {
+        return mapViewId;
     }
 
     /**
@@ -72,11 +99,11 @@ public class RenderContext {
         if (o == null || getClass() != o.getClass()) return false;
         RenderContext that = (RenderContext) o;
         return mapViewId == that.mapViewId
-                && Objects.equals(player, that.player);
+                && (player == null ? that.player == null : player.equals(that.player));
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(mapViewId, player);
+        return 31 * mapViewId + (player == null ? 0 : player.hashCode());
     }
 }
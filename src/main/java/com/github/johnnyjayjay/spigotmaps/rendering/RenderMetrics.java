@@ -0,0 +1,442 @@
+package com.github.johnnyjayjay.spigotmaps.rendering;
+
+import com.github.johnnyjayjay.spigotmaps.util.Checks;
+import org.bukkit.Bukkit;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.server.PluginDisableEvent;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records what the renderers of this library cost, per renderer class and map id.
+ * <p>
+ * For every combination, the following is counted:
+ * <ul>
+ * <li>how often a renderer rendered,</li>
+ * <li>how often rendering was skipped because of the precondition, because the renderer only renders once
+ * or because the {@link RenderScheduler} deferred it,</li>
+ * <li>how many pixels the renderers of this library wrote onto canvases,</li>
+ * <li>how much time was spent rendering. To keep the overhead low, only every
+ * {@link #setSampleInterval(int) n-th} rendering is timed and the total is estimated from those.</li>
+ * </ul>
+ * Additionally, the time spent looking up renderers in a {@link com.github.johnnyjayjay.spigotmaps.MapStorage}
+ * is recorded.
+ * <p>
+ * The metrics are disabled by default and cost nothing but a check of a field while disabled. Once enabled,
+ * they can be queried using this class or using JMX through {@link RenderMetricsMXBean}.
+ *
+ * @author Johnny_JayJay (https://www.github.com/JohnnyJayJay)
+ */
+public final class RenderMetrics {
+
+    /**
+     * The name the {@link RenderMetricsMXBean} is registered with. If this library was loaded by a plugin, which is
+     * usually the case, {@code ,plugin=} and the quoted name of the plugin are appended, so that every plugin that
+     * contains a copy of this library has its own bean.
+     */
+    public static final String OBJECT_NAME = "com.github.johnnyjayjay.spigotmaps:type=RenderMetrics";
+
+    private static final Map<Class<?>, Map<Integer, Stats>> stats = new ConcurrentHashMap<>();
+    private static final LongAdder storageLookups = new LongAdder();
+    private static final LongAdder storageNanos = new LongAdder();
+
+    private static volatile boolean enabled = false;
+    private static volatile int sampleInterval = 16;
+    private static volatile int generation = 0;
+    private static ObjectName registeredName = null;
+    private static boolean listening = false;
+
+    // pixels written by PaletteBuffer and TextRaster since the current rendering started; only used on the main thread
+    static int pixels;
+
+    private RenderMetrics() {}
+
+    /**
+     * Turns the recording of metrics on or off. Turning them on registers the {@link RenderMetricsMXBean}
+     * if that has not been done yet. Turning them off unregisters it, but keeps what has been recorded so far.
+     * It is also unregistered when the plugin that loaded this library is disabled.
+     *
+     * @param enabled whether metrics should be recorded.
+     */
+    public static void setEnabled(boolean enabled) {
+        RenderMetrics.enabled = enabled;
+        if (enabled)
+            registerMBean(providingPlugin());
+        else
+            unregisterMBean();
+    }
+
+    /**
+     * Returns whether metrics are recorded.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets how often rendering is timed: every n-th rendering of a renderer class and map is timed.
+     * <p>
+     * This is an optional setting, the default value is 16. While the {@link RenderScheduler} is enabled,
+     * every rendering is timed anyway.
+     *
+     * @param interval the positive interval. {@code 1} times every rendering.
+     * @throws IllegalArgumentException if the interval is not positive.
+     */
+    public static void setSampleInterval(int interval) {
+        Checks.check(interval > 0, "Sample interval must be positive");
+        sampleInterval = interval;
+    }
+
+    /**
+     * Returns how often rendering is timed.
+     */
+    public static int getSampleInterval() {
+        return sampleInterval;
+    }
+
+    /**
+     * Returns a snapshot of the metrics of every renderer class and map id that has rendered or tried to render
+     * since the metrics were enabled or {@link #reset() reset}, in no particular order.
+     *
+     * @return a new, mutable list.
+     */
+    public static List<Entry> getEntries() {
+        List<Entry> entries = new ArrayList<>();
+        stats.forEach((type, byMap) -> byMap.forEach((mapId, stats) -> entries.add(new Entry(type, mapId, stats))));
+        return entries;
+    }
+
+    /**
+     * Returns the entries that took the most time in total, the most expensive one first.
+     *
+     * @param limit the maximum number of entries to return.
+     * @return a new, mutable list.
+     * @throws IllegalArgumentException if the limit is negative.
+     */
+    public static List<Entry> getCostliest(int limit) {
+        Checks.check(limit >= 0, "Limit must not be negative");
+        List<Entry> entries = getEntries();
+        entries.sort(Comparator.comparingLong(Entry::getEstimatedNanos).reversed());
+        return entries.size() > limit ? new ArrayList<>(entries.subList(0, limit)) : entries;
+    }
+
+    /**
+     * Returns how often renderers were looked up in a {@link com.github.johnnyjayjay.spigotmaps.MapStorage}.
+     */
+    public static long getStorageLookups() {
+        return storageLookups.sum();
+    }
+
+    /**
+     * Returns how much time was spent looking up renderers in a
+     * {@link com.github.johnnyjayjay.spigotmaps.MapStorage} in nanoseconds.
+     */
+    public static long getStorageNanos() {
+        return storageNanos.sum();
+    }
+
+    /**
+     * Records a lookup in a {@link com.github.johnnyjayjay.spigotmaps.MapStorage}. This is called by
+     * {@link com.github.johnnyjayjay.spigotmaps.InitializationListener} and does nothing while metrics are disabled.
+     *
+     * @param nanos how long the lookup took.
+     */
+    public static void recordStorageLookup(long nanos) {
+        if (enabled) {
+            storageLookups.increment();
+            storageNanos.add(nanos);
+        }
+    }
+
+    /**
+     * Forgets everything that has been recorded so far.
+     */
+    public static void reset() {
+        stats.clear();
+        storageLookups.reset();
+        storageNanos.reset();
+        generation++;
+    }
+
+    // Returns the stats of a renderer class and map, creating them if necessary.
+    static Stats statsFor(Class<?> type, int mapId) {
+        return stats.computeIfAbsent(type, (key) -> new ConcurrentHashMap<>())
+                .computeIfAbsent(mapId, (key) -> new Stats(generation));
+    }
+
+    // Returns whether stats obtained earlier still belong to the recorded metrics.
+    static boolean isCurrent(Stats stats) {
+        return stats.generation == generation;
+    }
+
+    private static Plugin providingPlugin() {
+        try {
+            return JavaPlugin.getProvidingPlugin(RenderMetrics.class);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            // not loaded by a plugin
+            return null;
+        }
+    }
+
+    // Registers the bean under a name that contains the plugin, if there is one, and unregisters it when it is disabled.
+    static synchronized void registerMBean(Plugin plugin) {
+        if (registeredName != null)
+            return;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = objectName(plugin);
+            if (server.isRegistered(name))
+                return;
+            server.registerMBean(new MBean(), name);
+            registeredName = name;
+        } catch (JMException | SecurityException e) {
+            // JMX is not available, the metrics can still be queried using this class
+            return;
+        }
+        if (plugin != null && plugin.isEnabled() && !listening) {
+            Bukkit.getPluginManager().registerEvents(new DisableListener(plugin), plugin);
+            listening = true;
+        }
+    }
+
+    static ObjectName objectName(Plugin plugin) throws MalformedObjectNameException {
+        return new ObjectName(plugin == null ? OBJECT_NAME : OBJECT_NAME + ",plugin=" + ObjectName.quote(plugin.getName()));
+    }
+
+    // Unregisters the bean, so that JMX does not keep this class loader alive after the plugin has been disabled.
+    static synchronized void unregisterMBean() {
+        if (registeredName == null)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+        } catch (JMException | SecurityException e) {
+            // already unregistered
+        }
+        registeredName = null;
+    }
+
+    // the listener is unregistered by Bukkit when the plugin is disabled
+    static synchronized void pluginDisabled() {
+        listening = false;
+        unregisterMBean();
+    }
+
+    private static final class DisableListener implements Listener {
+
+        private final Plugin plugin;
+
+        private DisableListener(Plugin plugin) {
+            this.plugin = plugin;
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onDisable(PluginDisableEvent event) {
+            if (event.getPlugin() == plugin)
+                pluginDisabled();
+        }
+    }
+
+    /*
+     * The counters of one renderer class and map id. They are only updated on the main thread, but can
+     * be read from any thread.
+     */
+    static final class Stats {
+
+        final LongAdder renders = new LongAdder();
+        final LongAdder skippedByPrecondition = new LongAdder();
+        final LongAdder skippedRenderOnce = new LongAdder();
+        final LongAdder deferred = new LongAdder();
+        final LongAdder pixelsWritten = new LongAdder();
+        private final LongAdder sampledNanos = new LongAdder();
+        private final LongAdder samples = new LongAdder();
+        private final int generation;
+        private int untilSample = 0;
+
+        private Stats(int generation) {
+            this.generation = generation;
+        }
+
+        // Returns whether the next rendering should be timed.
+        boolean sample() {
+            if (--untilSample > 0)
+                return false;
+            untilSample = sampleInterval;
+            return true;
+        }
+
+        void addSample(long nanos) {
+            sampledNanos.add(nanos);
+            samples.increment();
+        }
+
+        long estimateNanos() {
+            long sampleCount = samples.sum();
+            return sampleCount == 0 ? 0 : (long) ((double) sampledNanos.sum() / sampleCount * renders.sum());
+        }
+    }
+
+    /**
+     * The metrics of one renderer class and map id at the time they were queried.
+     *
+     * @author Johnny_JayJay (https://www.github.com/JohnnyJayJay)
+     */
+    public static final class Entry {
+
+        private final String rendererClass;
+        private final int mapId;
+        private final long renders;
+        private final long skippedByPrecondition;
+        private final long skippedRenderOnce;
+        private final long deferred;
+        private final long pixelsWritten;
+        private final long estimatedNanos;
+
+        private Entry(Class<?> type, int mapId, Stats stats) {
+            this.rendererClass = type.getName();
+            this.mapId = mapId;
+            this.renders = stats.renders.sum();
+            this.skippedByPrecondition = stats.skippedByPrecondition.sum();
+            this.skippedRenderOnce = stats.skippedRenderOnce.sum();
+            this.deferred = stats.deferred.sum();
+            this.pixelsWritten = stats.pixelsWritten.sum();
+            this.estimatedNanos = stats.estimateNanos();
+        }
+
+        /**
+         * Returns the fully qualified name of the renderer class.
+         */
+        public String getRendererClass() {
+            return rendererClass;
+        }
+
+        /**
+         * Returns the id of the map.
+         */
+        public int getMapId() {
+            return mapId;
+        }
+
+        /**
+         * Returns how often renderers of the class rendered the map.
+         */
+        public long getRenders() {
+            return renders;
+        }
+
+        /**
+         * Returns how often rendering was skipped because the precondition failed.
+         */
+        public long getSkippedByPrecondition() {
+            return skippedByPrecondition;
+        }
+
+        /**
+         * Returns how often rendering was skipped because the renderer had rendered for the player already.
+         */
+        public long getSkippedRenderOnce() {
+            return skippedRenderOnce;
+        }
+
+        /**
+         * Returns how often rendering was deferred by the {@link RenderScheduler}.
+         */
+        public long getDeferred() {
+            return deferred;
+        }
+
+        /**
+         * Returns how many pixels were written onto canvases.
+         */
+        public long getPixelsWritten() {
+            return pixelsWritten;
+        }
+
+        /**
+         * Returns the estimated time spent rendering in nanoseconds.
+         */
+        public long getEstimatedNanos() {
+            return estimatedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" +
+                    "rendererClass='" + rendererClass + '\'' +
+                    ", mapId=" + mapId +
+                    ", renders=" + renders +
+                    ", skippedByPrecondition=" + skippedByPrecondition +
+                    ", skippedRenderOnce=" + skippedRenderOnce +
+                    ", deferred=" + deferred +
+                    ", pixelsWritten=" + pixelsWritten +
+                    ", estimatedNanos=" + estimatedNanos +
+                    '}';
+        }
+    }
+
+    private static final class MBean implements RenderMetricsMXBean {
+
+        @Override
+        public boolean isEnabled() {
+            return RenderMetrics.isEnabled();
+        }
+
+        @Override
+        public void setEnabled(boolean enabled) {
+            RenderMetrics.setEnabled(enabled);
+        }
+
+        @Override
+        public long getRenders() {
+            return getEntries().stream().mapToLong(Entry::getRenders).sum();
+        }
+
+        @Override
+        public long getPixelsWritten() {
+            return getEntries().stream().mapToLong(Entry::getPixelsWritten).sum();
+        }
+
+        @Override
+        public long getEstimatedNanos() {
+            return getEntries().stream().mapToLong(Entry::getEstimatedNanos).sum();
+        }
+
+        @Override
+        public long getStorageLookups() {
+            return RenderMetrics.getStorageLookups();
+        }
+
+        @Override
+        public long getStorageNanos() {
+            return RenderMetrics.getStorageNanos();
+        }
+
+        @Override
+        public List<Entry> getCostliest(int limit) {
+            return RenderMetrics.getCostliest(limit);
+        }
+
+        @Override
+        public List<Entry> getEntries() {
+            return RenderMetrics.getEntries();
+        }
+
+        @Override
+        public void reset() {
+            RenderMetrics.reset();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.github.johnnyjayjay.spigotmaps.rendering;
+
+import java.util.List;
+
+/**
+ * The management interface of {@link RenderMetrics}, which is registered with the platform MBean server as
+ * {@value RenderMetrics#OBJECT_NAME}{@code ,plugin="<plugin name>"} while the metrics are enabled. It can be
+ * inspected with tools like JConsole or VisualVM.
+ *
+ * @author Johnny_JayJay (https://www.github.com/JohnnyJayJay)
+ */
+public interface RenderMetricsMXBean {
+
+    /**
+     * See {@link RenderMetrics#isEnabled()}.
+     */
+    boolean isEnabled();
+
+    /**
+     * See {@link RenderMetrics#setEnabled(boolean)}.
+     */
+    void setEnabled(boolean enabled);
+
+    /**
+     * Returns the sum of {@link RenderMetrics.Entry#getRenders()} of all entries.
+     */
+    long getRenders();
+
+    /**
+     * Returns the sum of {@link RenderMetrics.Entry#getPixelsWritten()} of all entries.
+     */
+    long getPixelsWritten();
+
+    /**
+     * Returns the sum of {@link RenderMetrics.Entry#getEstimatedNanos()} of all entries.
+     */
+    long getEstimatedNanos();
+
+    /**
+     * See {@link RenderMetrics#getStorageLookups()}.
+     */
+    long getStorageLookups();
+
+    /**
+     * See {@link RenderMetrics#getStorageNanos()}.
+     */
+    long getStorageNanos();
+
+    /**
+     * See {@link RenderMetrics#getCostliest(int)}.
+     */
+    List<RenderMetrics.Entry> getCostliest(int limit);
+
+    /**
+     * See {@link RenderMetrics#getEntries()}.
+     */
+    List<RenderMetrics.Entry> getEntries();
+
+    /**
+     * See {@link RenderMetrics#reset()}.
+     */
+    void reset();
+}
@@ -0,0 +1,257 @@
+package com.github.johnnyjayjay.spigotmaps.rendering;
+
+import com.github.johnnyjayjay.spigotmaps.util.Checks;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.map.MapCanvas;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the time all renderers of this library may spend rendering per server tick.
+ * <p>
+ * Bukkit renders every map for every player that sees it in the same tick, so many players looking at many maps
+ * can take a noticeable part of the 50 milliseconds a tick has. If a {@link #setBudget(long, TimeUnit) budget}
+ * is set, renderers stop drawing once it is used up and draw in a later tick instead. Until then, the canvases
+ * keep showing what was drawn last.
+ * <p>
+ * Bukkit decides in which order maps are rendered, so deferred work is prioritised by estimating how much of
+ * the budget the renderings of the previous tick would have needed: if not everything fits, only renderings with
+ * a high enough priority are started. From highest to lowest, the priority is given to
+ * <ol>
+ * <li>maps that have been deferred for at least {@link #setStarvationTicks(int) a number of ticks},</li>
+ * <li>maps held in a player's hand (as opposed to maps in item frames),</li>
+ * <li>maps of animated renderers like {@link GifRenderer},</li>
+ * <li>maps that have waited longer.</li>
+ * </ol>
+ * By default, no budget is set and nothing is ever deferred. Like rendering itself, the scheduler must only be
+ * used on the main thread, except for its configuration and metrics.
+ *
+ * @author Johnny_JayJay (https://www.github.com/JohnnyJayJay)
+ * @see #configure(ConfigurationSection)
+ */
+public final class RenderScheduler {
+
+    private static final long NANOS_PER_TICK = 50_000_000;
+    private static final int STARVING = 1024;
+    private static final int HELD = 512;
+    private static final int ANIMATED = 256;
+    private static final int MAX_WAIT = 255;
+
+    private static volatile long budgetNanos = 0;
+    private static volatile int starvationTicks = 20;
+
+    // state of the current tick
+    private static long tick = 0;
+    private static long clockTick = -1;
+    private static long tickStartNanos;
+    private static long spentNanos;
+    private static int threshold;
+    private static int rendered;
+    private static int deferred;
+    private static int longestWait;
+    private static boolean contended;
+    private static double averageCost;
+    private static final int[] requests = new int[2 * STARVING];
+    private static final Map<MapCanvas, long[]> waitingSince = new WeakHashMap<>();
+
+    // metrics of the last completed tick
+    private static volatile int lastRendered;
+    private static volatile int lastDeferred;
+    private static volatile long lastSpentNanos;
+    private static volatile int lastLongestWait;
+    private static volatile int backlog;
+    private static volatile long totalDeferred;
+
+    private RenderScheduler() {}
+
+    /**
+     * Sets how much time renderers may spend rendering per tick in total.
+     *
+     * @param amount the budget in the given unit. {@code 0} or less disables the scheduler.
+     * @param unit the non-{@code null} unit of the amount.
+     * @throws IllegalArgumentException if the unit is {@code null}.
+     */
+    public static void setBudget(long amount, TimeUnit unit) {
+        Checks.checkNotNull(unit, "Unit");
+        budgetNanos = Math.max(unit.toNanos(amount), 0);
+        if (budgetNanos > 0)
+            AnimationClock.startWithProvidingPlugin();
+    }
+
+    /**
+     * Returns the budget per tick in nanoseconds or {@code 0} if the scheduler is disabled.
+     */
+    public static long getBudgetNanos() {
+        return budgetNanos;
+    }
+
+    /**
+     * Returns whether a budget is set.
+     */
+    public static boolean isEnabled() {
+        return budgetNanos > 0;
+    }
+
+    /**
+     * Sets after how many ticks of waiting a deferred map is rendered before everything else.
+     * <p>
+     * This is an optional setting, the default value is 20, i.e. one second.
+     *
+     * @param ticks a positive amount of ticks.
+     * @throws IllegalArgumentException if the amount is not positive.
+     */
+    public static void setStarvationTicks(int ticks) {
+        Checks.check(ticks > 0, "Starvation ticks must be positive");
+        starvationTicks = Math.min(ticks, MAX_WAIT);
+    }
+
+    /**
+     * Returns after how many ticks of waiting a deferred map is rendered before everything else.
+     */
+    public static int getStarvationTicks() {
+        return starvationTicks;
+    }
+
+    /**
+     * Configures the scheduler using a section of a configuration file, e.g. the plugin's {@code config.yml}.
+     * <p>
+     * The following keys are read; missing keys keep their current values:
+     * <ul>
+     * <li>{@code budget-ms}: the budget per tick in milliseconds (decimals allowed), {@code 0} to disable</li>
+     * <li>{@code starvation-ticks}: see {@link #setStarvationTicks(int)}</li>
+     * </ul>
+     *
+     * @param section the non-{@code null} section to read.
+     * @throws IllegalArgumentException if the section is {@code null} or contains invalid values.
+     */
+    public static void configure(ConfigurationSection section) {
+        Checks.checkNotNull(section, "Section");
+        if (section.contains("starvation-ticks"))
+            setStarvationTicks(section.getInt("starvation-ticks", starvationTicks));
+        if (section.contains("budget-ms"))
+            setBudget(Math.round(section.getDouble("budget-ms", 0) * 1_000_000), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns how many renderings were done in the last completed tick.
+     */
+    public static int getRenderedLastTick() {
+        return lastRendered;
+    }
+
+    /**
+     * Returns how many renderings were deferred in the last completed tick.
+     */
+    public static int getDeferredLastTick() {
+        return lastDeferred;
+    }
+
+    /**
+     * Returns how much time was spent rendering in the last completed tick in nanoseconds.
+     */
+    public static long getNanosLastTick() {
+        return lastSpentNanos;
+    }
+
+    /**
+     * Returns the amount of ticks the map that has waited the longest in the last completed tick had been waiting.
+     */
+    public static int getLongestWaitLastTick() {
+        return lastLongestWait;
+    }
+
+    /**
+     * Returns how many canvases were waiting to be rendered at the end of the last completed tick.
+     */
+    public static int getBacklog() {
+        return backlog;
+    }
+
+    /**
+     * Returns how many renderings have been deferred since the server started.
+     */
+    public static long getTotalDeferred() {
+        return totalDeferred;
+    }
+
+    /*
+     * Decides whether a renderer may render now. If it returns true, finish must be called with the time spent rendering.
+     */
+    static boolean admit(AbstractMapRenderer renderer, RenderContext context) {
+        long now = System.nanoTime();
+        long currentTick = AnimationClock.getCurrentTick();
+        // the clock might not be running, in which case ticks are estimated from the time
+        if (currentTick != clockTick || now - tickStartNanos >= NANOS_PER_TICK) {
+            clockTick = currentTick;
+            startTick(now);
+        }
+
+        MapCanvas canvas = context.getCanvas();
+        long[] since = waitingSince.get(canvas);
+        int waited = since == null ? 0 : (int) Math.min(tick - since[0], MAX_WAIT);
+        int score = waited;
+        if (waited >= starvationTicks)
+            score += STARVING;
+        if (renderer.isAnimated())
+            score += ANIMATED;
+        // looking into the inventory is not free, so it is only done if it matters
+        if (contended && HeldMaps.isHeld(context.getPlayer(), context.getMapViewId()))
+            score += HELD;
+        requests[score]++;
+
+        if (score >= threshold && spentNanos < budgetNanos) {
+            if (since != null)
+                waitingSince.remove(canvas);
+            rendered++;
+            return true;
+        }
+        if (since == null)
+            waitingSince.put(canvas, new long[] {tick});
+        longestWait = Math.max(longestWait, waited);
+        deferred++;
+        return false;
+    }
+
+    static void finish(long elapsedNanos) {
+        spentNanos += elapsedNanos;
+    }
+
+    private static void startTick(long now) {
+        if (tick > 0) {
+            lastRendered = rendered;
+            lastDeferred = deferred;
+            lastSpentNanos = spentNanos;
+            lastLongestWait = longestWait;
+            backlog = waitingSince.size();
+            totalDeferred += deferred;
+        }
+        if (rendered > 0) {
+            double cost = (double) spentNanos / rendered;
+            averageCost = averageCost == 0 ? cost : averageCost * 0.8 + cost * 0.2;
+        }
+        contended = deferred > 0;
+
+        // find the lowest priority that would still have fit into the budget in the previous tick
+        threshold = 0;
+        double affordable = averageCost == 0 ? Double.MAX_VALUE : budgetNanos / averageCost;
+        int count = 0;
+        for (int score = requests.length - 1; score >= 0; score--) {
+            count += requests[score];
+            if (count > affordable) {
+                threshold = score;
+                break;
+            }
+        }
+
+        Arrays.fill(requests, 0);
+        tick++;
+        tickStartNanos = now;
+        spentNanos = 0;
+        rendered = 0;
+        deferred = 0;
+        longestWait = 0;
+    }
+}
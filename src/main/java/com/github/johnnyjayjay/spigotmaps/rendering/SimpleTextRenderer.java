@@ -1,6 +1,7 @@
 package com.github.johnnyjayjay.spigotmaps.rendering;
 
 import org.bukkit.entity.Player;
+import org.bukkit.map.MapCanvas;
 import org.bukkit.map.MapFont;
 
 import java.awt.Point;
@@ -9,12 +10,18 @@ import java.util.function.Predicate;
 
 /**
  * An implementation of {@link TextRenderer} that can be used to render text on a map.
+ * <p>
+ * The text is laid out and rasterized once whenever it or the font changes and then only copied onto canvases
+ * that do not show it yet, so a renderer that does not {@link #isRenderOnce() render once} costs close to nothing
+ * while its text does not change.
  *
  * @author Johnny_JayJay (https://www.github.com/JohnnyJayJay)
  * @see Builder
  */
 public class SimpleTextRenderer extends TextRenderer {
 
+    private final CanvasTracker drawnVersions;
+
     private SimpleTextRenderer(
             Point startingPoint,
             Set<Player> receivers,
@@ -24,11 +31,17 @@ public class SimpleTextRenderer extends TextRenderer {
             MapFont font
     ) {
         super(startingPoint, receivers, renderOnce, precondition, text, font);
+        this.drawnVersions = new CanvasTracker();
     }
 
     @Override
     protected void render(RenderContext context) {
-        context.getCanvas().drawText(startingPoint.x, startingPoint.y, font, text.toString());
+        int version = getContentVersion();
+        MapCanvas canvas = context.getCanvas();
+        if (drawnVersions.get(canvas) != version) {
+            raster().drawTo(canvas);
+            drawnVersions.set(canvas, version);
+        }
     }
 
     /**
@@ -67,6 +80,7 @@ public class SimpleTextRenderer extends TextRenderer {
          *                                  <ul>
          *                                  <li>The precondition is {@code null}</li>
          *                                  <li>The font is {@code null}</li>
+         *                                  <li>Both text and a layout were set</li>
          *                                  <li>The starting point is {@code null}</li>
          *                                  <li>The starting point's coordinates are not positive</li>
          *                                  <li>The starting point's coordinates are out of the minecraft map size bounds</li>
@@ -75,7 +89,11 @@ public class SimpleTextRenderer extends TextRenderer {
         @Override
         public SimpleTextRenderer build() {
             super.check();
-            return new SimpleTextRenderer(startingPoint, receivers, precondition, renderOnce, text.toString(), font);
+            SimpleTextRenderer renderer =
+                    new SimpleTextRenderer(startingPoint, receivers, precondition, renderOnce, text.toString(), font);
+            if (layout != null)
+                renderer.setLayout(layout);
+            return renderer;
         }
     }
 }
@@ -0,0 +1,401 @@
+package com.github.johnnyjayjay.spigotmaps.rendering;
+
+import com.github.johnnyjayjay.spigotmaps.util.Checks;
+import com.github.johnnyjayjay.spigotmaps.util.ImageTools;
+import org.bukkit.map.MapFont;
+import org.bukkit.map.MinecraftFont;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A text that has been broken into lines and aligned for a {@link MapFont}, so that it can be rendered by a
+ * {@link TextRenderer} without being measured again.
+ * <p>
+ * Lines are wrapped at spaces so that they fit into the {@link #getWidth() width} of the layout. Words that are
+ * wider than a whole line are broken between two characters. Line breaks ({@code \n}) and colour codes work like
+ * in {@link org.bukkit.map.MapCanvas#drawText(int, int, MapFont, String)}; colours continue on wrapped lines.
+ * <p>
+ * The widths of the characters of a font are looked up once and then kept in a table, so laying out a text only
+ * costs a few array accesses per character. This makes it cheap to lay out a new text every time it changes,
+ * e.g. using the same {@link Builder} for every update:
+ * <pre>{@code
+ * TextLayout.Builder layout = TextLayout.builder().alignment(TextLayout.Alignment.CENTER);
+ * renderer.setLayout(layout.text("Online: " + count).build());
+ * }</pre>
+ * Because of that table, fonts must not be changed using {@link MapFont#setChar(char, MapFont.CharacterSprite)}
+ * after they have been used for a layout.
+ * <p>
+ * Instances of this class are immutable.
+ *
+ * @author Johnny_JayJay (https://www.github.com/JohnnyJayJay)
+ * @see Builder
+ */
+public final class TextLayout {
+
+    // the width of every character of a font plus one, 0 if it has not been looked up yet
+    private static final Map<MapFont, byte[]> widthTables = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final String text;
+    private final MapFont font;
+    private final int width;
+    private final Alignment alignment;
+    private final String[] lines;
+    private final int[] lineWidths;
+    private final int[] lineOffsets;
+
+    private TextLayout(MapFont font, int width, Alignment alignment, List<String> lines, List<Integer> lineWidths) {
+        this.text = String.join("\n", lines);
+        this.font = font;
+        this.width = width;
+        this.alignment = alignment;
+        this.lines = lines.toArray(new String[0]);
+        this.lineWidths = new int[lines.size()];
+        this.lineOffsets = new int[lines.size()];
+        for (int i = 0; i < this.lines.length; i++) {
+            int lineWidth = lineWidths.get(i);
+            this.lineWidths[i] = lineWidth;
+            this.lineOffsets[i] = alignment == Alignment.LEFT ? 0
+                    : alignment == Alignment.CENTER ? (width - lineWidth) / 2
+                    : width - lineWidth;
+        }
+    }
+
+    /**
+     * Measures how wide a line of text is when it is drawn with a font. Colour codes do not count, and the text
+     * must not contain line breaks.
+     * <p>
+     * Unlike {@link MapFont#getWidth(String)}, this does not look up every character in the font.
+     *
+     * @param font the font to measure with.
+     * @param text the line to measure.
+     * @return the width of the line in pixels.
+     * @throws IllegalArgumentException if any of the arguments is {@code null}, if the font does not support a
+     *                                  character of the text or if the text contains an unterminated colour code.
+     */
+    public static int measure(MapFont font, CharSequence text) {
+        Checks.checkNotNull(font, "Font");
+        Checks.checkNotNull(text, "Text");
+        byte[] table = widthTable(font);
+        int advance = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (ch == '\u00A7')
+                i = colorCodeEnd(text, i);
+            else
+                advance += charWidth(table, font, ch) + 1;
+        }
+        return Math.max(advance - 1, 0);
+    }
+
+    /**
+     * Returns the laid out text, including the line breaks that were added when wrapping it.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Returns the font the text was laid out for.
+     */
+    public MapFont getFont() {
+        return font;
+    }
+
+    /**
+     * Returns the width the text was wrapped to and is aligned in.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the height of the laid out text in pixels.
+     */
+    public int getHeight() {
+        return lines.length * (font.getHeight() + 1) - 1;
+    }
+
+    /**
+     * Returns how the lines are aligned.
+     */
+    public Alignment getAlignment() {
+        return alignment;
+    }
+
+    /**
+     * Returns the number of lines of the laid out text.
+     */
+    public int getLineCount() {
+        return lines.length;
+    }
+
+    /**
+     * Returns a line of the laid out text, without a line break.
+     *
+     * @param line the index of the line.
+     * @return the line.
+     * @throws IndexOutOfBoundsException if there is no line with the given index.
+     */
+    public String getLine(int line) {
+        return lines[line];
+    }
+
+    /**
+     * Returns the width of a line in pixels.
+     *
+     * @param line the index of the line.
+     * @return the width of the line.
+     * @throws IndexOutOfBoundsException if there is no line with the given index.
+     */
+    public int getLineWidth(int line) {
+        return lineWidths[line];
+    }
+
+    /**
+     * Returns how far a line is moved to the right because of its alignment, in pixels. This is negative if the
+     * line is wider than the layout and not aligned to the left.
+     *
+     * @param line the index of the line.
+     * @return the horizontal offset of the line.
+     * @throws IndexOutOfBoundsException if there is no line with the given index.
+     */
+    public int getLineOffset(int line) {
+        return lineOffsets[line];
+    }
+
+    // Gives classes in this package access to the offsets without copying them. They must not be modified.
+    int[] lineOffsets() {
+        return lineOffsets;
+    }
+
+    private static byte[] widthTable(MapFont font) {
+        return widthTables.computeIfAbsent(font, (key) -> new byte[Character.MAX_VALUE + 1]);
+    }
+
+    // writing the table concurrently is harmless, because every thread writes the same values
+    private static int charWidth(byte[] table, MapFont font, char ch) {
+        int width = table[ch] & 0xFF;
+        if (width == 0) {
+            MapFont.CharacterSprite sprite = font.getChar(ch);
+            if (sprite == null)
+                throw new IllegalArgumentException("text contains invalid characters");
+            width = Math.min(sprite.getWidth(), 254) + 1;
+            table[ch] = (byte) width;
+        }
+        return width - 1;
+    }
+
+    // Returns the index of the semicolon that ends the colour code starting at the given index.
+    private static int colorCodeEnd(CharSequence text, int start) {
+        for (int i = start + 1; i < text.length(); i++) {
+            if (text.charAt(i) == ';')
+                return i;
+        }
+        throw new IllegalArgumentException("Text contains unterminated color string");
+    }
+
+    /*
+     * Breaks a paragraph, i.e. text without line breaks, into lines that fit into the given width.
+     * Lines are broken at the last space that fits, which is left out. If there is none, the line is broken
+     * before the first character that does not fit.
+     */
+    private static void wrapParagraph(String paragraph, MapFont font, byte[] table, int width,
+                             List<String> lines, List<Integer> lineWidths) {
+        int lineStart = 0;
+        int advance = 0;
+        int lastSpace = -1;
+        int advanceAtSpace = 0;
+        for (int i = 0; i < paragraph.length(); i++) {
+            char ch = paragraph.charAt(i);
+            if (ch == '\u00A7') {
+                i = colorCodeEnd(paragraph, i);
+                continue;
+            }
+            int charWidth = charWidth(table, font, ch);
+            if (advance + charWidth > width && advance > 0) {
+                if (ch == ' ') {
+                    addLine(paragraph, lineStart, i, advance, lines, lineWidths);
+                    lineStart = i + 1;
+                    advance = 0;
+                    lastSpace = -1;
+                    continue;
+                } else if (lastSpace >= 0) {
+                    addLine(paragraph, lineStart, lastSpace, advanceAtSpace, lines, lineWidths);
+                    lineStart = lastSpace + 1;
+                    advance -= advanceAtSpace + charWidth(table, font, ' ') + 1;
+                    lastSpace = -1;
+                }
+                // the last word might still not fit or there was no space to break at
+                if (advance + charWidth > width && advance > 0) {
+                    addLine(paragraph, lineStart, i, advance, lines, lineWidths);
+                    lineStart = i;
+                    advance = 0;
+                }
+            }
+            if (ch == ' ') {
+                lastSpace = i;
+                advanceAtSpace = advance;
+            }
+            advance += charWidth + 1;
+        }
+        addLine(paragraph, lineStart, paragraph.length(), advance, lines, lineWidths);
+    }
+
+    private static void addLine(String paragraph, int start, int end, int advance,
+                                List<String> lines, List<Integer> lineWidths) {
+        lines.add(paragraph.substring(start, end));
+        lineWidths.add(Math.max(advance - 1, 0));
+    }
+
+    /**
+     * Creates and returns a new instance of this class' {@link Builder}.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * The ways lines can be aligned within the width of a {@link TextLayout}.
+     *
+     * @author Johnny_JayJay (https://www.github.com/JohnnyJayJay)
+     */
+    public enum Alignment {
+        /**
+         * Lines start at the left edge of the layout.
+         */
+        LEFT,
+        /**
+         * Lines are centered. If a line cannot be centered exactly, it is one pixel further left.
+         */
+        CENTER,
+        /**
+         * Lines end at the right edge of the layout.
+         */
+        RIGHT
+    }
+
+    /**
+     * A builder class used to create instances of the enclosing {@link TextLayout} class.
+     * <p>
+     * A builder can be used to lay out any number of texts with the same settings.
+     *
+     * @author Johnny_JayJay (https://www.github.com/JohnnyJayJay)
+     * @see #builder()
+     */
+    public static class Builder {
+
+        private CharSequence text = "";
+        private MapFont font = MinecraftFont.Font;
+        private int width = ImageTools.MINECRAFT_MAP_SIZE.width;
+        private Alignment alignment = Alignment.LEFT;
+        private boolean wrap = true;
+
+        private Builder() {
+        }
+
+        /**
+         * Lays out the text based on the settings made.
+         *
+         * @return a new, never-{@code null} instance of {@link TextLayout}.
+         * @throws IllegalArgumentException if:
+         *                                  <ul>
+         *                                  <li>The text, the font or the alignment is {@code null}</li>
+         *                                  <li>The width is not positive</li>
+         *                                  <li>The font does not support a character of the text</li>
+         *                                  <li>The text contains an unterminated colour code</li>
+         *                                  </ul>
+         */
+        public TextLayout build() {
+            Checks.checkNotNull(text, "Text");
+            Checks.checkNotNull(font, "Font");
+            Checks.checkNotNull(alignment, "Alignment");
+            Checks.check(width > 0, "Width must be positive");
+            byte[] table = widthTable(font);
+            List<String> lines = new ArrayList<>();
+            List<Integer> lineWidths = new ArrayList<>();
+            String text = this.text.toString();
+            int paragraphStart = 0;
+            while (true) {
+                int paragraphEnd = text.indexOf('\n', paragraphStart);
+                String paragraph = text.substring(paragraphStart, paragraphEnd < 0 ? text.length() : paragraphEnd);
+                wrapParagraph(paragraph, font, table, wrap ? width : Integer.MAX_VALUE, lines, lineWidths);
+                if (paragraphEnd < 0)
+                    break;
+                paragraphStart = paragraphEnd + 1;
+            }
+            return new TextLayout(font, width, alignment, lines, lineWidths);
+        }
+
+        /**
+         * Sets the text to lay out. It may contain line breaks ({@code \n}) and colour codes.
+         * <p>
+         * This is optional. By default, the text is empty.
+         *
+         * @param text the text. The builder uses its content at the time {@link #build()} is called.
+         * @return this.
+         */
+        public Builder text(CharSequence text) {
+            this.text = text;
+            return this;
+        }
+
+        /**
+         * Sets the font to lay out the text for.
+         * <p>
+         * This is optional. By default, it is set to {@link MinecraftFont#Font}.
+         *
+         * @param font a {@link MapFont}.
+         * @return this.
+         */
+        public Builder font(MapFont font) {
+            this.font = font;
+            return this;
+        }
+
+        /**
+         * Sets the width lines are wrapped to and aligned in.
+         * <p>
+         * This is optional. By default, it is the width of a map ({@link ImageTools#MINECRAFT_MAP_SIZE}).
+         * If the text is not rendered at x = 0, the width should be reduced by the x coordinate of the
+         * {@link AbstractMapRenderer#getStartingPoint() starting point}.
+         *
+         * @param width the positive width in pixels.
+         * @return this.
+         */
+        public Builder width(int width) {
+            this.width = width;
+            return this;
+        }
+
+        /**
+         * Sets how the lines are aligned within the width.
+         * <p>
+         * This is optional. By default, lines are aligned to the {@link Alignment#LEFT left}.
+         *
+         * @param alignment the alignment.
+         * @return this.
+         */
+        public Builder alignment(Alignment alignment) {
+            this.alignment = alignment;
+            return this;
+        }
+
+        /**
+         * Sets whether lines that are too wide are wrapped. If they are not, lines are only broken at line breaks
+         * ({@code \n}) and the width is only used to align them.
+         * <p>
+         * This is optional. By default, lines are wrapped.
+         *
+         * @param wrap whether lines should be wrapped.
+         * @return this.
+         */
+        public Builder wrap(boolean wrap) {
+            this.wrap = wrap;
+            return this;
+        }
+    }
+}
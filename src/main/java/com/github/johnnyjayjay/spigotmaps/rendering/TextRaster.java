@@ -0,0 +1,138 @@
+package com.github.johnnyjayjay.spigotmaps.rendering;
+
+import com.github.johnnyjayjay.spigotmaps.util.ImageTools;
+import org.bukkit.map.MapCanvas;
+import org.bukkit.map.MapFont;
+import org.bukkit.map.MapPalette;
+
+import java.util.Arrays;
+
+/*
+ * A text that has been laid out and rasterized once, so that it can be drawn onto canvases without looking at
+ * the glyphs of the font again. The text is stored as horizontal runs of pixels with the same colour,
+ * as (x, y, length, color) quadruples in canvas coordinates, in the order they are drawn. Runs outside of the
+ * canvas are left out.
+ * The runs of every character are kept together, so that a part of the text can be drawn on its own,
+ * e.g. the characters an animation has just revealed.
+ * Text that has not been laid out using a TextLayout is laid out exactly like MapCanvas#drawText does in CraftBukkit.
+ */
+final class TextRaster {
+
+    private static final int SIZE = ImageTools.MINECRAFT_MAP_SIZE.width;
+
+    private final int[] runs;
+    // the index of the first run of each character; charStarts[length] is the end of the runs
+    private final int[] charStarts;
+
+    private TextRaster(int[] runs, int[] charStarts) {
+        this.runs = runs;
+        this.charStarts = charStarts;
+    }
+
+    // Lays out and rasterizes a text. Throws IllegalArgumentException like drawText if the text is not valid.
+    static TextRaster of(int x, int y, MapFont font, String text) {
+        return of(x, y, font, text, null);
+    }
+
+    // Rasterizes a text that has been laid out already, moving its lines by their offsets.
+    static TextRaster of(int x, int y, TextLayout layout) {
+        return of(x, y, layout.getFont(), layout.getText(), layout.lineOffsets());
+    }
+
+    @SuppressWarnings("deprecation")
+    private static TextRaster of(int startX, int y, MapFont font, String text, int[] lineOffsets) {
+        if (!font.isValid(text))
+            throw new IllegalArgumentException("text contains invalid characters");
+        int line = 0;
+        int x = startX + (lineOffsets == null ? 0 : lineOffsets[0]);
+        int height = font.getHeight();
+        byte color = MapPalette.DARK_GRAY;
+        int[] runs = new int[64];
+        int size = 0;
+        int[] charStarts = new int[text.length() + 1];
+        for (int i = 0; i < text.length(); i++) {
+            charStarts[i] = size;
+            char ch = text.charAt(i);
+            if (ch == '\n') {
+                line++;
+                x = startX + (lineOffsets == null ? 0 : lineOffsets[line]);
+                y += height + 1;
+                continue;
+            } else if (ch == '\u00A7') {
+                // colour codes consist of the section sign, a map colour and a semicolon
+                int end = text.indexOf(';', i);
+                if (end >= 0) {
+                    try {
+                        color = Byte.parseByte(text.substring(i + 1, end));
+                        // the characters of the code do not draw anything
+                        for (int j = i + 1; j <= end; j++)
+                            charStarts[j] = size;
+                        i = end;
+                        continue;
+                    } catch (NumberFormatException e) {
+                        // handled below
+                    }
+                }
+                throw new IllegalArgumentException("Text contains unterminated color string");
+            }
+
+            MapFont.CharacterSprite sprite = font.getChar(ch);
+            int width = sprite.getWidth();
+            for (int row = 0; row < height; row++) {
+                int targetY = y + row;
+                if (targetY < 0 || targetY >= SIZE)
+                    continue;
+                int column = 0;
+                while (column < width) {
+                    while (column < width && !sprite.get(row, column))
+                        column++;
+                    int start = column;
+                    while (column < width && sprite.get(row, column))
+                        column++;
+                    int runStart = Math.max(x + start, 0);
+                    int runEnd = Math.min(x + column, SIZE);
+                    if (runEnd > runStart) {
+                        if (size + 4 > runs.length)
+                            runs = Arrays.copyOf(runs, runs.length * 2);
+                        runs[size++] = runStart;
+                        runs[size++] = targetY;
+                        runs[size++] = runEnd - runStart;
+                        runs[size++] = color;
+                    }
+                }
+            }
+            x += width + 1;
+        }
+        charStarts[text.length()] = size;
+        return new TextRaster(Arrays.copyOf(runs, size), charStarts);
+    }
+
+    // Returns the number of characters of the text, including new lines and colour codes.
+    int length() {
+        return charStarts.length - 1;
+    }
+
+    void drawTo(MapCanvas canvas) {
+        drawTo(canvas, 0, length());
+    }
+
+    // Draws the characters from (inclusive) to (exclusive) of the text.
+    void drawTo(MapCanvas canvas, int from, int to) {
+        int end = charStarts[to];
+        for (int i = charStarts[from]; i < end; i += 4) {
+            int y = runs[i + 1];
+            byte color = (byte) runs[i + 3];
+            for (int x = runs[i], endX = x + runs[i + 2]; x < endX; x++)
+                canvas.setPixel(x, y, color);
+        }
+        if (RenderMetrics.isEnabled() && !(canvas instanceof PaletteCanvas))
+            RenderMetrics.pixels += countPixels(charStarts[from], end);
+    }
+
+    private int countPixels(int start, int end) {
+        int pixels = 0;
+        for (int i = start; i < end; i += 4)
+            pixels += runs[i + 2];
+        return pixels;
+    }
+}
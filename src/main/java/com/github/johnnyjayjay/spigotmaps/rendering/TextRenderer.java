@@ -10,12 +10,21 @@ import java.util.Set;
 import java.util.function.Predicate;
 
 /**
+ * The base class for renderers that draw text onto a map.
+ * <p>
+ * The text is either drawn the way {@link org.bukkit.map.MapCanvas#drawText(int, int, MapFont, String)} draws it,
+ * i.e. lines only break at {@code \n}, or as a {@link TextLayout} that wraps and aligns it.
+ *
  * @author Johnny_JayJay (https://www.github.com/JohnnyJayJay)
  */
 public abstract class TextRenderer extends AbstractMapRenderer {
 
     protected CharSequence text;
     protected MapFont font;
+    protected TextLayout layout;
+
+    private TextRaster raster;
+    private int rasterVersion;
 
     protected TextRenderer(
             Point startingPoint,
@@ -25,13 +34,26 @@ public abstract class TextRenderer extends AbstractMapRenderer {
             CharSequence text,
             MapFont font
     ) {
-        super(startingPoint, receivers, renderOnce, precondition);
+        this(startingPoint, receivers, renderOnce, precondition, text, font, false);
+    }
+
+    protected TextRenderer(
+            Point startingPoint,
+            Set<Player> receivers,
+            boolean renderOnce,
+            Predicate<RenderContext> precondition,
+            CharSequence text,
+            MapFont font,
+            boolean contextual
+    ) {
+        super(startingPoint, receivers, renderOnce, precondition, contextual);
         this.text = text;
         this.font = font;
     }
 
     /**
-     * Returns the text that this renderer renders, including new lines {@code \n}.
+     * Returns the text that this renderer renders, including new lines {@code \n}. If a {@link TextLayout} is used,
+     * this includes the line breaks that were added when wrapping the text.
      */
     public String getText() {
         return text.toString();
@@ -40,12 +62,18 @@ public abstract class TextRenderer extends AbstractMapRenderer {
     /**
      * Sets the text rendered by this renderer.
      *
+     * If a {@link TextLayout} was used before, the text is not wrapped or aligned anymore.
+     *
      * @param text a new text String. New lines must be included if needed.
      * @throws IllegalArgumentException if the argument is {@code null}.
+     * @see #markContentChanged()
+     * @see #setLayout(TextLayout)
      */
     public void setText(CharSequence text) {
         Checks.checkNotNull(text, "Text");
         this.text = text;
+        this.layout = null;
+        markContentChanged();
     }
 
     /**
@@ -57,6 +85,8 @@ public abstract class TextRenderer extends AbstractMapRenderer {
 
     /**
      * Sets the font the rendered text should use.
+     * <p>
+     * If a {@link TextLayout} was used before, the text is not wrapped or aligned anymore.
      *
      * @param font a new MapFont.
      * @throws IllegalArgumentException if the argument is {@code null}.
@@ -64,6 +94,43 @@ public abstract class TextRenderer extends AbstractMapRenderer {
     public void setFont(MapFont font) {
         Checks.checkNotNull(font, "Font");
         this.font = font;
+        this.layout = null;
+        markContentChanged();
+    }
+
+    /**
+     * Returns the layout of the rendered text or {@code null}, if the text is not wrapped and aligned.
+     */
+    public TextLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Sets a text that has been laid out already. This replaces the text and the font of this renderer.
+     * <p>
+     * The layout is drawn with its upper left corner at the {@link #getStartingPoint() starting point}.
+     *
+     * @param layout a new TextLayout.
+     * @throws IllegalArgumentException if the argument is {@code null}.
+     */
+    public void setLayout(TextLayout layout) {
+        Checks.checkNotNull(layout, "Layout");
+        this.text = layout.getText();
+        this.font = layout.getFont();
+        this.layout = layout;
+        markContentChanged();
+    }
+
+    // Returns the text rasterized at the starting point. It is only rasterized again after the content changed.
+    TextRaster raster() {
+        int version = getContentVersion();
+        if (raster == null || rasterVersion != version) {
+            raster = layout == null
+                    ? TextRaster.of(startingPoint.x, startingPoint.y, font, text.toString())
+                    : TextRaster.of(startingPoint.x, startingPoint.y, layout);
+            rasterVersion = version;
+        }
+        return raster;
     }
 
     /**
@@ -77,14 +144,17 @@ public abstract class TextRenderer extends AbstractMapRenderer {
 
         protected final StringBuilder text = new StringBuilder();
         protected MapFont font = MinecraftFont.Font;
+        protected TextLayout layout = null;
 
         /**
-         * Makes the checks from {@link AbstractMapRenderer.Builder#check()} and additionally checks if the font is {@code null}.
+         * Makes the checks from {@link AbstractMapRenderer.Builder#check()} and additionally checks if the font is {@code null}
+         * and whether both text and a layout were set.
          */
         @Override
         protected void check() {
             super.check();
             Checks.checkNotNull(font, "Font");
+            Checks.check(layout == null || text.length() == 0, "Either text or a layout can be set, not both");
         }
 
         /**
@@ -139,5 +209,19 @@ public abstract class TextRenderer extends AbstractMapRenderer {
             this.font = font;
             return (U) this;
         }
+
+        /**
+         * Sets a text that has been laid out already, e.g. to wrap or align it. This replaces the font, so no text
+         * must be added to this builder if a layout is set.
+         * <p>
+         * This is not required. By default, the text is drawn without wrapping it.
+         *
+         * @param layout the {@link TextLayout} to render or {@code null} to use the text added to this builder.
+         * @return this.
+         */
+        public U layout(TextLayout layout) {
+            this.layout = layout;
+            return (U) this;
+        }
     }
 }
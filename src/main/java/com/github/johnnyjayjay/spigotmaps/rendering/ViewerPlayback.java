@@ -0,0 +1,124 @@
+package com.github.johnnyjayjay.spigotmaps.rendering;
+
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/*
+ * The playback state of an animation that every player sees from the start, no matter when they first
+ * see it. Implementations keep their state in primitive arrays indexed by player slot, which are grown
+ * using ensureCapacity. The playback of a player starts when they are first looked up and is forgotten when
+ * they quit, so they see the animation from the start again after rejoining.
+ * Animations that are parts of a bigger one (e.g. the parts of a divided gif) share a Group, which remembers when
+ * the playback of each player started. A part that a player sees later than another one catches up to the time
+ * that has passed since then, so that all parts show the same state.
+ * Only used on the main thread.
+ */
+abstract class ViewerPlayback implements PlayerSlots.SlotState {
+
+    private final BitSet started = new BitSet();
+    private final BitSet running = new BitSet();
+    private final Group group;
+    private int capacity = 0;
+
+    // the group may be null if the animation is not part of a bigger one
+    ViewerPlayback(Group group) {
+        this.group = group;
+        PlayerSlots.track(this);
+    }
+
+    // Returns the slot of a viewer, starting the playback for them if it has not been started yet.
+    int start(Player viewer) {
+        int slot = PlayerSlots.slotOf(viewer);
+        if (!started.get(slot)) {
+            if (slot >= capacity) {
+                capacity = Math.max(slot + 1, capacity * 2);
+                ensureCapacity(capacity);
+            }
+            started.set(slot);
+            running.set(slot);
+            reset(slot);
+            long behind = group == null ? 0 : group.start(slot);
+            if (behind > 0 && !catchUp(slot, behind))
+                running.clear(slot);
+        }
+        return slot;
+    }
+
+    // Returns the slot of a viewer or -1 if their playback has not been started.
+    int slotOf(Player viewer) {
+        int slot = PlayerSlots.slotOf(viewer);
+        return started.get(slot) ? slot : -1;
+    }
+
+    // Advances the playback of every viewer whose playback has not finished yet by one tick.
+    void advanceAll(long elapsedNanos) {
+        for (int slot = running.nextSetBit(0); slot >= 0; slot = running.nextSetBit(slot + 1)) {
+            if (!advance(slot, elapsedNanos))
+                running.clear(slot);
+        }
+    }
+
+    // Makes sure that the arrays of the implementation have at least the given length.
+    abstract void ensureCapacity(int capacity);
+
+    // Sets the state of a slot to the start of the animation.
+    abstract void reset(int slot);
+
+    // Advances the playback of a slot by one tick, like AnimationClock.Animation. Returns false once it has finished.
+    abstract boolean advance(int slot, long elapsedNanos);
+
+    // Advances the playback of a slot that has just started by the time the other parts of its group are ahead.
+    boolean catchUp(int slot, long elapsedNanos) {
+        return advance(slot, elapsedNanos);
+    }
+
+    @Override
+    public void clearSlot(int slot) {
+        started.clear(slot);
+        running.clear(slot);
+    }
+
+    @Override
+    public void clearWorld(World world) {
+        // playback belongs to players, not to maps
+    }
+
+    /*
+     * Remembers when the playback of each player started in any of the animations that share it,
+     * measured in the time the AnimationClock has advanced animations by.
+     */
+    static final class Group implements PlayerSlots.SlotState {
+
+        private final BitSet started = new BitSet();
+        private long[] startNanos = new long[0];
+
+        Group() {
+            PlayerSlots.track(this);
+        }
+
+        // Returns how far the playback of a slot is behind the other animations of this group in nanoseconds.
+        long start(int slot) {
+            long now = AnimationClock.getElapsedNanos();
+            if (started.get(slot))
+                return now - startNanos[slot];
+            if (slot >= startNanos.length)
+                startNanos = Arrays.copyOf(startNanos, Math.max(slot + 1, startNanos.length * 2));
+            started.set(slot);
+            startNanos[slot] = now;
+            return 0;
+        }
+
+        @Override
+        public void clearSlot(int slot) {
+            started.clear(slot);
+        }
+
+        @Override
+        public void clearWorld(World world) {
+            // playback belongs to players, not to maps
+        }
+    }
+}
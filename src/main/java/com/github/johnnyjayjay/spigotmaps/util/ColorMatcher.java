@@ -0,0 +1,251 @@
+package com.github.johnnyjayjay.spigotmaps.util;
+
+import org.bukkit.map.MapPalette;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Converts RGB colours to Minecraft map colours using a precomputed lookup table.
+ * <p>
+ * {@link MapPalette#matchColor(Color)} searches the whole palette for the nearest colour every time
+ * it is called. This class does that search once for every possible input colour when its table is
+ * built and afterwards only needs an array access per pixel. The colour distance used is the same one
+ * Bukkit uses, so the results are equal to {@link MapPalette} up to the precision of the table.
+ * <p>
+ * The tables are built lazily, once per {@link Compatibility#getPaletteVersion() palette version}.
+ *
+ * @author Johnny_JayJay (https://www.github.com/JohnnyJayJay)
+ * @see Compatibility#getPalette()
+ */
+public final class ColorMatcher {
+
+    private static final int FIRST_OPAQUE_COLOR = 4;
+
+    private static volatile ColorMatcher defaultMatcher;
+    private static volatile ColorMatcher fullPrecisionMatcher;
+
+    private final int bitsPerChannel;
+    private final int paletteVersion;
+    private final int[] red, green, blue;
+    private final byte[] table;
+
+    private ColorMatcher(int bitsPerChannel) {
+        this.bitsPerChannel = bitsPerChannel;
+        this.paletteVersion = Compatibility.getPaletteVersion();
+        Color[] palette = Compatibility.getPalette();
+        this.red = new int[palette.length];
+        this.green = new int[palette.length];
+        this.blue = new int[palette.length];
+        for (int i = 0; i < palette.length; i++) {
+            red[i] = palette[i].getRed();
+            green[i] = palette[i].getGreen();
+            blue[i] = palette[i].getBlue();
+        }
+        this.table = buildTable(bitsPerChannel, red, green, blue);
+    }
+
+    /**
+     * Returns a matcher using 6 bits per colour channel, which needs a table of 256 KB.
+     * This is precise enough for any practical purpose and used by this library by default.
+     *
+     * @return a never-{@code null} ColorMatcher.
+     */
+    public static ColorMatcher getDefault() {
+        ColorMatcher matcher = defaultMatcher;
+        if (matcher == null || matcher.paletteVersion != Compatibility.getPaletteVersion()) {
+            synchronized (ColorMatcher.class) {
+                matcher = defaultMatcher;
+                if (matcher == null || matcher.paletteVersion != Compatibility.getPaletteVersion())
+                    defaultMatcher = matcher = new ColorMatcher(6);
+            }
+        }
+        return matcher;
+    }
+
+    /**
+     * Returns a matcher that stores the map colour of every single 24 bit RGB colour.
+     * <p>
+     * Its results are exactly the same as the ones of {@link MapPalette#matchColor(Color)}, but the table
+     * takes 16 MB of memory and building it takes a few seconds, so this should only be used if needed.
+     *
+     * @return a never-{@code null} ColorMatcher.
+     */
+    public static ColorMatcher getFullPrecision() {
+        ColorMatcher matcher = fullPrecisionMatcher;
+        if (matcher == null || matcher.paletteVersion != Compatibility.getPaletteVersion()) {
+            synchronized (ColorMatcher.class) {
+                matcher = fullPrecisionMatcher;
+                if (matcher == null || matcher.paletteVersion != Compatibility.getPaletteVersion())
+                    fullPrecisionMatcher = matcher = new ColorMatcher(8);
+            }
+        }
+        return matcher;
+    }
+
+    private static byte[] buildTable(int bits, int[] red, int[] green, int[] blue) {
+        int channelSize = 1 << bits;
+        byte[] table = new byte[channelSize * channelSize * channelSize];
+        IntStream.range(0, channelSize).parallel().forEach((r) -> {
+            int index = r * channelSize * channelSize;
+            int r8 = expand(r, bits);
+            for (int g = 0; g < channelSize; g++) {
+                int g8 = expand(g, bits);
+                for (int b = 0; b < channelSize; b++) {
+                    table[index++] = nearest(r8, g8, expand(b, bits), red, green, blue);
+                }
+            }
+        });
+        return table;
+    }
+
+    // scales a channel value with the given amount of bits to the range 0-255
+    private static int expand(int value, int bits) {
+        int shift = 8 - bits;
+        return shift == 0 ? value : (value << shift) | (value >> (bits - shift));
+    }
+
+    // The same weighted distance MapPalette uses, multiplied by 512 so it can be computed with ints.
+    private static byte nearest(int r, int g, int b, int[] red, int[] green, int[] blue) {
+        int index = FIRST_OPAQUE_COLOR;
+        int best = Integer.MAX_VALUE;
+        for (int i = FIRST_OPAQUE_COLOR; i < red.length; i++) {
+            int dg = g - green[i];
+            int distance = 2048 * dg * dg;
+            if (distance >= best)
+                continue;
+            int rsum = r + red[i];
+            int dr = r - red[i];
+            int db = b - blue[i];
+            distance += (1024 + rsum) * dr * dr + (1534 - rsum) * db * db;
+            if (distance < best) {
+                best = distance;
+                index = i;
+            }
+        }
+        return (byte) index;
+    }
+
+    /**
+     * Returns the map colour closest to the given colour.
+     * Colours with an alpha value below 128 are transparent.
+     *
+     * @param argb a colour in the default ARGB format, as returned by {@link BufferedImage#getRGB(int, int)}.
+     * @return a map colour as used by {@link org.bukkit.map.MapCanvas#setPixel(int, int, byte)}.
+     */
+    public byte matchColor(int argb) {
+        if ((argb >>> 24) < 128)
+            return MapPalette.TRANSPARENT;
+        return matchRgb(argb >> 16 & 0xFF, argb >> 8 & 0xFF, argb & 0xFF);
+    }
+
+    private byte matchRgb(int r, int g, int b) {
+        int shift = 8 - bitsPerChannel;
+        return table[((((r >> shift) << bitsPerChannel) | (g >> shift)) << bitsPerChannel) | (b >> shift)];
+    }
+
+    /**
+     * Returns the map colour closest to the given colour.
+     *
+     * @param color the non-{@code null} colour to match.
+     * @return a map colour.
+     * @see #matchColor(int)
+     */
+    public byte matchColor(Color color) {
+        return matchColor(color.getRGB());
+    }
+
+    /**
+     * Converts every pixel of an image to the closest map colour.
+     *
+     * @param image the non-{@code null} image to convert.
+     * @return the map colours of the image, row by row.
+     */
+    public byte[] convert(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        byte[] result = new byte[width * height];
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            int offset = y * width;
+            for (int x = 0; x < width; x++)
+                result[offset + x] = matchColor(row[x]);
+        }
+        return result;
+    }
+
+    /**
+     * Converts every pixel of an image to a map colour using Floyd-Steinberg dithering, i.e. the difference
+     * between a pixel's colour and the map colour chosen for it is spread to the neighbouring pixels.
+     * This avoids visible banding in photos and gradients.
+     * <p>
+     * This is a lot more expensive than {@link #convert(BufferedImage)} and should not be done while rendering.
+     * Transparent pixels (alpha below 128) stay transparent and do not receive or spread any error.
+     *
+     * @param image the non-{@code null} image to convert.
+     * @return the map colours of the image, row by row.
+     */
+    public byte[] dither(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        byte[] result = new byte[width * height];
+        int[] row = new int[width];
+        // errors are scaled by 16; index x + 1 belongs to pixel x, so neighbours never need bounds checks
+        int[][] current = new int[3][width + 2];
+        int[][] next = new int[3][width + 2];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                int argb = row[x];
+                if ((argb >>> 24) < 128) {
+                    result[offset + x] = MapPalette.TRANSPARENT;
+                    continue;
+                }
+                int r = clamp((argb >> 16 & 0xFF) + current[0][x + 1] / 16);
+                int g = clamp((argb >> 8 & 0xFF) + current[1][x + 1] / 16);
+                int b = clamp((argb & 0xFF) + current[2][x + 1] / 16);
+                byte color = matchRgb(r, g, b);
+                result[offset + x] = color;
+                int index = color & 0xFF;
+                spreadError(r - red[index], current[0], next[0], x + 1);
+                spreadError(g - green[index], current[1], next[1], x + 1);
+                spreadError(b - blue[index], current[2], next[2], x + 1);
+            }
+            int[][] swap = current;
+            current = next;
+            next = swap;
+            for (int[] channel : next)
+                Arrays.fill(channel, 0);
+        }
+        return result;
+    }
+
+    private static void spreadError(int error, int[] current, int[] next, int x) {
+        current[x + 1] += error * 7;
+        next[x - 1] += error * 3;
+        next[x] += error * 5;
+        next[x + 1] += error;
+    }
+
+    private static int clamp(int channel) {
+        return channel < 0 ? 0 : channel > 255 ? 255 : channel;
+    }
+
+    /**
+     * Returns the amount of bits per colour channel this matcher's table distinguishes.
+     */
+    public int getBitsPerChannel() {
+        return bitsPerChannel;
+    }
+
+    /**
+     * Returns the {@link Compatibility#getPaletteVersion() palette version} this matcher was built for.
+     */
+    public int getPaletteVersion() {
+        return paletteVersion;
+    }
+}
@@ -1,8 +1,10 @@
 package com.github.johnnyjayjay.spigotmaps.util;
 
 import org.bukkit.Bukkit;
+import org.bukkit.map.MapPalette;
 import org.bukkit.map.MapView;
 
+import java.awt.Color;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
@@ -15,6 +17,7 @@ import java.util.regex.Pattern;
  */
 public final class Compatibility {
 
+    private static final int[] version;
     private static final boolean legacy;
     private static final MethodHandle getId;
 
@@ -23,16 +26,16 @@ public final class Compatibility {
         if (!versionFinder.find()) {
             throw new AssertionError("Could not find MC version in Bukkit.getVersion()");
         }
-        int[] version = Arrays.stream(versionFinder.group().split("\\."))
+        version = Arrays.stream(versionFinder.group().split("\\."))
                 .mapToInt(Integer::parseInt)
                 .toArray();
-        legacy = !(version[0] > 1
-                || (version[0] == 1 && version[1] > 13)
-                || (version[0] == 1 && version[1] == 13 && version[2] >= 2));
+        legacy = !isAtLeast(1, 13, 2);
 
         MethodType methodType = MethodType.methodType(legacy ? short.class : int.class);
         try {
-            getId = MethodHandles.publicLookup().findVirtual(MapView.class, "getId", methodType);
+            // adapted to (MapView)int so that invokeExact can be used, which neither boxes nor allocates
+            getId = MethodHandles.publicLookup().findVirtual(MapView.class, "getId", methodType)
+                    .asType(MethodType.methodType(int.class, MapView.class));
         } catch (NoSuchMethodException | IllegalAccessException e) {
             throw new AssertionError("MapView#getId() could not be found. This should never happen.");
         }
@@ -42,12 +45,78 @@ public final class Compatibility {
         return legacy;
     }
 
+    /**
+     * Returns whether the running Minecraft version is the given version or a later one.
+     *
+     * @param major the major version, e.g. 1 for 1.13.2.
+     * @param minor the minor version, e.g. 13 for 1.13.2.
+     * @param patch the patch version, e.g. 2 for 1.13.2.
+     * @return {@code true}, if the server runs at least the given version.
+     */
+    public static boolean isAtLeast(int major, int minor, int patch) {
+        if (version[0] != major)
+            return version[0] > major;
+        if (version[1] != minor)
+            return version[1] > minor;
+        return version[2] >= patch;
+    }
+
     public static int getId(MapView map) {
         try {
-            return ((Number) getId.invoke(map)).intValue();
+            return (int) getId.invokeExact(map);
         } catch (Throwable throwable) {
             throw new RuntimeException(throwable);
         }
     }
 
+    /**
+     * Returns the colours of the map palette used by the running Minecraft version, indexed by their
+     * map colour byte (interpreted as unsigned). The first entries are the transparent colours.
+     *
+     * @return a copy of the palette.
+     */
+    public static Color[] getPalette() {
+        return Palette.colors.clone();
+    }
+
+    /**
+     * Returns a number identifying the map palette of the running Minecraft version. Different palettes
+     * (e.g. after a Minecraft update that added map colours) have different versions.
+     *
+     * @return a palette version.
+     */
+    public static int getPaletteVersion() {
+        return Palette.version;
+    }
+
+    // loaded lazily so the palette is only read from the server if it is actually needed
+    private static final class Palette {
+
+        private static final Color[] colors;
+        private static final int version;
+
+        static {
+            colors = loadPalette();
+            int[] rgb = new int[colors.length];
+            for (int i = 0; i < colors.length; i++)
+                rgb[i] = colors[i].getRGB();
+            version = Arrays.hashCode(rgb);
+        }
+
+        @SuppressWarnings("deprecation")
+        private static Color[] loadPalette() {
+            Color[] colors = new Color[256];
+            int size = 0;
+            try {
+                while (size < colors.length) {
+                    colors[size] = MapPalette.getColor((byte) size);
+                    size++;
+                }
+            } catch (IndexOutOfBoundsException e) {
+                // end of the palette
+            }
+            return Arrays.copyOf(colors, size);
+        }
+    }
+
 }
@@ -0,0 +1,290 @@
+package com.github.johnnyjayjay.spigotmaps.util;
+
+import com.github.johnnyjayjay.spigotmaps.rendering.GifRenderer;
+import com.github.johnnyjayjay.spigotmaps.rendering.ImageRenderer;
+import com.github.johnnyjayjay.spigotmaps.rendering.PaletteBuffer;
+import com.github.johnnyjayjay.spigotmaps.rendering.PreparedGif;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A persistent cache for images and gifs that have already been converted to map colours.
+ * <p>
+ * Downloading, decoding, resizing and converting images takes a lot of time. This class stores the
+ * result of that work in a binary format in a directory, so that after a restart, {@link ImageRenderer}s
+ * and {@link GifRenderer}s can be created again without doing any of it. Entries are identified by a
+ * {@link #key(byte[], Object...) key} made of the content of the source file and the options that were
+ * used to process it. The tiles of an entry are stored in the order they were given in, e.g. the order
+ * {@link ImageTools#divideIntoPreparedParts(com.github.johnnyjayjay.spigotmaps.rendering.GifImage, boolean, boolean)}
+ * returns them in.
+ * <p>
+ * Entries are read using memory-mapped files. Entries that were written for a different
+ * {@link Compatibility#getPaletteVersion() palette version}, i.e. a different Minecraft version, are ignored.
+ *
+ * @author Johnny_JayJay (https://www.github.com/JohnnyJayJay)
+ */
+public final class FrameCache {
+
+    private static final int MAGIC = 0x534D4643; // "SMFC"
+    private static final short FORMAT_VERSION = 1;
+    private static final byte KIND_IMAGE = 0;
+    private static final byte KIND_GIF = 1;
+    private static final String FILE_EXTENSION = ".smfc";
+
+    private final Path directory;
+
+    private FrameCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Opens a cache that stores its entries in the given directory. The directory is created if it does not exist.
+     *
+     * @param directory the non-{@code null} directory to use.
+     * @return a new FrameCache.
+     * @throws IOException if the directory could not be created.
+     */
+    public static FrameCache open(Path directory) throws IOException {
+        Checks.checkNotNull(directory, "Directory");
+        return new FrameCache(Files.createDirectories(directory));
+    }
+
+    /**
+     * Computes a cache key from the content of a source file (e.g. the bytes of a downloaded gif)
+     * and the options used to process it (e.g. whether it was cropped or dithered).
+     *
+     * @param source the non-{@code null} content of the source file.
+     * @param options 0-n options whose {@link String#valueOf(Object) String representations} are part of the key.
+     * @return a key consisting of hexadecimal characters.
+     */
+    public static String key(byte[] source, Object... options) {
+        MessageDigest digest = sha256();
+        digest.update(source);
+        return finishKey(digest, options);
+    }
+
+    /**
+     * Computes a cache key from the content of a source stream and the options used to process it.
+     * The stream is read completely, but not closed.
+     *
+     * @param source the non-{@code null} stream to read the source content from.
+     * @param options 0-n options whose {@link String#valueOf(Object) String representations} are part of the key.
+     * @return a key consisting of hexadecimal characters.
+     * @throws IOException if the stream could not be read.
+     * @see #key(byte[], Object...)
+     */
+    public static String key(InputStream source, Object... options) throws IOException {
+        MessageDigest digest = sha256();
+        byte[] chunk = new byte[8192];
+        for (int read = source.read(chunk); read != -1; read = source.read(chunk))
+            digest.update(chunk, 0, read);
+        return finishKey(digest, options);
+    }
+
+    private static String finishKey(MessageDigest digest, Object[] options) {
+        for (Object option : options) {
+            digest.update((byte) 0);
+            digest.update(String.valueOf(option).getBytes(StandardCharsets.UTF_8));
+        }
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest())
+            key.append(String.format("%02x", b));
+        return key.toString();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("SHA-256 is not available. This should never happen.", e);
+        }
+    }
+
+    /**
+     * Stores the tiles of an image under the given key, replacing any previous entry.
+     *
+     * @param key a key created by one of the {@code key} methods.
+     * @param tiles the non-{@code null} tiles to store.
+     * @throws IOException if the entry could not be written.
+     */
+    public void storeImage(String key, List<PaletteBuffer> tiles) throws IOException {
+        write(key, KIND_IMAGE, (output) -> {
+            output.writeInt(tiles.size());
+            for (PaletteBuffer tile : tiles) {
+                output.writeInt(tile.getWidth());
+                output.writeInt(tile.getHeight());
+                output.write(tile.getColors());
+            }
+        });
+    }
+
+    /**
+     * Stores the tiles of a gif under the given key, replacing any previous entry.
+     *
+     * @param key a key created by one of the {@code key} methods.
+     * @param tiles the non-{@code null} tiles to store.
+     * @throws IOException if the entry could not be written.
+     */
+    public void storeGif(String key, List<PreparedGif> tiles) throws IOException {
+        write(key, KIND_GIF, (output) -> {
+            output.writeInt(tiles.size());
+            for (PreparedGif tile : tiles) {
+                output.writeInt(tile.getWidth());
+                output.writeInt(tile.getHeight());
+                output.writeInt(tile.getFrameCount());
+                for (int i = 0; i < tile.getFrameCount(); i++)
+                    output.writeInt(tile.getMsDelay(i));
+                for (int i = 0; i < tile.getFrameCount(); i++)
+                    output.write(tile.getFrame(i).getColors());
+            }
+        });
+    }
+
+    /**
+     * Loads the tiles of an image stored under the given key.
+     *
+     * @param key a key created by one of the {@code key} methods.
+     * @return the tiles or an empty Optional if there is no valid entry for this key.
+     * @throws IOException if the entry exists, but could not be read.
+     */
+    public Optional<List<PaletteBuffer>> loadImage(String key) throws IOException {
+        return read(key, KIND_IMAGE, (buffer) -> {
+            int tileCount = count(buffer, 8);
+            List<PaletteBuffer> tiles = new ArrayList<>(tileCount);
+            for (int i = 0; i < tileCount; i++) {
+                int width = buffer.getInt();
+                int height = buffer.getInt();
+                byte[] colors = new byte[colorCount(buffer, width, height, 1)];
+                buffer.get(colors);
+                tiles.add(PaletteBuffer.fromColors(width, height, colors));
+            }
+            return tiles;
+        });
+    }
+
+    /**
+     * Loads the tiles of a gif stored under the given key.
+     *
+     * @param key a key created by one of the {@code key} methods.
+     * @return the tiles, which are {@link PreparedGif#playInSync(List) played in sync},
+     *         or an empty Optional if there is no valid entry for this key.
+     * @throws IOException if the entry exists, but could not be read.
+     */
+    public Optional<List<PreparedGif>> loadGif(String key) throws IOException {
+        return read(key, KIND_GIF, (buffer) -> {
+            int tileCount = count(buffer, 12);
+            List<PreparedGif> tiles = new ArrayList<>(tileCount);
+            for (int i = 0; i < tileCount; i++) {
+                int width = buffer.getInt();
+                int height = buffer.getInt();
+                int[] delays = new int[count(buffer, 4)];
+                for (int j = 0; j < delays.length; j++)
+                    delays[j] = buffer.getInt();
+                PreparedGif.Builder builder = PreparedGif.builder(width, height);
+                byte[] colors = new byte[colorCount(buffer, width, height, delays.length)];
+                for (int delay : delays) {
+                    buffer.get(colors);
+                    builder.addFrame(PaletteBuffer.fromColors(width, height, colors), delay);
+                }
+                tiles.add(builder.build());
+            }
+            PreparedGif.playInSync(tiles);
+            return tiles;
+        });
+    }
+
+    /**
+     * Removes the entry stored under the given key, if there is one.
+     *
+     * @param key a key created by one of the {@code key} methods.
+     * @throws IOException if the entry could not be deleted.
+     */
+    public void remove(String key) throws IOException {
+        Files.deleteIfExists(file(key));
+    }
+
+    private Path file(String key) {
+        Checks.checkNotNull(key, "Key");
+        Checks.check(key.matches("[0-9a-f]+"), "Invalid key");
+        return directory.resolve(key + FILE_EXTENSION);
+    }
+
+    private void write(String key, byte kind, Writer writer) throws IOException {
+        Path target = file(key);
+        Path temporary = Files.createTempFile(directory, key, ".tmp");
+        try {
+            try (OutputStream stream = Files.newOutputStream(temporary);
+                 DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream))) {
+                output.writeInt(MAGIC);
+                output.writeShort(FORMAT_VERSION);
+                output.writeInt(Compatibility.getPaletteVersion());
+                output.writeByte(kind);
+                writer.write(output);
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private <T> Optional<T> read(String key, byte kind, Reader<T> reader) throws IOException {
+        Path source = file(key);
+        if (!Files.exists(source))
+            return Optional.empty();
+
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            long size = channel.size();
+            Checks.check(size <= Integer.MAX_VALUE, "Entry is too large");
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) != -1);
+            buffer.flip();
+            if (buffer.getInt() != MAGIC
+                    || buffer.getShort() != FORMAT_VERSION
+                    || buffer.getInt() != Compatibility.getPaletteVersion()
+                    || buffer.get() != kind)
+                return Optional.empty();
+            return Optional.of(reader.read(buffer));
+        } catch (RuntimeException e) {
+            throw new IOException("Cache entry " + source + " is corrupt", e);
+        }
+    }
+
+    // Reads a count and checks that the rest of the entry can hold that many elements of at least the given size.
+    private static int count(ByteBuffer buffer, int minElementSize) {
+        int count = buffer.getInt();
+        Checks.check(count >= 0 && (long) count * minElementSize <= buffer.remaining(), "Invalid count " + count);
+        return count;
+    }
+
+    // Checks that the rest of the entry holds the colours of the given amount of frames and returns the colours per frame.
+    private static int colorCount(ByteBuffer buffer, int width, int height, int frames) {
+        Checks.check(width > 0 && height > 0, "Invalid size " + width + "x" + height);
+        long colors = (long) width * height;
+        Checks.check(colors * frames <= buffer.remaining(), "Entry is shorter than its frames");
+        return (int) colors;
+    }
+
+    private interface Writer {
+        void write(DataOutputStream output) throws IOException;
+    }
+
+    private interface Reader<T> {
+        T read(ByteBuffer buffer);
+    }
+}
@@ -0,0 +1,327 @@
+package com.github.johnnyjayjay.spigotmaps.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * A cache for the downloads of an {@link ImageLoader}, which is set using {@link ImageLoader.Builder#cache(ImageCache)}.
+ * <p>
+ * The cache has two levels:
+ * <ul>
+ * <li>In memory, it keeps the decoded images and gifs that were loaded most recently, up to a maximum size.
+ * Loading them again does not need any network access until they have to be revalidated.</li>
+ * <li>Optionally, it stores downloaded files in a directory. Files are stored by the hash of their content,
+ * so that the same file is only stored once even if it is available under many URLs. When a cached file is
+ * needed again, the server is asked whether it has changed since (using {@code ETag} and {@code Last-Modified}),
+ * so unchanged files are not downloaded again, even after a restart. If the server cannot be reached,
+ * the stored file is used.</li>
+ * </ul>
+ * While a URL is being loaded, further requests for it wait for the same download instead of starting another one.
+ * <p>
+ * Instances of this class are thread-safe and can be shared between loaders.
+ *
+ * @author Johnny_JayJay (https://www.github.com/JohnnyJayJay)
+ * @see Builder
+ */
+public final class ImageCache {
+
+    private static final int MAGIC = 0x534D4443; // "SMDC"
+    private static final short FORMAT_VERSION = 1;
+
+    private final Path directory;
+    private final long maxMemoryBytes;
+    private final long revalidateNanos;
+    private final LinkedHashMap<String, MemoryEntry> memory;
+    private final Map<String, CompletableFuture<?>> inFlight;
+
+    private long memoryUsage;
+
+    private ImageCache(Path directory, long maxMemoryBytes, long revalidateNanos) {
+        this.directory = directory;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.revalidateNanos = revalidateNanos;
+        this.memory = new LinkedHashMap<>(16, 0.75f, true);
+        this.inFlight = new ConcurrentHashMap<>();
+        this.memoryUsage = 0;
+    }
+
+    /**
+     * Returns the directory downloaded files are stored in or {@code null} if they are only cached in memory.
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the estimated size of the decoded images and gifs in memory in bytes.
+     */
+    public synchronized long getMemoryUsage() {
+        return memoryUsage;
+    }
+
+    /**
+     * Removes all images and gifs from memory. Stored files are kept.
+     */
+    public synchronized void clearMemory() {
+        memory.clear();
+        memoryUsage = 0;
+    }
+
+    /*
+     * Returns the value loaded for a key or null. The entry might have to be revalidated before it is used.
+     */
+    synchronized MemoryEntry getMemory(String key) {
+        return memory.get(key);
+    }
+
+    // Adds a value with the validators of the file it was decoded from and evicts the least recently used values.
+    synchronized void putMemory(String key, Object value, long weight, String etag, long lastModified) {
+        if (weight > maxMemoryBytes)
+            return;
+        MemoryEntry previous = memory.put(key, new MemoryEntry(value, weight, etag, lastModified, System.nanoTime()));
+        if (previous != null)
+            memoryUsage -= previous.weight;
+        memoryUsage += weight;
+        Iterator<MemoryEntry> iterator = memory.values().iterator();
+        while (memoryUsage > maxMemoryBytes && iterator.hasNext()) {
+            memoryUsage -= iterator.next().weight;
+            iterator.remove();
+        }
+    }
+
+    /*
+     * Returns a future for the result of the given key. If no request for the key is running, the given
+     * request is started. Every caller gets its own future, so cancelling it does not affect other callers.
+     */
+    @SuppressWarnings("unchecked")
+    <T> CompletableFuture<T> merge(String key, Supplier<CompletableFuture<T>> request) {
+        CompletableFuture<T> created = new CompletableFuture<>();
+        CompletableFuture<T> running = (CompletableFuture<T>) inFlight.putIfAbsent(key, created);
+        if (running == null) {
+            running = created;
+            try {
+                request.get().whenComplete((result, error) -> {
+                    inFlight.remove(key, created);
+                    if (error != null)
+                        created.completeExceptionally(error);
+                    else
+                        created.complete(result);
+                });
+            } catch (RuntimeException e) {
+                inFlight.remove(key, created);
+                created.completeExceptionally(e);
+            }
+        }
+        return running.thenApply((result) -> result);
+    }
+
+    /*
+     * Reads the validators of the stored file of a URL. Returns null if nothing is stored for it.
+     */
+    StoredFile readStored(URL url) throws IOException {
+        if (directory == null)
+            return null;
+        String name = url.toExternalForm();
+        Path meta = metaFile(name);
+        if (!Files.exists(meta))
+            return null;
+        try (DataInputStream input = new DataInputStream(Files.newInputStream(meta))) {
+            if (input.readInt() != MAGIC || input.readShort() != FORMAT_VERSION || !input.readUTF().equals(name))
+                return null;
+            String etag = input.readUTF();
+            long lastModified = input.readLong();
+            Path content = directory.resolve(input.readUTF() + ".bin");
+            return Files.exists(content) ? new StoredFile(etag.isEmpty() ? null : etag, lastModified, content) : null;
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /*
+     * Stores the content of a URL and its validators. The file that was stored for the URL before is deleted
+     * if its content is different.
+     */
+    void store(URL url, byte[] content, String etag, long lastModified) throws IOException {
+        if (directory == null)
+            return;
+        String name = url.toExternalForm();
+        StoredFile previous = readStored(url);
+        String hash = FrameCache.key(content);
+        Path contentFile = directory.resolve(hash + ".bin");
+        if (!Files.exists(contentFile))
+            write(contentFile, (output) -> output.write(content));
+        write(metaFile(name), (output) -> {
+            DataOutputStream data = new DataOutputStream(output);
+            data.writeInt(MAGIC);
+            data.writeShort(FORMAT_VERSION);
+            data.writeUTF(name);
+            data.writeUTF(etag == null ? "" : etag);
+            data.writeLong(lastModified);
+            data.writeUTF(hash);
+            data.flush();
+        });
+        // other URLs might have the same content; they download it again if it is missing
+        if (previous != null && !previous.content.equals(contentFile))
+            Files.deleteIfExists(previous.content);
+    }
+
+    private Path metaFile(String url) {
+        return directory.resolve(FrameCache.key(url.getBytes(StandardCharsets.UTF_8)) + ".url");
+    }
+
+    // writes to a temporary file first, so that readers never see partially written files
+    private void write(Path target, Writer writer) throws IOException {
+        Path temp = Files.createTempFile(directory, "download", ".tmp");
+        try {
+            try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                writer.write(output);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private interface Writer {
+        void write(OutputStream output) throws IOException;
+    }
+
+    /*
+     * A decoded image or gif in memory and the validators of the file it was decoded from.
+     */
+    final class MemoryEntry {
+
+        final Object value;
+        final String etag;
+        final long lastModified;
+        private final long weight;
+        private final long validatedAt;
+
+        private MemoryEntry(Object value, long weight, String etag, long lastModified, long validatedAt) {
+            this.value = value;
+            this.weight = weight;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.validatedAt = validatedAt;
+        }
+
+        // Returns whether the value may be used without asking the server whether it has changed.
+        boolean isFresh() {
+            return System.nanoTime() - validatedAt < revalidateNanos;
+        }
+    }
+
+    /*
+     * A file in the directory and the validators it was downloaded with.
+     */
+    static final class StoredFile {
+
+        final String etag;
+        final long lastModified;
+        private final Path content;
+
+        private StoredFile(String etag, long lastModified, Path content) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.content = content;
+        }
+
+        byte[] read() throws IOException {
+            return Files.readAllBytes(content);
+        }
+    }
+
+    /**
+     * Creates and returns a new instance of this class' {@link Builder}.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * A builder class used to create instances of the enclosing {@link ImageCache} class.
+     *
+     * @author Johnny_JayJay (https://www.github.com/JohnnyJayJay)
+     * @see #builder()
+     */
+    public static class Builder {
+
+        private Path directory = null;
+        private long maxMemoryBytes = 64 * 1024 * 1024;
+        private long revalidateNanos = TimeUnit.MINUTES.toNanos(10);
+
+        private Builder() {
+        }
+
+        /**
+         * Builds a new instance of {@link ImageCache} based on the settings made.
+         *
+         * @return a new instance of {@link ImageCache}.
+         * @throws IllegalArgumentException if the maximum memory size or the revalidation interval is negative.
+         * @throws IOException if the directory could not be created.
+         */
+        public ImageCache build() throws IOException {
+            Checks.check(maxMemoryBytes >= 0, "Memory size must not be negative");
+            Checks.check(revalidateNanos >= 0, "Revalidation interval must not be negative");
+            return new ImageCache(directory == null ? null : Files.createDirectories(directory),
+                    maxMemoryBytes, revalidateNanos);
+        }
+
+        /**
+         * Sets the directory downloaded files are stored in. It is created if it does not exist.
+         * <p>
+         * This is an optional setting. By default, nothing is stored and the cache only exists in memory.
+         *
+         * @param directory the directory to use or {@code null} to only cache in memory.
+         * @return this.
+         */
+        public Builder directory(Path directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        /**
+         * Sets how much memory the decoded images and gifs may use. Their size is estimated as 4 bytes per pixel.
+         * <p>
+         * This is an optional setting, the default value is 64 MiB.
+         *
+         * @param bytes the non-negative maximum size in bytes. {@code 0} disables the memory level.
+         * @return this.
+         */
+        public Builder maxMemorySize(long bytes) {
+            this.maxMemoryBytes = bytes;
+            return this;
+        }
+
+        /**
+         * Sets for how long images and gifs in memory are used without asking the server whether they have changed.
+         * <p>
+         * This is an optional setting, the default value is 10 minutes.
+         *
+         * @param amount the non-negative interval in the given unit.
+         * @param unit the non-{@code null} unit of the amount.
+         * @return this.
+         */
+        public Builder revalidateAfter(long amount, TimeUnit unit) {
+            Checks.checkNotNull(unit, "Unit");
+            this.revalidateNanos = unit.toNanos(amount);
+            return this;
+        }
+    }
+}
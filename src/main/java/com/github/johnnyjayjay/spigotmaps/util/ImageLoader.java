@@ -0,0 +1,592 @@
+package com.github.johnnyjayjay.spigotmaps.util;
+
+import com.madgag.gif.fmsware.GifDecoder;
+
+import javax.imageio.ImageIO;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.NoSuchFileException;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToLongFunction;
+
+/**
+ * Loads images and gifs from URLs without blocking the calling thread.
+ * <p>
+ * Every method returns a {@link CompletableFuture} that is completed on one of the loader's threads, so
+ * anything that has to be done on the main thread afterwards, like creating maps, must be scheduled
+ * using the Bukkit scheduler:
+ * <pre>{@code
+ * ImageLoader.getDefault().load(url).whenComplete((image, error) ->
+ *         Bukkit.getScheduler().runTask(plugin, () -> {
+ *             // create the map or report the error
+ *         }));
+ * }</pre>
+ * Downloads time out, are limited in size and in how many run at the same time, and are retried with an
+ * increasing delay if the connection fails or the server reports a temporary error. If loading fails, the
+ * future completes exceptionally with an {@link IOException}.
+ *
+ * @author Johnny_JayJay (https://www.github.com/JohnnyJayJay)
+ * @see Builder
+ */
+public final class ImageLoader {
+
+    private static volatile ImageLoader defaultLoader;
+    private static volatile ScheduledExecutorService retryScheduler;
+
+    private final Executor executor;
+    private final String userAgent;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final long maxResponseBytes;
+    private final int retries;
+    private final long retryDelayMillis;
+    private final Semaphore permits;
+    private final Queue<Download> waiting;
+    private final ImageCache cache;
+
+    private ImageLoader(
+            Executor executor,
+            String userAgent,
+            int connectTimeoutMillis,
+            int readTimeoutMillis,
+            long maxResponseBytes,
+            int maxConcurrentDownloads,
+            int retries,
+            long retryDelayMillis,
+            ImageCache cache
+    ) {
+        this.executor = executor;
+        this.userAgent = userAgent;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.maxResponseBytes = maxResponseBytes;
+        this.retries = retries;
+        this.retryDelayMillis = retryDelayMillis;
+        this.permits = new Semaphore(maxConcurrentDownloads);
+        this.waiting = new ConcurrentLinkedQueue<>();
+        this.cache = cache;
+    }
+
+    /**
+     * Returns a shared loader with the default settings of {@link Builder}.
+     */
+    public static ImageLoader getDefault() {
+        ImageLoader loader = defaultLoader;
+        if (loader == null) {
+            synchronized (ImageLoader.class) {
+                loader = defaultLoader;
+                if (loader == null)
+                    defaultLoader = loader = builder().build();
+            }
+        }
+        return loader;
+    }
+
+    /**
+     * Downloads the content of a URL. If the loader has a {@link ImageCache cache} with a directory, the stored
+     * file is used if it has not changed.
+     *
+     * @param url the non-{@code null} URL to download.
+     * @return a future that is completed with the downloaded bytes.
+     * @throws IllegalArgumentException if the URL is {@code null}.
+     */
+    public CompletableFuture<byte[]> fetch(URL url) {
+        Checks.checkNotNull(url, "URL");
+        if (cache == null)
+            return request(url, null).thenApply(Fetched::body);
+        return cache.merge("bytes " + url.toExternalForm(), () -> request(url, null).thenApply(Fetched::body));
+    }
+
+    /**
+     * Downloads and decodes an image using {@link ImageIO}.
+     *
+     * @param url the non-{@code null} URL to download the image from.
+     * @return a future that is completed with the image, never with {@code null}. If the loader has a
+     *         {@link ImageCache cache}, the image may be shared with other callers and must not be modified.
+     * @throws IllegalArgumentException if the URL is {@code null}.
+     */
+    public CompletableFuture<BufferedImage> load(URL url) {
+        return loadCached(url, "image", (bytes) -> {
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes));
+            if (image == null)
+                throw new IOException("Unsupported image format: " + url);
+            return image;
+        }, (image) -> 4L * image.getWidth() * image.getHeight());
+    }
+
+    /**
+     * Downloads and decodes a gif. The decoder is returned, so that information like the
+     * {@link GifDecoder#getLoopCount() loop count} is available; the frames can be obtained using
+     * {@link com.github.johnnyjayjay.spigotmaps.rendering.GifImage#fromDecoder(GifDecoder)}.
+     *
+     * @param url the non-{@code null} URL to download the gif from.
+     * @return a future that is completed with a decoder that has read the gif. If the loader has a
+     *         {@link ImageCache cache}, the decoder may be shared with other callers.
+     * @throws IllegalArgumentException if the URL is {@code null}.
+     */
+    public CompletableFuture<GifDecoder> loadGif(URL url) {
+        return loadCached(url, "gif", (bytes) -> {
+            GifDecoder decoder = new GifDecoder();
+            int status = decoder.read(new ByteArrayInputStream(bytes));
+            if (status != GifDecoder.STATUS_OK)
+                throw new IOException("Could not decode gif (status " + status + "): " + url);
+            return decoder;
+        }, (decoder) -> {
+            Dimension size = decoder.getFrameSize();
+            return 4L * size.width * size.height * decoder.getFrameCount();
+        });
+    }
+
+    /**
+     * Returns the cache of this loader or {@code null} if it does not have one.
+     */
+    public ImageCache getCache() {
+        return cache;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> loadCached(URL url, String kind, Decoder<T> decoder, ToLongFunction<T> weight) {
+        Checks.checkNotNull(url, "URL");
+        if (cache == null)
+            return request(url, null).thenApplyAsync((fetched) -> decode(decoder, fetched.body()), executor);
+
+        String key = kind + " " + url.toExternalForm();
+        ImageCache.MemoryEntry entry = cache.getMemory(key);
+        if (entry != null && entry.isFresh())
+            return CompletableFuture.completedFuture((T) entry.value);
+        return cache.merge(key, () -> request(url, entry).thenApplyAsync((fetched) -> {
+            // the server confirmed that the value in memory is still up to date, so it does not need to be decoded
+            T value = !fetched.modified && entry != null && Objects.equals(entry.etag, fetched.etag)
+                    && entry.lastModified == fetched.lastModified
+                    ? (T) entry.value
+                    : decode(decoder, fetched.body());
+            cache.putMemory(key, value, weight.applyAsLong(value), fetched.etag, fetched.lastModified);
+            return value;
+        }, executor));
+    }
+
+    private static <T> T decode(Decoder<T> decoder, byte[] bytes) {
+        try {
+            return decoder.decode(bytes);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    // starts a download that is revalidated against the stored file or the given entry in memory
+    private CompletableFuture<Fetched> request(URL url, ImageCache.MemoryEntry entry) {
+        Download download = new Download(url, entry);
+        waiting.add(download);
+        startWaiting();
+        return download.future;
+    }
+
+    /**
+     * Returns the executor downloads and decoding run on.
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Returns how many downloads are waiting for one of the running downloads to finish.
+     */
+    public int getWaitingDownloads() {
+        return waiting.size();
+    }
+
+    // starts waiting downloads as long as the concurrency limit allows it
+    private void startWaiting() {
+        while (!waiting.isEmpty() && permits.tryAcquire()) {
+            Download download = waiting.poll();
+            if (download == null) {
+                permits.release();
+                continue;
+            }
+            try {
+                executor.execute(download);
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                download.future.completeExceptionally(new IOException("The loader's executor rejected the download", e));
+            }
+        }
+    }
+
+    private Fetched download(URL url, String etag, long lastModified) throws IOException {
+        URLConnection connection = url.openConnection();
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        connection.addRequestProperty("User-Agent", userAgent);
+        if (etag != null)
+            connection.addRequestProperty("If-None-Match", etag);
+        if (lastModified > 0)
+            connection.setIfModifiedSince(lastModified);
+        if (connection instanceof HttpURLConnection) {
+            HttpURLConnection http = (HttpURLConnection) connection;
+            int status = http.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && (etag != null || lastModified > 0)) {
+                http.disconnect();
+                return new Fetched(null, etag, lastModified);
+            }
+            if (status >= 400) {
+                http.disconnect();
+                // only server errors and rate limits might go away by trying again
+                boolean temporary = status >= 500 || status == 429;
+                throw new ResponseException("HTTP " + status + " for " + url, temporary);
+            }
+        }
+        long length = connection.getContentLengthLong();
+        if (length > maxResponseBytes)
+            throw new ResponseException("Response of " + length + " bytes is too large: " + url, false);
+        try (InputStream input = connection.getInputStream()) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream(length > 0 ? (int) length : 8192);
+            byte[] buffer = new byte[8192];
+            long total = 0;
+            for (int read = input.read(buffer); read >= 0; read = input.read(buffer)) {
+                total += read;
+                if (total > maxResponseBytes)
+                    throw new ResponseException("Response is larger than " + maxResponseBytes + " bytes: " + url, false);
+                output.write(buffer, 0, read);
+            }
+            return new Fetched(output.toByteArray(), connection.getHeaderField("ETag"), connection.getLastModified());
+        }
+    }
+
+    private static ScheduledExecutorService retryScheduler() {
+        ScheduledExecutorService scheduler = retryScheduler;
+        if (scheduler == null) {
+            synchronized (ImageLoader.class) {
+                scheduler = retryScheduler;
+                if (scheduler == null)
+                    retryScheduler = scheduler = Executors.newSingleThreadScheduledExecutor(daemonThreads("spigot-maps-retry"));
+            }
+        }
+        return scheduler;
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return (runnable) -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // Uses virtual threads if the Java version supports them and a cached pool of daemon threads otherwise.
+    private static Executor defaultExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newCachedThreadPool(daemonThreads("spigot-maps-loader"));
+        }
+    }
+
+    /*
+     * One download, including its retries. It holds a permit while it runs and gives it back while it
+     * waits for a retry, so that waiting downloads do not block others.
+     */
+    private final class Download implements Runnable {
+
+        private final URL url;
+        private final ImageCache.MemoryEntry entry;
+        private final CompletableFuture<Fetched> future;
+        private ImageCache.StoredFile stored;
+        private int attempt;
+
+        private Download(URL url, ImageCache.MemoryEntry entry) {
+            this.url = url;
+            this.entry = entry;
+            this.future = new CompletableFuture<>();
+            this.attempt = 0;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (attempt == 0 && cache != null)
+                    stored = cache.readStored(url);
+                future.complete(revalidate());
+            } catch (IOException e) {
+                boolean temporary = !(e instanceof ResponseException) || ((ResponseException) e).temporary;
+                if (temporary && attempt < retries) {
+                    long delay = retryDelayMillis << Math.min(attempt, 16);
+                    attempt++;
+                    retryScheduler().schedule(() -> {
+                        waiting.add(this);
+                        startWaiting();
+                    }, delay, TimeUnit.MILLISECONDS);
+                } else if (temporary && stored != null) {
+                    // the server cannot be reached, so the stored file is the best there is
+                    try {
+                        future.complete(new Fetched(null, stored.etag, stored.lastModified).from(stored));
+                    } catch (IOException readError) {
+                        e.addSuppressed(readError);
+                        future.completeExceptionally(e);
+                    }
+                } else {
+                    future.completeExceptionally(e);
+                }
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            } finally {
+                permits.release();
+                startWaiting();
+            }
+        }
+
+        private Fetched revalidate() throws IOException {
+            if (stored != null) {
+                Fetched fetched = download(url, stored.etag, stored.lastModified);
+                if (!fetched.modified) {
+                    try {
+                        return fetched.from(stored);
+                    } catch (NoSuchFileException e) {
+                        // deleted because another URL changed; download it again
+                        stored = null;
+                        return revalidate();
+                    }
+                }
+                cache.store(url, fetched.body, fetched.etag, fetched.lastModified);
+                return fetched;
+            }
+            Fetched fetched = entry == null ? download(url, null, 0) : download(url, entry.etag, entry.lastModified);
+            if (fetched.modified && cache != null)
+                cache.store(url, fetched.body, fetched.etag, fetched.lastModified);
+            return fetched;
+        }
+    }
+
+    /*
+     * The result of a download. If the file has not been modified, the body is only available if it was stored.
+     */
+    private static final class Fetched {
+
+        private final boolean modified;
+        private final String etag;
+        private final long lastModified;
+        private byte[] body;
+
+        private Fetched(byte[] body, String etag, long lastModified) {
+            this.modified = body != null;
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        private Fetched from(ImageCache.StoredFile stored) throws IOException {
+            body = stored.read();
+            return this;
+        }
+
+        private byte[] body() {
+            return body;
+        }
+    }
+
+    private interface Decoder<T> {
+        T decode(byte[] bytes) throws IOException;
+    }
+
+    private static final class ResponseException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final boolean temporary;
+
+        private ResponseException(String message, boolean temporary) {
+            super(message);
+            this.temporary = temporary;
+        }
+    }
+
+    /**
+     * Creates and returns a new instance of this class' {@link Builder}.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * A builder class used to create instances of the enclosing {@link ImageLoader} class.
+     *
+     * @author Johnny_JayJay (https://www.github.com/JohnnyJayJay)
+     * @see #builder()
+     */
+    public static class Builder {
+
+        private Executor executor = null;
+        private String userAgent = "Mozilla/5.0";
+        private long connectTimeoutMillis = 5_000;
+        private long readTimeoutMillis = 10_000;
+        private long maxResponseBytes = 16 * 1024 * 1024;
+        private int maxConcurrentDownloads = 4;
+        private int retries = 2;
+        private long retryDelayMillis = 500;
+        private ImageCache cache = null;
+
+        private Builder() {
+        }
+
+        /**
+         * Builds a new instance of {@link ImageLoader} based on the settings made.
+         *
+         * @return a new instance of {@link ImageLoader}.
+         * @throws IllegalArgumentException if
+         *                                  <ul>
+         *                                  <li>The user agent is {@code null}</li>
+         *                                  <li>A timeout or the maximum response size is not positive</li>
+         *                                  <li>The number of concurrent downloads is not positive</li>
+         *                                  <li>The number of retries or the retry delay is negative</li>
+         *                                  </ul>
+         */
+        public ImageLoader build() {
+            Checks.checkNotNull(userAgent, "User agent");
+            Checks.check(connectTimeoutMillis > 0 && readTimeoutMillis > 0, "Timeouts must be positive");
+            Checks.check(maxResponseBytes > 0, "Maximum response size must be positive");
+            Checks.check(maxConcurrentDownloads > 0, "Concurrent downloads must be positive");
+            Checks.check(retries >= 0, "Retries must not be negative");
+            Checks.check(retryDelayMillis >= 0, "Retry delay must not be negative");
+            return new ImageLoader(executor == null ? defaultExecutor() : executor, userAgent,
+                    (int) Math.min(connectTimeoutMillis, Integer.MAX_VALUE),
+                    (int) Math.min(readTimeoutMillis, Integer.MAX_VALUE),
+                    maxResponseBytes, maxConcurrentDownloads, retries, retryDelayMillis, cache);
+        }
+
+        /**
+         * Sets the {@link Executor} downloads and decoding run on. Downloads block the thread they run on.
+         * <p>
+         * This is an optional setting. By default, every loader uses virtual threads if the Java version
+         * supports them and its own pool of daemon threads otherwise.
+         *
+         * @param executor a non-{@code null} executor.
+         * @return this.
+         */
+        public Builder executor(Executor executor) {
+            Checks.checkNotNull(executor, "Executor");
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Sets the value of the {@code User-Agent} header. Some servers reject requests without one.
+         * <p>
+         * This is an optional setting, the default value is {@code Mozilla/5.0}.
+         *
+         * @param userAgent the non-{@code null} user agent.
+         * @return this.
+         */
+        public Builder userAgent(String userAgent) {
+            this.userAgent = userAgent;
+            return this;
+        }
+
+        /**
+         * Sets how long to wait for a connection to be established.
+         * <p>
+         * This is an optional setting, the default value is 5 seconds.
+         *
+         * @param amount the positive timeout in the given unit.
+         * @param unit the non-{@code null} unit of the amount.
+         * @return this.
+         */
+        public Builder connectTimeout(long amount, TimeUnit unit) {
+            Checks.checkNotNull(unit, "Unit");
+            this.connectTimeoutMillis = unit.toMillis(amount);
+            return this;
+        }
+
+        /**
+         * Sets how long to wait for data while reading a response.
+         * <p>
+         * This is an optional setting, the default value is 10 seconds.
+         *
+         * @param amount the positive timeout in the given unit.
+         * @param unit the non-{@code null} unit of the amount.
+         * @return this.
+         */
+        public Builder readTimeout(long amount, TimeUnit unit) {
+            Checks.checkNotNull(unit, "Unit");
+            this.readTimeoutMillis = unit.toMillis(amount);
+            return this;
+        }
+
+        /**
+         * Sets the maximum size of a response. Larger responses fail without being read completely.
+         * <p>
+         * This is an optional setting, the default value is 16 MiB.
+         *
+         * @param bytes the positive maximum size in bytes.
+         * @return this.
+         */
+        public Builder maxResponseSize(long bytes) {
+            this.maxResponseBytes = bytes;
+            return this;
+        }
+
+        /**
+         * Sets how many downloads may run at the same time. Further downloads wait without occupying a thread.
+         * <p>
+         * This is an optional setting, the default value is 4.
+         *
+         * @param downloads the positive maximum number of concurrent downloads.
+         * @return this.
+         */
+        public Builder maxConcurrentDownloads(int downloads) {
+            this.maxConcurrentDownloads = downloads;
+            return this;
+        }
+
+        /**
+         * Sets the {@link ImageCache} downloads and decoded images are cached in. A cache can be shared by
+         * several loaders.
+         * <p>
+         * This is an optional setting. By default, nothing is cached.
+         *
+         * @param cache the cache to use or {@code null} to not cache anything.
+         * @return this.
+         */
+        public Builder cache(ImageCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        /**
+         * Sets how often a download is retried if the connection fails, times out or the server responds with
+         * a status of 5xx or 429. The delay before each retry is twice as long as the previous one.
+         * <p>
+         * This is an optional setting, the default is 2 retries, the first one after 500 milliseconds.
+         *
+         * @param retries the non-negative number of retries.
+         * @param firstDelay the non-negative delay before the first retry in the given unit.
+         * @param unit the non-{@code null} unit of the delay.
+         * @return this.
+         */
+        public Builder retries(int retries, long firstDelay, TimeUnit unit) {
+            Checks.checkNotNull(unit, "Unit");
+            this.retries = retries;
+            this.retryDelayMillis = unit.toMillis(firstDelay);
+            return this;
+        }
+    }
+}
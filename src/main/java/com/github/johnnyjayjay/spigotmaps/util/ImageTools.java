@@ -1,6 +1,9 @@
 package com.github.johnnyjayjay.spigotmaps.util;
 
 import com.github.johnnyjayjay.spigotmaps.rendering.GifImage;
+import com.github.johnnyjayjay.spigotmaps.rendering.ImageRenderer;
+import com.github.johnnyjayjay.spigotmaps.rendering.PaletteBuffer;
+import com.github.johnnyjayjay.spigotmaps.rendering.PreparedGif;
 import com.github.johnnyjayjay.spigotmaps.rendering.SimpleTextRenderer;
 
 import javax.imageio.ImageIO;
@@ -14,6 +17,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
 /**
@@ -39,7 +45,9 @@ public final class ImageTools {
      * @param url a non-{@code null} URL to fetch the image from.
      * @return the image or {@code null} if no image could be created.
      * @throws IOException see {@link ImageIO#read(URL)}.
+     * @deprecated this blocks the calling thread without any timeout. Use {@link ImageLoader#load(URL)} instead.
      */
+    @Deprecated
     public static BufferedImage loadWithUserAgentFrom(URL url) throws IOException {
         URLConnection connection = url.openConnection();
         connection.addRequestProperty("User-Agent", "Mozilla/5.0");
@@ -77,6 +85,22 @@ public final class ImageTools {
         return GifImage.create(newFrames);
     }
 
+    /**
+     * Resizes a {@link GifImage} to the size specified in {@link #MINECRAFT_MAP_SIZE} and converts its frames
+     * to map colours right away, without creating an intermediate {@link GifImage}.
+     *
+     * @param gif the non-{@code null} gif to resize.
+     * @return a new {@link PreparedGif} where each frame has the according size.
+     * @throws IllegalArgumentException if the gif does not have any frames.
+     */
+    public static PreparedGif resizeToPreparedGif(GifImage gif) {
+        Dimension size = MINECRAFT_MAP_SIZE;
+        PreparedGif.Builder builder = PreparedGif.builder(size.width, size.height);
+        for (GifImage.Frame frame : gif)
+            builder.addFrame(PaletteBuffer.fromImage(resizeToMapSize(frame.getImage())), frame.getMsDelay());
+        return builder.build();
+    }
+
     /**
      * Resizes an image to the size specified in {@link #MINECRAFT_MAP_SIZE}.
      *
@@ -131,6 +155,126 @@ public final class ImageTools {
         return Arrays.stream(dividedParts).map(Arrays::asList).map(GifImage::create).collect(Collectors.toList());
     }
 
+    /**
+     * Does the same as {@link #divideIntoMapSizedParts(GifImage, boolean)}, but converts the frames to
+     * map colours right away. No intermediate {@link GifImage}s or images per part are created.
+     * <p>
+     * Each frame is converted as a whole before it is divided, so if dithering is enabled, the error is
+     * spread across the borders of the parts. Note that dithering makes identical areas of consecutive
+     * frames less likely to stay identical, which means more pixels have to be drawn per frame.
+     *
+     * @param gif    the non-{@code null} {@link GifImage} to be divided.
+     * @param crop   see {@link #divideIntoMapSizedParts(GifImage, boolean)}.
+     * @param dither whether the colours should be {@link ColorMatcher#dither(BufferedImage) dithered}.
+     * @return a never-null List containing the parts in the same order as
+     *         {@link #divideIntoMapSizedParts(GifImage, boolean)} returns them. Empty if the gif does not have any frames.
+     *         The parts are {@link PreparedGif#playInSync(List) played in sync}.
+     */
+    public static List<PreparedGif> divideIntoPreparedParts(GifImage gif, boolean crop, boolean dither) {
+        if (gif.getFrameCount() == 0)
+            return Collections.emptyList();
+
+        Dimension partSize = MINECRAFT_MAP_SIZE;
+        PreparedGif.Builder[] builders = null;
+        int linearParts = 0;
+        for (GifImage.Frame frame : gif) {
+            BufferedImage square = crop ? cropToMapDividableSquare(frame.getImage()) : scaleToMapDividableSquare(frame.getImage());
+            PaletteBuffer whole = PaletteBuffer.fromImage(square, ColorMatcher.getDefault(), dither);
+            if (builders == null) {
+                linearParts = square.getWidth() / partSize.width;
+                builders = new PreparedGif.Builder[square(linearParts)];
+                for (int i = 0; i < builders.length; i++)
+                    builders[i] = PreparedGif.builder(partSize.width, partSize.height);
+            }
+            for (int x = 0; x < linearParts; x++) {
+                for (int y = 0; y < linearParts; y++) {
+                    PaletteBuffer part = whole.getSubBuffer(partSize.width * x, partSize.height * y, partSize.width, partSize.height);
+                    builders[x * linearParts + y].addFrame(part, frame.getMsDelay());
+                }
+            }
+        }
+        List<PreparedGif> parts = Arrays.stream(builders).map(PreparedGif.Builder::build).collect(Collectors.toList());
+        PreparedGif.playInSync(parts);
+        return parts;
+    }
+
+    /**
+     * Does the same as {@link #divideIntoPreparedParts(GifImage, boolean, boolean)} using the
+     * {@link ForkJoinPool#commonPool() common ForkJoinPool}.
+     *
+     * @param gif    the non-{@code null} {@link GifImage} to be divided.
+     * @param crop   see {@link #divideIntoMapSizedParts(GifImage, boolean)}.
+     * @param dither whether the colours should be {@link ColorMatcher#dither(BufferedImage) dithered}.
+     * @return a future that completes with the parts.
+     * @see #divideIntoPreparedPartsAsync(GifImage, boolean, boolean, Executor)
+     */
+    public static CompletableFuture<List<PreparedGif>> divideIntoPreparedPartsAsync(GifImage gif, boolean crop, boolean dither) {
+        return divideIntoPreparedPartsAsync(gif, crop, dither, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Does the same as {@link #divideIntoPreparedParts(GifImage, boolean, boolean)}, but spreads the work across
+     * the given {@link Executor}: first, all frames are squared and converted to map colours in parallel,
+     * then the parts are assembled and compared frame by frame in parallel.
+     * The result is identical to the one of the sequential method.
+     * <p>
+     * Note that all converted frames are held in memory at the same time, which takes a quarter of
+     * the memory the frames of the source gif take.
+     *
+     * @param gif      the non-{@code null} {@link GifImage} to be divided.
+     * @param crop     see {@link #divideIntoMapSizedParts(GifImage, boolean)}.
+     * @param dither   whether the colours should be {@link ColorMatcher#dither(BufferedImage) dithered}.
+     * @param executor the non-{@code null} executor to do the work on.
+     * @return a future that completes with the parts in the same order as
+     *         {@link #divideIntoMapSizedParts(GifImage, boolean)} returns them. Empty if the gif does not have any frames.
+     */
+    public static CompletableFuture<List<PreparedGif>> divideIntoPreparedPartsAsync(
+            GifImage gif, boolean crop, boolean dither, Executor executor
+    ) {
+        Checks.checkNotNull(gif, "GIF image");
+        Checks.checkNotNull(executor, "Executor");
+        if (gif.getFrameCount() == 0)
+            return CompletableFuture.completedFuture(Collections.emptyList());
+
+        ColorMatcher matcher = ColorMatcher.getDefault();
+        List<CompletableFuture<PaletteBuffer>> converted = new ArrayList<>(gif.getFrameCount());
+        for (int i = 0; i < gif.getFrameCount(); i++) {
+            int index = i;
+            converted.add(CompletableFuture.supplyAsync(() -> {
+                BufferedImage image = gif.get(index).getImage();
+                BufferedImage square = crop ? cropToMapDividableSquare(image) : scaleToMapDividableSquare(image);
+                return PaletteBuffer.fromImage(square, matcher, dither);
+            }, executor));
+        }
+
+        return CompletableFuture.allOf(converted.toArray(new CompletableFuture<?>[0])).thenComposeAsync((v) -> {
+            PaletteBuffer[] wholeFrames = converted.stream().map(CompletableFuture::join).toArray(PaletteBuffer[]::new);
+            Dimension partSize = MINECRAFT_MAP_SIZE;
+            int linearParts = wholeFrames[0].getWidth() / partSize.width;
+            List<CompletableFuture<PreparedGif>> parts = new ArrayList<>(square(linearParts));
+            for (int x = 0; x < linearParts; x++) {
+                for (int y = 0; y < linearParts; y++) {
+                    int partX = partSize.width * x;
+                    int partY = partSize.height * y;
+                    parts.add(CompletableFuture.supplyAsync(() -> {
+                        PreparedGif.Builder builder = PreparedGif.builder(partSize.width, partSize.height);
+                        for (int i = 0; i < wholeFrames.length; i++) {
+                            PaletteBuffer part = wholeFrames[i].getSubBuffer(partX, partY, partSize.width, partSize.height);
+                            builder.addFrame(part, gif.get(i).getMsDelay());
+                        }
+                        return builder.build();
+                    }, executor));
+                }
+            }
+            return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0]))
+                    .thenApply((done) -> {
+                        List<PreparedGif> prepared = parts.stream().map(CompletableFuture::join).collect(Collectors.toList());
+                        PreparedGif.playInSync(prepared);
+                        return prepared;
+                    });
+        }, executor);
+    }
+
     private static int square(int x) {
         return x * x;
     }
@@ -153,6 +297,63 @@ public final class ImageTools {
         return Arrays.asList(divideIntoParts(crop ? cropToMapDividableSquare(image) : scaleToMapDividableSquare(image)));
     }
 
+    /**
+     * Does the same as {@link #divideIntoMapSizedParts(BufferedImage, boolean)}, but converts the result to
+     * map colours right away.
+     * <p>
+     * The conversion is done for the whole square image before it is divided, so if dithering is enabled,
+     * the error is spread across the borders of the parts and there are no visible seams between them.
+     * Since this is expensive, consider using
+     * {@link #divideIntoMapSizedPalettesAsync(BufferedImage, boolean, boolean, Executor)} instead.
+     *
+     * @param image  the non-{@code null} image to be divided.
+     * @param crop   see {@link #divideIntoMapSizedParts(BufferedImage, boolean)}.
+     * @param dither whether the colours should be {@link ColorMatcher#dither(BufferedImage) dithered}.
+     * @return a never-null List containing the parts in the same order as
+     *         {@link #divideIntoMapSizedParts(BufferedImage, boolean)} returns them.
+     */
+    public static List<PaletteBuffer> divideIntoMapSizedPalettes(BufferedImage image, boolean crop, boolean dither) {
+        BufferedImage square = crop ? cropToMapDividableSquare(image) : scaleToMapDividableSquare(image);
+        PaletteBuffer whole = PaletteBuffer.fromImage(square, ColorMatcher.getDefault(), dither);
+        Dimension partSize = MINECRAFT_MAP_SIZE;
+        int linearParts = square.getWidth() / partSize.width;
+        List<PaletteBuffer> result = new ArrayList<>(linearParts * linearParts);
+        for (int x = 0; x < linearParts; x++) {
+            for (int y = 0; y < linearParts; y++) {
+                result.add(whole.getSubBuffer(partSize.width * x, partSize.height * y, partSize.width, partSize.height));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Runs {@link #divideIntoMapSizedPalettes(BufferedImage, boolean, boolean)} using the given {@link Executor}.
+     *
+     * @param image    the non-{@code null} image to be divided.
+     * @param crop     see {@link #divideIntoMapSizedParts(BufferedImage, boolean)}.
+     * @param dither   whether the colours should be {@link ColorMatcher#dither(BufferedImage) dithered}.
+     * @param executor the non-{@code null} executor to do the work on.
+     * @return a future that completes with the parts.
+     */
+    public static CompletableFuture<List<PaletteBuffer>> divideIntoMapSizedPalettesAsync(
+            BufferedImage image, boolean crop, boolean dither, Executor executor
+    ) {
+        return CompletableFuture.supplyAsync(() -> divideIntoMapSizedPalettes(image, crop, dither), executor);
+    }
+
+    /**
+     * Converts an image to map colours using the given {@link Executor}. The result can be used by an
+     * {@link ImageRenderer} without any further conversion.
+     *
+     * @param image    the non-{@code null} image to convert.
+     * @param dither   whether the colours should be {@link ColorMatcher#dither(BufferedImage) dithered}.
+     * @param executor the non-{@code null} executor to do the work on.
+     * @return a future that completes with the converted image.
+     */
+    public static CompletableFuture<PaletteBuffer> toPaletteBufferAsync(BufferedImage image, boolean dither, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> PaletteBuffer.fromImage(image, ColorMatcher.getDefault(), dither), executor);
+    }
+
     private static BufferedImage[] divideIntoParts(BufferedImage image) {
         Dimension partSize = MINECRAFT_MAP_SIZE;
         int linearParts = image.getWidth() / partSize.width;
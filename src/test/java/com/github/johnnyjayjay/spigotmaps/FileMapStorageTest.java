@@ -0,0 +1,324 @@
+package com.github.johnnyjayjay.spigotmaps;
+
+import com.github.johnnyjayjay.spigotmaps.rendering.AbstractMapRenderer;
+import com.github.johnnyjayjay.spigotmaps.rendering.AnimatedTextRenderer;
+import com.github.johnnyjayjay.spigotmaps.rendering.AnimationClock;
+import com.github.johnnyjayjay.spigotmaps.rendering.CompositeRenderer;
+import com.github.johnnyjayjay.spigotmaps.rendering.GifRenderer;
+import com.github.johnnyjayjay.spigotmaps.rendering.ImageRenderer;
+import com.github.johnnyjayjay.spigotmaps.rendering.PaletteBuffer;
+import com.github.johnnyjayjay.spigotmaps.rendering.PreparedGif;
+import com.github.johnnyjayjay.spigotmaps.rendering.SimpleTextRenderer;
+import com.github.johnnyjayjay.spigotmaps.rendering.TextLayout;
+import com.github.johnnyjayjay.spigotmaps.stub.ArrayCanvas;
+import com.github.johnnyjayjay.spigotmaps.stub.Samples;
+import com.github.johnnyjayjay.spigotmaps.stub.StubBukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.map.MapCanvas;
+import org.bukkit.map.MapRenderer;
+import org.bukkit.map.MapView;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.Point;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FileMapStorageTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private MapView view;
+    private Player player;
+
+    @Before
+    public void setUp() {
+        StubBukkit.install();
+        directory = folder.getRoot().toPath();
+        view = StubBukkit.mapView(1);
+        player = StubBukkit.player("viewer");
+    }
+
+    @Test
+    public void imageRendererIsProvidedAfterReopening() throws IOException {
+        ImageRenderer stored = ImageRenderer.builder()
+                .image(Samples.image(64, 32))
+                .startingPoint(new Point(10, 20))
+                .renderOnce(false)
+                .build();
+        ImageRenderer provided = (ImageRenderer) storeAndReopen(stored);
+        assertEquals(stored.getStartingPoint(), provided.getStartingPoint());
+        assertEquals(stored.isRenderOnce(), provided.isRenderOnce());
+        assertArrayEquals(stored.getPalette().getColors(), provided.getPalette().getColors());
+        assertArrayEquals(pixels(stored), pixels(provided));
+    }
+
+    @Test
+    public void textRendererIsProvidedAfterReopening() throws IOException {
+        SimpleTextRenderer stored = SimpleTextRenderer.builder()
+                .layout(TextLayout.builder()
+                        .text("A text that is long enough to be wrapped into multiple lines")
+                        .width(80)
+                        .alignment(TextLayout.Alignment.CENTER)
+                        .build())
+                .startingPoint(new Point(5, 5))
+                .build();
+        SimpleTextRenderer provided = (SimpleTextRenderer) storeAndReopen(stored);
+        assertEquals(stored.getText(), provided.getText());
+        assertEquals(stored.getLayout().getWidth(), provided.getLayout().getWidth());
+        assertEquals(stored.getLayout().getAlignment(), provided.getLayout().getAlignment());
+        assertArrayEquals(pixels(stored), pixels(provided));
+    }
+
+    @Test
+    public void animatedTextRendererIsProvidedAfterReopening() throws IOException {
+        AnimatedTextRenderer stored = AnimatedTextRenderer.builder()
+                .addText("Char by char")
+                .charsPerSecond(7)
+                .delay(13)
+                .perViewer(true)
+                .build();
+        AnimatedTextRenderer provided = (AnimatedTextRenderer) storeAndReopen(stored);
+        assertEquals(stored.getText(), provided.getText());
+        assertEquals(stored.getCharsPerSecond(), provided.getCharsPerSecond());
+        assertEquals(stored.getDelay(), provided.getDelay());
+        assertEquals(stored.isPerViewer(), provided.isPerViewer());
+    }
+
+    @Test
+    public void gifRendererIsProvidedAfterReopening() throws IOException {
+        GifRenderer stored = GifRenderer.builder()
+                .gif(gif())
+                .startAt(1)
+                .repeat(3)
+                .perViewer(true)
+                .build();
+        GifRenderer provided = (GifRenderer) storeAndReopen(stored);
+        PreparedGif expected = stored.getPreparedImage();
+        PreparedGif actual = provided.getPreparedImage();
+        assertEquals(expected.getFrameCount(), actual.getFrameCount());
+        for (int i = 0; i < expected.getFrameCount(); i++) {
+            assertEquals(expected.getMsDelay(i), actual.getMsDelay(i));
+            assertArrayEquals(expected.getFrame(i).getColors(), actual.getFrame(i).getColors());
+        }
+        assertEquals(1, provided.getStartFrame());
+        assertEquals(3, provided.getRepeat());
+        assertEquals(stored.isPerViewer(), provided.isPerViewer());
+    }
+
+    @Test
+    public void compositeRendererIsProvidedAfterReopening() throws IOException {
+        CompositeRenderer stored = CompositeRenderer.builder()
+                .addLayers(ImageRenderer.create(Samples.image(128, 128)), SimpleTextRenderer.create("On top"))
+                .build();
+        CompositeRenderer provided = (CompositeRenderer) storeAndReopen(stored);
+        List<AbstractMapRenderer> layers = provided.getLayers();
+        assertEquals(2, layers.size());
+        assertTrue(layers.get(0) instanceof ImageRenderer);
+        assertTrue(layers.get(1) instanceof SimpleTextRenderer);
+        assertArrayEquals(pixels(stored), pixels(provided));
+    }
+
+    // what is stored is how the gif was built, not how far it has played
+    @Test
+    public void gifIsProvidedFromTheStart() throws IOException {
+        AnimationClock.start(StubBukkit.plugin());
+        GifRenderer stored = GifRenderer.builder().gif(gif()).repeat(2).build();
+        while (stored.getCurrentFrame() == 0 && stored.getToRepeat() == 2)
+            StubBukkit.tick();
+        GifRenderer provided = (GifRenderer) storeAndReopen(stored);
+        assertEquals(0, provided.getCurrentFrame());
+        assertEquals(2, provided.getToRepeat());
+    }
+
+    // a crash while appending leaves the beginning of a record behind that the index does not point to
+    @Test
+    public void partialRecordAtTheEndIsOverwritten() throws IOException {
+        try (FileMapStorage storage = open()) {
+            storage.store(1, SimpleTextRenderer.create("first"));
+        }
+        try (FileChannel data = FileChannel.open(directory.resolve("data-0.bin"), StandardOpenOption.WRITE)) {
+            // map id, a body length of 1000 and a checksum, but only 5 bytes of the body
+            data.write(ByteBuffer.allocate(17).putInt(2).putInt(1000).putInt(0), data.size());
+        }
+        try (FileMapStorage storage = open()) {
+            assertText("first", storage.provide(1));
+            storage.store(2, SimpleTextRenderer.create("second"));
+        }
+        try (FileMapStorage storage = open()) {
+            assertText("first", storage.provide(1));
+            assertText("second", storage.provide(2));
+        }
+    }
+
+    // if the end of the data file is lost, only the maps whose records were cut off are lost
+    @Test
+    public void truncatedLastRecordIsNotProvided() throws IOException {
+        try (FileMapStorage storage = open()) {
+            storage.store(1, SimpleTextRenderer.create("first"));
+            storage.flush();
+            storage.store(2, SimpleTextRenderer.create("second"));
+        }
+        Path file = directory.resolve("data-0.bin");
+        try (FileChannel data = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            data.truncate(data.size() - 3);
+        }
+        try (FileMapStorage storage = open()) {
+            assertText("first", storage.provide(1));
+            assertNull(storage.provide(2));
+            storage.store(2, SimpleTextRenderer.create("again"));
+        }
+        try (FileMapStorage storage = open()) {
+            assertText("first", storage.provide(1));
+            assertText("again", storage.provide(2));
+        }
+    }
+
+    // decoding a large record of one map must not keep other maps from being provided
+    @Test
+    public void mapsAreProvidedWhileAnotherIsDecoded() throws Exception {
+        CountDownLatch decoding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        FileMapStorage.Codec<BlankRenderer> blocking = new FileMapStorage.Codec<BlankRenderer>() {
+            @Override
+            public void write(BlankRenderer renderer, DataOutput output) {}
+
+            @Override
+            public BlankRenderer read(DataInput input) throws IOException {
+                decoding.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return new BlankRenderer();
+            }
+        };
+        FileMapStorage.Builder builder = FileMapStorage.builder(directory)
+                .flushDelay(0, TimeUnit.MILLISECONDS)
+                .codec("test:blank", BlankRenderer.class, blocking);
+        try (FileMapStorage storage = builder.build()) {
+            storage.store(1, new BlankRenderer());
+            storage.store(2, SimpleTextRenderer.create("other"));
+        }
+        try (FileMapStorage storage = builder.build()) {
+            CompletableFuture<List<MapRenderer>> blocked = CompletableFuture.supplyAsync(() -> storage.provide(1));
+            try {
+                assertTrue(decoding.await(5, TimeUnit.SECONDS));
+                List<MapRenderer> other = CompletableFuture.supplyAsync(() -> storage.provide(2)).get(5, TimeUnit.SECONDS);
+                assertText("other", other);
+            } finally {
+                release.countDown();
+            }
+            assertEquals(1, blocked.get(5, TimeUnit.SECONDS).size());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void builtInCodecNamesCannotBeUsed() {
+        FileMapStorage.builder(directory).codec("spigotmaps:image", BlankRenderer.class, blank());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void codecNamesCannotBeUsedTwice() {
+        FileMapStorage.builder(directory)
+                .codec("test:blank", BlankRenderer.class, blank())
+                .codec("test:blank", OtherBlankRenderer.class, new FileMapStorage.Codec<OtherBlankRenderer>() {
+                    @Override
+                    public void write(OtherBlankRenderer renderer, DataOutput output) {}
+
+                    @Override
+                    public OtherBlankRenderer read(DataInput input) {
+                        return new OtherBlankRenderer();
+                    }
+                });
+    }
+
+    @Test
+    public void codecOfAClassCanBeReplaced() {
+        FileMapStorage.builder(directory)
+                .codec("test:blank", BlankRenderer.class, blank())
+                .codec("test:blank", BlankRenderer.class, blank());
+    }
+
+    private FileMapStorage open() throws IOException {
+        return FileMapStorage.builder(directory).flushDelay(0, TimeUnit.MILLISECONDS).build();
+    }
+
+    private MapRenderer storeAndReopen(MapRenderer renderer) throws IOException {
+        try (FileMapStorage storage = open()) {
+            storage.store(7, renderer);
+        }
+        try (FileMapStorage storage = open()) {
+            List<MapRenderer> renderers = storage.provide(7);
+            assertNotNull(renderers);
+            assertEquals(1, renderers.size());
+            assertEquals(renderer.getClass(), renderers.get(0).getClass());
+            return renderers.get(0);
+        }
+    }
+
+    private static void assertText(String text, List<MapRenderer> renderers) {
+        assertNotNull(renderers);
+        assertEquals(1, renderers.size());
+        assertEquals(SimpleTextRenderer.create(text).getText(), ((SimpleTextRenderer) renderers.get(0)).getText());
+    }
+
+    private static PreparedGif gif() {
+        PreparedGif.Builder builder = PreparedGif.builder(16, 16);
+        for (int i = 0; i < 3; i++) {
+            byte[] colors = new byte[256];
+            colors[i * 17] = 34;
+            builder.addFrame(PaletteBuffer.fromColors(16, 16, colors), 50 * (i + 1));
+        }
+        return builder.build();
+    }
+
+    public static class BlankRenderer extends MapRenderer {
+
+        @Override
+        public void render(MapView map, MapCanvas canvas, Player player) {}
+    }
+
+    public static class OtherBlankRenderer extends BlankRenderer {}
+
+    private static FileMapStorage.Codec<BlankRenderer> blank() {
+        return new FileMapStorage.Codec<BlankRenderer>() {
+            @Override
+            public void write(BlankRenderer renderer, DataOutput output) {}
+
+            @Override
+            public BlankRenderer read(DataInput input) {
+                return new BlankRenderer();
+            }
+        };
+    }
+
+    private byte[] pixels(MapRenderer renderer) {
+        ArrayCanvas canvas = new ArrayCanvas(view);
+        renderer.render(view, canvas, player);
+        byte[] pixels = new byte[128 * 128];
+        for (int i = 0; i < pixels.length; i++)
+            pixels[i] = canvas.getPixel(i % 128, i / 128);
+        return pixels;
+    }
+}
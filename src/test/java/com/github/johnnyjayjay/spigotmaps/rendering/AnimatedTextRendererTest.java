@@ -0,0 +1,58 @@
+package com.github.johnnyjayjay.spigotmaps.rendering;
+
+import com.github.johnnyjayjay.spigotmaps.stub.ArrayCanvas;
+import com.github.johnnyjayjay.spigotmaps.stub.StubBukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.map.MapView;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+
+public class AnimatedTextRendererTest {
+
+    private static final String TEXT = "Item frames render every 10 ticks";
+
+    private MapView view;
+    private Player player;
+
+    @Before
+    public void setUp() {
+        StubBukkit.install();
+        AnimationClock.start(StubBukkit.plugin());
+        view = StubBukkit.mapView(1);
+        player = StubBukkit.player("viewer");
+    }
+
+    // a canvas that is rendered less often than the text is revealed still receives the end of the text
+    @Test
+    public void canvasRenderedEveryTenTicksShowsWholeText() {
+        AnimatedTextRenderer renderer = AnimatedTextRenderer.builder().addText(TEXT).charsPerSecond(20).build();
+        ArrayCanvas handheld = new ArrayCanvas(view);
+        ArrayCanvas itemFrame = new ArrayCanvas(view);
+        for (int tick = 0; tick < TEXT.length() + 40; tick++) {
+            StubBukkit.tick();
+            renderer.render(view, handheld, player);
+            if (tick % 10 == 9)
+                renderer.render(view, itemFrame, player);
+        }
+        assertFalse(renderer.isStopped());
+        byte[] expected = completeText();
+        assertArrayEquals(expected, pixels(handheld));
+        assertArrayEquals(expected, pixels(itemFrame));
+    }
+
+    private byte[] completeText() {
+        ArrayCanvas canvas = new ArrayCanvas(view);
+        SimpleTextRenderer.create(TEXT).render(view, canvas, player);
+        return pixels(canvas);
+    }
+
+    private static byte[] pixels(ArrayCanvas canvas) {
+        byte[] pixels = new byte[128 * 128];
+        for (int i = 0; i < pixels.length; i++)
+            pixels[i] = canvas.getPixel(i % 128, i / 128);
+        return pixels;
+    }
+}
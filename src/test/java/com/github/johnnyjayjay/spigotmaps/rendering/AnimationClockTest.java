@@ -0,0 +1,43 @@
+package com.github.johnnyjayjay.spigotmaps.rendering;
+
+import com.github.johnnyjayjay.spigotmaps.stub.StubBukkit;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class AnimationClockTest {
+
+    @Before
+    public void setUp() {
+        StubBukkit.install();
+        AnimationClock.start(StubBukkit.plugin());
+    }
+
+    // one broken renderer must not freeze the animations of every other renderer
+    @Test
+    public void failingAnimationDoesNotStopTheOthers() {
+        int[] failed = new int[1];
+        int[] advanced = new int[1];
+        AnimationClock.Animation failing = new AnimationClock.Animation() {
+            @Override
+            boolean advance(long elapsedNanos) {
+                failed[0]++;
+                throw new IllegalStateException("broken");
+            }
+        };
+        AnimationClock.Animation working = new AnimationClock.Animation() {
+            @Override
+            boolean advance(long elapsedNanos) {
+                advanced[0]++;
+                return true;
+            }
+        };
+        AnimationClock.register(failing);
+        AnimationClock.register(working);
+        for (int tick = 0; tick < 3; tick++)
+            StubBukkit.tick();
+        assertEquals(1, failed[0]);
+        assertEquals(3, advanced[0]);
+    }
+}
@@ -0,0 +1,64 @@
+package com.github.johnnyjayjay.spigotmaps.rendering;
+
+import com.github.johnnyjayjay.spigotmaps.stub.ArrayCanvas;
+import com.github.johnnyjayjay.spigotmaps.stub.StubBukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.map.MapCanvas;
+import org.bukkit.map.MapView;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.Point;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Queue;
+
+import static org.junit.Assert.assertEquals;
+
+public class AsyncMapRendererTest {
+
+    private static final byte COLOR = 34;
+
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private MapView view;
+    private ArrayCanvas canvas;
+    private Player player;
+
+    @Before
+    public void setUp() {
+        StubBukkit.install();
+        view = StubBukkit.mapView(1);
+        canvas = new ArrayCanvas(view);
+        player = StubBukkit.player("viewer");
+    }
+
+    // the first render only requests the first frame, which must still be drawn once it is completed
+    @Test
+    public void frameCompletedAfterFirstRenderIsDrawn() {
+        AsyncMapRenderer renderer = new AsyncMapRenderer(new Point(), new HashSet<>(), (context) -> true, tasks::add) {
+            @Override
+            protected void produce(MapCanvas canvas) {
+                canvas.setPixel(5, 5, COLOR);
+            }
+        };
+        renderer.render(view, canvas, player);
+        assertEquals(0, canvas.getPixel(5, 5));
+        while (!tasks.isEmpty())
+            tasks.poll().run();
+        renderer.render(view, canvas, player);
+        assertEquals(COLOR, canvas.getPixel(5, 5));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void renderOnceCannotBeSet() {
+        new TestBuilder().renderOnce(true);
+    }
+
+    private static class TestBuilder extends AsyncMapRenderer.Builder<AsyncMapRenderer, TestBuilder> {
+
+        @Override
+        public AsyncMapRenderer build() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
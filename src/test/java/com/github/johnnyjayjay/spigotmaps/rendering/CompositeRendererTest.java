@@ -0,0 +1,73 @@
+package com.github.johnnyjayjay.spigotmaps.rendering;
+
+import com.github.johnnyjayjay.spigotmaps.stub.ArrayCanvas;
+import com.github.johnnyjayjay.spigotmaps.stub.StubBukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.map.MapCanvas;
+import org.bukkit.map.MapView;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.Point;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class CompositeRendererTest {
+
+    private MapView view;
+    private ArrayCanvas canvas;
+    private Player player;
+    private SimpleTextRenderer text;
+    private CompositeRenderer composite;
+
+    @Before
+    public void setUp() {
+        StubBukkit.install();
+        view = StubBukkit.mapView(1);
+        canvas = new ArrayCanvas(view);
+        player = StubBukkit.player("viewer");
+        text = SimpleTextRenderer.builder().addText("Composite").renderOnce(false).build();
+        composite = CompositeRenderer.builder().addLayers(text).renderOnce(false).build();
+        composite.render(view, canvas, player);
+        assertNotEquals(0, opaquePixels());
+    }
+
+    @Test
+    public void changesClearRemovedText() {
+        text.setText(" ");
+        composite.render(view, canvas, player);
+        assertEquals(0, opaquePixels());
+    }
+
+    // the canvas misses a result, so the next one is drawn completely
+    @Test
+    public void wholeResultClearsRemovedText() {
+        text.setText("Other");
+        composite.render(view, new ArrayCanvas(view), player);
+        text.setText(" ");
+        composite.render(view, canvas, player);
+        assertEquals(0, opaquePixels());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void asyncRenderersCannotBeLayers() {
+        AsyncMapRenderer async = new AsyncMapRenderer(new Point(), new HashSet<>(), (context) -> true, Runnable::run) {
+            @Override
+            protected void produce(MapCanvas canvas) {}
+        };
+        CompositeRenderer.builder().addLayers(async).build();
+    }
+
+    private int opaquePixels() {
+        int opaque = 0;
+        for (int x = 0; x < 128; x++) {
+            for (int y = 0; y < 128; y++) {
+                if (!PaletteBuffer.isTransparent(canvas.getPixel(x, y)))
+                    opaque++;
+            }
+        }
+        return opaque;
+    }
+}
@@ -0,0 +1,42 @@
+package com.github.johnnyjayjay.spigotmaps.rendering;
+
+import com.github.johnnyjayjay.spigotmaps.stub.Samples;
+import com.madgag.gif.fmsware.GifDecoder;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class GifImageTest {
+
+    @Test
+    public void readLazilyMatchesDecoder() throws IOException {
+        assertSameFrames(Samples.gifBytes("small.gif"));
+    }
+
+    // disposal method 3 makes the decoder read the frame before the last one again while decoding
+    @Test
+    public void readLazilyRestoresPreviousFrames() throws IOException {
+        assertSameFrames(Samples.restoreToPreviousGif());
+    }
+
+    private static void assertSameFrames(byte[] gif) throws IOException {
+        GifDecoder decoder = new GifDecoder();
+        assertEquals(GifDecoder.STATUS_OK, decoder.read(new ByteArrayInputStream(gif)));
+        GifImage expected = GifImage.fromDecoder(decoder);
+        GifImage lazy = GifImage.readLazily(new ByteArrayInputStream(gif), 2);
+        assertEquals(expected.getFrameCount(), lazy.getFrameCount());
+        for (int i = 0; i < expected.getFrameCount(); i++) {
+            assertEquals(expected.get(i).getMsDelay(), lazy.get(i).getMsDelay());
+            assertArrayEquals("Pixels of frame " + i, pixels(expected.get(i).getImage()), pixels(lazy.get(i).getImage()));
+        }
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+}
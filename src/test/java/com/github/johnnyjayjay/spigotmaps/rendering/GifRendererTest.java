@@ -0,0 +1,79 @@
+package com.github.johnnyjayjay.spigotmaps.rendering;
+
+import com.github.johnnyjayjay.spigotmaps.stub.ArrayCanvas;
+import com.github.johnnyjayjay.spigotmaps.stub.Samples;
+import com.github.johnnyjayjay.spigotmaps.stub.StubBukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.map.MapView;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class GifRendererTest {
+
+    private static final int[] DELAYS = {1, 2, 3, 1, 2, 4};
+
+    private MapView view;
+    private Player player;
+
+    @Before
+    public void setUp() {
+        StubBukkit.install();
+        AnimationClock.start(StubBukkit.plugin());
+        view = StubBukkit.mapView(1);
+        player = StubBukkit.player("viewer");
+    }
+
+    // a player sees the second part of a wall a few ticks after the first one, but both show the same frame
+    @Test
+    public void partsPlayedInSyncShowTheSameFrame() throws InterruptedException {
+        List<PreparedGif> parts = Arrays.asList(gif((byte) 34), gif((byte) 35));
+        PreparedGif.playInSync(parts);
+        GifRenderer first = GifRenderer.builder().gif(parts.get(0)).perViewer(true).build();
+        GifRenderer second = GifRenderer.builder().gif(parts.get(1)).perViewer(true).build();
+        ArrayCanvas firstCanvas = new ArrayCanvas(view);
+        ArrayCanvas secondCanvas = new ArrayCanvas(view);
+        first.render(view, firstCanvas, player);
+        for (int tick = 0; tick < 5; tick++) {
+            Thread.sleep(3);
+            StubBukkit.tick();
+            first.render(view, firstCanvas, player);
+        }
+        for (int tick = 0; tick < 20; tick++) {
+            second.render(view, secondCanvas, player);
+            assertEquals(first.getCurrentFrame(player), second.getCurrentFrame(player));
+            Thread.sleep(2);
+            StubBukkit.tick();
+            first.render(view, firstCanvas, player);
+        }
+    }
+
+    // the last two frames are merged into one, so the gif has one frame less than the image it was built from
+    @Test
+    public void startFrameOfMergedFramesIsTheMergedFrame() {
+        BufferedImage picture = Samples.image(16, 16);
+        BufferedImage other = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+        GifImage image = GifImage.create(Arrays.asList(
+                GifImage.Frame.create(picture, 50), GifImage.Frame.create(other, 50), GifImage.Frame.create(other, 50)));
+        GifRenderer renderer = GifRenderer.builder().gif(image).startAt(2).build();
+        assertEquals(2, renderer.getPreparedImage().getFrameCount());
+        assertEquals(1, renderer.getCurrentFrame());
+        ArrayCanvas canvas = new ArrayCanvas(view);
+        renderer.render(view, canvas, player);
+    }
+
+    private static PreparedGif gif(byte color) {
+        PreparedGif.Builder builder = PreparedGif.builder(8, 8);
+        for (int i = 0; i < DELAYS.length; i++) {
+            byte[] colors = new byte[64];
+            colors[i] = color;
+            builder.addFrame(PaletteBuffer.fromColors(8, 8, colors), DELAYS[i]);
+        }
+        return builder.build();
+    }
+}
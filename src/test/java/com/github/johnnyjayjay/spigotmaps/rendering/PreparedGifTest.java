@@ -0,0 +1,69 @@
+package com.github.johnnyjayjay.spigotmaps.rendering;
+
+import com.github.johnnyjayjay.spigotmaps.stub.ArrayCanvas;
+import com.github.johnnyjayjay.spigotmaps.stub.StubBukkit;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class PreparedGifTest {
+
+    private static final int SIZE = 128;
+
+    private ArrayCanvas canvas;
+
+    @Before
+    public void setUp() {
+        StubBukkit.install();
+        canvas = new ArrayCanvas(StubBukkit.mapView(1));
+    }
+
+    // a square moves over a transparent background, so every change clears the pixels it left
+    @Test
+    public void changesClearPixelsThatBecameTransparent() {
+        PreparedGif gif = movingSquare();
+        int shown = CanvasTracker.UNKNOWN;
+        for (int frame = 0; frame < gif.getFrameCount(); frame++) {
+            gif.drawFrame(canvas, 0, 0, frame, shown);
+            assertCanvasShows(gif, frame);
+            shown = frame;
+        }
+    }
+
+    // e.g. after setFrame or when frames are dropped, a frame is drawn over one that is not its predecessor
+    @Test
+    public void wholeFramesClearPixelsOfOtherFrames() {
+        PreparedGif gif = movingSquare();
+        int[] order = {3, 0, 2, 1, 3};
+        int shown = CanvasTracker.UNKNOWN;
+        for (int frame : order) {
+            gif.drawFrame(canvas, 0, 0, frame, shown);
+            assertCanvasShows(gif, frame);
+            shown = frame;
+        }
+    }
+
+    private static PreparedGif movingSquare() {
+        PreparedGif.Builder builder = PreparedGif.builder(SIZE, SIZE);
+        for (int i = 0; i < 4; i++)
+            builder.addFrame(square(i * 20, 16, (byte) 34), 50);
+        return builder.build();
+    }
+
+    private static PaletteBuffer square(int position, int size, byte color) {
+        byte[] colors = new byte[SIZE * SIZE]; // transparent
+        for (int y = position; y < position + size; y++)
+            Arrays.fill(colors, y * SIZE + position, y * SIZE + position + size, color);
+        return PaletteBuffer.fromColors(SIZE, SIZE, colors);
+    }
+
+    private void assertCanvasShows(PreparedGif gif, int frame) {
+        byte[] shown = new byte[SIZE * SIZE];
+        for (int i = 0; i < shown.length; i++)
+            shown[i] = canvas.getPixel(i % SIZE, i / SIZE);
+        assertArrayEquals("Canvas after drawing frame " + frame, gif.getFrame(frame).getColors(), shown);
+    }
+}
@@ -0,0 +1,85 @@
+package com.github.johnnyjayjay.spigotmaps.rendering;
+
+import com.github.johnnyjayjay.spigotmaps.stub.ArrayCanvas;
+import com.github.johnnyjayjay.spigotmaps.stub.Samples;
+import com.github.johnnyjayjay.spigotmaps.stub.StubBukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.map.MapRenderer;
+import org.bukkit.map.MapView;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+
+/*
+ * MapRenderer#render is called for every renderer, viewer and tick, so the way there must not allocate.
+ * The allocated bytes of the current thread are measured across many calls after a warm-up.
+ */
+public class RenderAllocationTest {
+
+    private static final int WARM_UP_CALLS = 50_000;
+    private static final int MEASURED_CALLS = 10_000;
+    private static final int MEASURED_ROUNDS = 3;
+
+    private com.sun.management.ThreadMXBean threads;
+    private MapView view;
+    private ArrayCanvas canvas;
+    private Player player;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        StubBukkit.install();
+        view = StubBukkit.mapView(1);
+        canvas = new ArrayCanvas(view);
+        player = StubBukkit.player("viewer");
+    }
+
+    @Test
+    public void unchangedImageDoesNotAllocate() {
+        assertNoAllocation(ImageRenderer.builder().image(Samples.image(128, 128)).renderOnce(false).build());
+    }
+
+    @Test
+    public void receivedRenderOnceDoesNotAllocate() {
+        assertNoAllocation(ImageRenderer.builder().image(Samples.image(128, 128)).build());
+    }
+
+    @Test
+    public void preconditionDoesNotAllocate() {
+        assertNoAllocation(ImageRenderer.builder()
+                .image(Samples.image(128, 128))
+                .renderOnce(false)
+                .precondition((context) -> context.getMapViewId() == 1)
+                .build());
+    }
+
+    @Test
+    public void unchangedTextDoesNotAllocate() {
+        assertNoAllocation(SimpleTextRenderer.builder().addLines("allocation", "free").renderOnce(false).build());
+    }
+
+    private void assertNoAllocation(MapRenderer renderer) {
+        for (int i = 0; i < WARM_UP_CALLS; i++)
+            renderer.render(view, canvas, player);
+        long threadId = Thread.currentThread().getId();
+        // asking for the allocated bytes may allocate itself, so that is subtracted
+        long start = threads.getThreadAllocatedBytes(threadId);
+        long overhead = threads.getThreadAllocatedBytes(threadId) - start;
+        // the JIT compiling the loop below can allocate once, so only the best of a few rounds counts
+        long allocated = Long.MAX_VALUE;
+        for (int round = 0; round < MEASURED_ROUNDS && allocated > 0; round++) {
+            start = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < MEASURED_CALLS; i++)
+                renderer.render(view, canvas, player);
+            allocated = Math.min(allocated, threads.getThreadAllocatedBytes(threadId) - start - overhead);
+        }
+        assertEquals("Bytes allocated by " + MEASURED_CALLS + " render calls", 0, allocated);
+    }
+}
@@ -0,0 +1,50 @@
+package com.github.johnnyjayjay.spigotmaps.rendering;
+
+import com.github.johnnyjayjay.spigotmaps.stub.StubBukkit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RenderMetricsTest {
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    @Before
+    public void setUp() {
+        StubBukkit.install();
+    }
+
+    @After
+    public void tearDown() {
+        RenderMetrics.setEnabled(false);
+    }
+
+    // every plugin that shades the library has its own bean, which is gone once the plugin is disabled
+    @Test
+    public void beanOfPluginIsUnregisteredWhenPluginIsDisabled() throws Exception {
+        ObjectName name = RenderMetrics.objectName(StubBukkit.plugin());
+        assertEquals("Benchmark", ObjectName.unquote(name.getKeyProperty("plugin")));
+        RenderMetrics.registerMBean(StubBukkit.plugin());
+        assertTrue(server.isRegistered(name));
+        RenderMetrics.pluginDisabled();
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void beanIsUnregisteredWhenMetricsAreDisabled() throws Exception {
+        // the tests are not loaded by a plugin
+        ObjectName name = RenderMetrics.objectName(null);
+        RenderMetrics.setEnabled(true);
+        assertTrue(server.isRegistered(name));
+        RenderMetrics.setEnabled(false);
+        assertFalse(server.isRegistered(name));
+    }
+}
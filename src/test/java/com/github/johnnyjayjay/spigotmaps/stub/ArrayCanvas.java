@@ -0,0 +1,62 @@
+package com.github.johnnyjayjay.spigotmaps.stub;
+
+import org.bukkit.map.MapCanvas;
+import org.bukkit.map.MapCursorCollection;
+import org.bukkit.map.MapFont;
+import org.bukkit.map.MapView;
+
+import java.awt.Image;
+
+/*
+ * A MapCanvas that stores its pixels in an array, like the canvases of the server do.
+ * drawImage and drawText are not used by the renderers of this library and do nothing.
+ */
+public final class ArrayCanvas implements MapCanvas {
+
+    private final MapView mapView;
+    private final byte[] pixels = new byte[128 * 128];
+    private MapCursorCollection cursors = new MapCursorCollection();
+
+    public ArrayCanvas(MapView mapView) {
+        this.mapView = mapView;
+    }
+
+    @Override
+    public MapView getMapView() {
+        return mapView;
+    }
+
+    @Override
+    public MapCursorCollection getCursors() {
+        return cursors;
+    }
+
+    @Override
+    public void setCursors(MapCursorCollection cursors) {
+        this.cursors = cursors;
+    }
+
+    @Override
+    public void setPixel(int x, int y, byte color) {
+        if (x >= 0 && y >= 0 && x < 128 && y < 128)
+            pixels[y * 128 + x] = color;
+    }
+
+    @Override
+    public byte getPixel(int x, int y) {
+        return x >= 0 && y >= 0 && x < 128 && y < 128 ? pixels[y * 128 + x] : 0;
+    }
+
+    @Override
+    public byte getBasePixel(int x, int y) {
+        return 0;
+    }
+
+    @Override
+    public void drawImage(int x, int y, Image image) {
+    }
+
+    @Override
+    public void drawText(int x, int y, MapFont font, String text) {
+    }
+}
@@ -0,0 +1,88 @@
+package com.github.johnnyjayjay.spigotmaps.stub;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * A stand-in for the web servers images are downloaded from. It only listens on the loopback address
+ * and counts the requests to every path, so that tests can tell whether something was downloaded again.
+ */
+public final class LocalServer implements Closeable {
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+
+    public LocalServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public void handle(String path, Handler handler) {
+        AtomicInteger count = new AtomicInteger();
+        requests.put(path, count);
+        server.createContext(path, (exchange) -> {
+            try {
+                handler.handle(exchange, count.incrementAndGet());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        });
+    }
+
+    public int requests(String path) {
+        AtomicInteger count = requests.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    public URL url(String path) {
+        try {
+            return new URL("http", server.getAddress().getHostString(), server.getAddress().getPort(), path);
+        } catch (MalformedURLException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // sends a complete response; a body of null sends none, chunked sends it without a Content-Length header
+    public static void respond(HttpExchange exchange, int status, byte[] body, boolean chunked) throws IOException {
+        exchange.sendResponseHeaders(status, body == null ? -1 : chunked ? 0 : body.length);
+        if (body != null) {
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        }
+    }
+
+    public static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        respond(exchange, status, body, false);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public interface Handler {
+        // request is the number of the request to this path, starting with 1
+        void handle(HttpExchange exchange, int request) throws IOException, InterruptedException;
+    }
+}
@@ -0,0 +1,131 @@
+package com.github.johnnyjayjay.spigotmaps.stub;
+
+import com.madgag.gif.fmsware.GifDecoder;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+/*
+ * The inputs of the tests and benchmarks. Images are generated, so that they are the same on every machine,
+ * gifs are read from the samples in the resources or generated if they need a special feature of the format.
+ */
+public final class Samples {
+
+    private Samples() {}
+
+    public static BufferedImage image(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, new Color(20, 90, 160), width, height, new Color(230, 180, 40)));
+        graphics.fillRect(0, 0, width, height);
+        graphics.setColor(new Color(255, 255, 255, 128));
+        for (int i = 0; i < 12; i++)
+            graphics.fillOval(i * width / 12, (i % 3) * height / 3, width / 8, height / 8);
+        graphics.dispose();
+        return image;
+    }
+
+    // parses a size like "640x480"
+    public static BufferedImage image(String size) {
+        String[] parts = size.split("x");
+        return image(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+    }
+
+    // the image of the given size, encoded as a png, like a file that is downloaded
+    public static byte[] pngBytes(int width, int height) {
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            ImageIO.write(image(width, height), "png", output);
+            return output.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static byte[] gifBytes(String name) {
+        try (InputStream input = Samples.class.getResourceAsStream("/samples/" + name)) {
+            if (input == null)
+                throw new IllegalArgumentException("No sample named " + name);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int read = input.read(buffer); read >= 0; read = input.read(buffer))
+                output.write(buffer, 0, read);
+            return output.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static GifDecoder gif(String name) {
+        GifDecoder decoder = new GifDecoder();
+        int status = decoder.read(new ByteArrayInputStream(gifBytes(name)));
+        if (status != GifDecoder.STATUS_OK)
+            throw new IllegalStateException("Could not decode sample " + name + ": " + status);
+        return decoder;
+    }
+
+    /*
+     * A 32x32 gif whose frames use disposal method 3 ("restore to previous"): a red background, then a blue square
+     * that is removed again before a green square is drawn, then a yellow square that is removed again as well.
+     */
+    public static byte[] restoreToPreviousGif() {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("gif").next();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(output)) {
+            writer.setOutput(stream);
+            writer.prepareWriteSequence(null);
+            writeFrame(writer, square(32, Color.RED), 0, 0, "none");
+            writeFrame(writer, square(8, Color.BLUE), 4, 4, "restoreToPrevious");
+            writeFrame(writer, square(8, Color.GREEN), 20, 4, "none");
+            writeFrame(writer, square(8, Color.YELLOW), 4, 20, "restoreToPrevious");
+            writeFrame(writer, square(8, Color.GREEN), 20, 20, "none");
+            writer.endWriteSequence();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            writer.dispose();
+        }
+        return output.toByteArray();
+    }
+
+    private static BufferedImage square(int size, Color color) {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(color);
+        graphics.fillRect(0, 0, size, size);
+        graphics.dispose();
+        return image;
+    }
+
+    private static void writeFrame(ImageWriter writer, BufferedImage image, int x, int y, String disposal)
+            throws IOException {
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image), param);
+        String format = metadata.getNativeMetadataFormatName();
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(format);
+        IIOMetadataNode descriptor = (IIOMetadataNode) root.getElementsByTagName("ImageDescriptor").item(0);
+        descriptor.setAttribute("imageLeftPosition", Integer.toString(x));
+        descriptor.setAttribute("imageTopPosition", Integer.toString(y));
+        IIOMetadataNode control = (IIOMetadataNode) root.getElementsByTagName("GraphicControlExtension").item(0);
+        control.setAttribute("disposalMethod", disposal);
+        control.setAttribute("delayTime", "10");
+        metadata.setFromTree(format, root);
+        writer.writeToSequence(new IIOImage(image, null, metadata), param);
+    }
+}
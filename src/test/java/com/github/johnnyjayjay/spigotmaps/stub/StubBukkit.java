@@ -0,0 +1,127 @@
+package com.github.johnnyjayjay.spigotmaps.stub;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.entity.Player;
+import org.bukkit.map.MapView;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+/*
+ * A stand-in for a running server, so that the library can be tested and benchmarked without starting one.
+ * Everything is implemented using proxies that only answer what the library asks for.
+ * Scheduled tasks are not run by themselves; tick() runs the repeating ones once.
+ */
+public final class StubBukkit {
+
+    private static final List<Runnable> timers = new CopyOnWriteArrayList<>();
+    private static final Logger logger = Logger.getLogger("StubBukkit");
+    private static Plugin plugin;
+
+    private StubBukkit() {}
+
+    public static synchronized void install() {
+        if (Bukkit.getServer() != null)
+            return;
+        BukkitTask task = proxy(BukkitTask.class, (proxy, method, args) ->
+                method.getName().equals("isCancelled") ? false : defaultValue(method.getReturnType()));
+        BukkitScheduler scheduler = proxy(BukkitScheduler.class, (proxy, method, args) -> {
+            if (method.getName().equals("runTaskTimer") && args[1] instanceof Runnable) {
+                timers.add((Runnable) args[1]);
+                return task;
+            }
+            return method.getReturnType() == BukkitTask.class ? task : defaultValue(method.getReturnType());
+        });
+        PluginManager pluginManager = proxy(PluginManager.class, (proxy, method, args) -> defaultValue(method.getReturnType()));
+        plugin = proxy(Plugin.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "isEnabled": return true;
+                case "getName": return "Benchmark";
+                case "getLogger": return logger;
+                case "hashCode": return 0;
+                case "equals": return proxy == args[0];
+                default: return defaultValue(method.getReturnType());
+            }
+        });
+        Bukkit.setServer(proxy(Server.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getName": return "StubBukkit";
+                case "getVersion": return "git-Spigot-stub (MC: 1.16.1)";
+                case "getBukkitVersion": return "1.16.1-R0.1-SNAPSHOT";
+                case "getLogger": return logger;
+                case "getScheduler": return scheduler;
+                case "getPluginManager": return pluginManager;
+                case "isPrimaryThread": return true;
+                case "getOnlinePlayers": return Collections.emptyList();
+                case "getWorlds": return Collections.emptyList();
+                default: return defaultValue(method.getReturnType());
+            }
+        }));
+    }
+
+    public static Plugin plugin() {
+        return plugin;
+    }
+
+    // runs every repeating task once, like the server does every tick
+    public static void tick() {
+        for (Runnable timer : timers)
+            timer.run();
+    }
+
+    public static MapView mapView(int id) {
+        return proxy(MapView.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getId": return id;
+                case "getRenderers": return Collections.emptyList();
+                case "hashCode": return id;
+                case "equals": return proxy == args[0];
+                default: return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    public static Player player(String name) {
+        UUID id = UUID.nameUUIDFromBytes(name.getBytes());
+        return proxy(Player.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getUniqueId": return id;
+                case "getName": return name;
+                case "isOnline": return true;
+                case "hashCode": return id.hashCode();
+                case "equals": return proxy == args[0];
+                default: return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(StubBukkit.class.getClassLoader(), new Class<?>[] {type}, handler));
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class)
+            return null;
+        if (type == boolean.class)
+            return false;
+        if (type == char.class)
+            return '\0';
+        if (type == float.class)
+            return 0f;
+        if (type == double.class)
+            return 0d;
+        if (type == long.class)
+            return 0L;
+        return type == int.class ? 0 : type == short.class ? (Object) (short) 0 : (Object) (byte) 0;
+    }
+}
@@ -0,0 +1,111 @@
+package com.github.johnnyjayjay.spigotmaps.util;
+
+import com.github.johnnyjayjay.spigotmaps.rendering.PaletteBuffer;
+import com.github.johnnyjayjay.spigotmaps.rendering.PreparedGif;
+import com.github.johnnyjayjay.spigotmaps.stub.StubBukkit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class FrameCacheTest {
+
+    // magic, format version, palette version and kind
+    private static final int HEADER_SIZE = 11;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private FrameCache cache;
+    private String key;
+
+    @Before
+    public void setUp() throws IOException {
+        StubBukkit.install();
+        cache = FrameCache.open(folder.getRoot().toPath());
+        key = FrameCache.key(new byte[] {1, 2, 3});
+    }
+
+    @Test
+    public void storedImageIsLoadedAgain() throws IOException {
+        PaletteBuffer tile = PaletteBuffer.fromColors(2, 2, new byte[] {4, 5, 6, 7});
+        cache.storeImage(key, Collections.singletonList(tile));
+        List<PaletteBuffer> tiles = cache.loadImage(key).orElseThrow(AssertionError::new);
+        assertEquals(1, tiles.size());
+        assertArrayEquals(tile.getColors(), tiles.get(0).getColors());
+    }
+
+    @Test
+    public void storedGifIsLoadedAgain() throws IOException {
+        PreparedGif gif = PreparedGif.builder(1, 2)
+                .addFrame(PaletteBuffer.fromColors(1, 2, new byte[] {4, 5}), 30)
+                .addFrame(PaletteBuffer.fromColors(1, 2, new byte[] {6, 7}), 50)
+                .build();
+        cache.storeGif(key, Collections.singletonList(gif));
+        PreparedGif loaded = cache.loadGif(key).orElseThrow(AssertionError::new).get(0);
+        assertEquals(2, loaded.getFrameCount());
+        assertEquals(50, loaded.getMsDelay(1));
+        assertArrayEquals(new byte[] {6, 7}, loaded.getFrame(1).getColors());
+    }
+
+    @Test
+    public void hugeTileCountIsCorrupt() throws IOException {
+        storeAndPatch(0, Integer.MAX_VALUE);
+        assertCorrupt();
+    }
+
+    @Test
+    public void negativeSizeIsCorrupt() throws IOException {
+        storeAndPatch(4, -2);
+        assertCorrupt();
+    }
+
+    @Test
+    public void sizeLargerThanEntryIsCorrupt() throws IOException {
+        storeAndPatch(4, 1 << 20);
+        assertCorrupt();
+    }
+
+    @Test
+    public void truncatedEntryIsCorrupt() throws IOException {
+        cache.storeImage(key, Collections.singletonList(PaletteBuffer.fromColors(2, 2, new byte[4])));
+        Path file = entry();
+        byte[] content = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(content, content.length - 1));
+        assertCorrupt();
+    }
+
+    // stores a single 2x2 image and overwrites the int at the given offset behind the header
+    private void storeAndPatch(int offset, int value) throws IOException {
+        cache.storeImage(key, Collections.singletonList(PaletteBuffer.fromColors(2, 2, new byte[4])));
+        Path file = entry();
+        byte[] content = Files.readAllBytes(file);
+        ByteBuffer.wrap(content).putInt(HEADER_SIZE + offset, value);
+        Files.write(file, content);
+    }
+
+    private Path entry() {
+        return folder.getRoot().toPath().resolve(key + ".smfc");
+    }
+
+    private void assertCorrupt() {
+        try {
+            cache.loadImage(key);
+            fail("Corrupt entry was loaded");
+        } catch (IOException e) {
+            assertEquals("Cache entry " + entry() + " is corrupt", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.github.johnnyjayjay.spigotmaps.util;
+
+import com.github.johnnyjayjay.spigotmaps.stub.LocalServer;
+import com.github.johnnyjayjay.spigotmaps.stub.Samples;
+import com.sun.net.httpserver.HttpExchange;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ImageCacheTest {
+
+    private static final byte[] PNG = Samples.pngBytes(16, 16);
+    private static final String ETAG = "\"v1\"";
+    private static final String LAST_MODIFIED = "Wed, 21 Oct 2015 07:28:00 GMT";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalServer server;
+    private ImageCache cache;
+    private ImageLoader loader;
+    private final List<Integer> statuses = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LocalServer();
+        // nothing is kept in memory, so every load asks the server whether the stored file is still current
+        cache = ImageCache.builder().directory(folder.getRoot().toPath()).maxMemorySize(0).build();
+        loader = ImageLoader.builder().cache(cache).retries(0, 0, TimeUnit.MILLISECONDS).build();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void unchangedFileIsNotDownloadedAgain() throws Exception {
+        server.handle("/etag.png", (exchange, request) -> {
+            boolean current = ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"));
+            exchange.getResponseHeaders().add("ETag", ETAG);
+            respond(exchange, current ? 304 : 200);
+        });
+        assertArrayEquals(PNG, fetch("/etag.png"));
+        assertArrayEquals(PNG, fetch("/etag.png"));
+        assertEquals(2, server.requests("/etag.png"));
+        assertEquals(Integer.valueOf(304), statuses.get(1));
+    }
+
+    @Test
+    public void fileThatWasNotModifiedSinceIsNotDownloadedAgain() throws Exception {
+        server.handle("/date.png", (exchange, request) -> {
+            boolean current = exchange.getRequestHeaders().getFirst("If-Modified-Since") != null;
+            exchange.getResponseHeaders().add("Last-Modified", LAST_MODIFIED);
+            respond(exchange, current ? 304 : 200);
+        });
+        assertArrayEquals(PNG, fetch("/date.png"));
+        assertArrayEquals(PNG, fetch("/date.png"));
+        assertEquals(2, server.requests("/date.png"));
+        assertEquals(Integer.valueOf(304), statuses.get(1));
+    }
+
+    @Test
+    public void concurrentLoadsOfOneUrlDownloadOnce() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        server.handle("/image.png", (exchange, request) -> {
+            release.await(5, TimeUnit.SECONDS);
+            respond(exchange, 200);
+        });
+        List<CompletableFuture<BufferedImage>> loads = new ArrayList<>();
+        for (int i = 0; i < 5; i++)
+            loads.add(loader.load(server.url("/image.png")));
+        release.countDown();
+        BufferedImage first = loads.get(0).get(5, TimeUnit.SECONDS);
+        for (CompletableFuture<BufferedImage> load : loads)
+            assertSame(first, load.get(5, TimeUnit.SECONDS));
+        assertEquals(1, server.requests("/image.png"));
+    }
+
+    @Test
+    public void storedFileIsUsedIfTheServerIsUnreachable() throws Exception {
+        server.handle("/image.png", (exchange, request) -> respond(exchange, 200));
+        assertArrayEquals(PNG, fetch("/image.png"));
+        server.close();
+        assertArrayEquals(PNG, loader.fetch(server.url("/image.png")).get(5, TimeUnit.SECONDS));
+    }
+
+    // two URLs share a stored file, which the other URL deletes while the first one is being revalidated
+    @Test
+    public void fileDeletedByAnotherUrlIsDownloadedAgain() throws Exception {
+        server.handle("/other.png", (exchange, request) -> respond(exchange, 200));
+        server.handle("/image.png", (exchange, request) -> {
+            if (exchange.getRequestHeaders().getFirst("If-None-Match") != null) {
+                cache.store(server.url("/other.png"), new byte[] {1, 2, 3}, null, 0);
+                exchange.getResponseHeaders().add("ETag", ETAG);
+                respond(exchange, 304);
+            } else {
+                exchange.getResponseHeaders().add("ETag", ETAG);
+                respond(exchange, 200);
+            }
+        });
+        assertArrayEquals(PNG, fetch("/other.png"));
+        assertArrayEquals(PNG, fetch("/image.png"));
+        assertArrayEquals(PNG, fetch("/image.png"));
+        assertEquals(3, server.requests("/image.png"));
+    }
+
+    private byte[] fetch(String path) throws Exception {
+        return loader.fetch(server.url(path)).get(5, TimeUnit.SECONDS);
+    }
+
+    private void respond(HttpExchange exchange, int status) throws IOException {
+        synchronized (statuses) {
+            statuses.add(status);
+        }
+        LocalServer.respond(exchange, status, status == 304 ? null : PNG);
+    }
+}
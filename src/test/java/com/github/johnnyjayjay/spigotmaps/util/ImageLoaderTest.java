@@ -0,0 +1,194 @@
+package com.github.johnnyjayjay.spigotmaps.util;
+
+import com.github.johnnyjayjay.spigotmaps.stub.LocalServer;
+import com.github.johnnyjayjay.spigotmaps.stub.Samples;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ImageLoaderTest {
+
+    private static final byte[] PNG = Samples.pngBytes(16, 16);
+
+    private LocalServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LocalServer();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    // a server that accepts no more connections; the connections that fill its backlog are never accepted
+    @Test
+    public void connectTimesOut() throws Exception {
+        List<Socket> backlog = new ArrayList<>();
+        try (ServerSocket full = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            InetSocketAddress address = (InetSocketAddress) full.getLocalSocketAddress();
+            for (int i = 0; i < 8; i++) {
+                Socket socket = new Socket();
+                try {
+                    socket.connect(address, 100);
+                    backlog.add(socket);
+                } catch (SocketTimeoutException e) {
+                    socket.close();
+                    break;
+                }
+            }
+            ImageLoader loader = loader().connectTimeout(200, TimeUnit.MILLISECONDS).retries(0, 0, TimeUnit.MILLISECONDS).build();
+            URL url = new URL("http", address.getHostString(), address.getPort(), "/image.png");
+            long start = System.nanoTime();
+            Throwable error = failure(loader.fetch(url));
+            assertTrue("Expected a timeout, but was " + error, error instanceof SocketTimeoutException);
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        } finally {
+            for (Socket socket : backlog)
+                socket.close();
+        }
+    }
+
+    @Test
+    public void readTimesOut() throws Exception {
+        CountDownLatch done = new CountDownLatch(1);
+        server.handle("/slow.png", (exchange, request) -> {
+            exchange.sendResponseHeaders(200, PNG.length);
+            exchange.getResponseBody().flush();
+            done.await(5, TimeUnit.SECONDS);
+        });
+        ImageLoader loader = loader().readTimeout(200, TimeUnit.MILLISECONDS).retries(0, 0, TimeUnit.MILLISECONDS).build();
+        try {
+            Throwable error = failure(loader.fetch(server.url("/slow.png")));
+            assertTrue("Expected a timeout, but was " + error, error instanceof SocketTimeoutException);
+        } finally {
+            done.countDown();
+        }
+    }
+
+    @Test
+    public void serverErrorsAndRateLimitsAreRetried() throws Exception {
+        server.handle("/flaky.png", (exchange, request) -> {
+            if (request == 1)
+                LocalServer.respond(exchange, 503, null);
+            else if (request == 2)
+                LocalServer.respond(exchange, 429, null);
+            else
+                LocalServer.respond(exchange, 200, PNG);
+        });
+        ImageLoader loader = loader().retries(2, 10, TimeUnit.MILLISECONDS).build();
+        BufferedImage image = loader.load(server.url("/flaky.png")).get(5, TimeUnit.SECONDS);
+        assertEquals(16, image.getWidth());
+        assertEquals(3, server.requests("/flaky.png"));
+    }
+
+    @Test
+    public void clientErrorsAreNotRetried() throws Exception {
+        server.handle("/missing.png", (exchange, request) -> LocalServer.respond(exchange, 404, null));
+        ImageLoader loader = loader().retries(2, 10, TimeUnit.MILLISECONDS).build();
+        Throwable error = failure(loader.fetch(server.url("/missing.png")));
+        assertTrue(error.getMessage().contains("404"));
+        assertEquals(1, server.requests("/missing.png"));
+    }
+
+    // the Content-Length header is checked before anything is read
+    @Test
+    public void tooLargeResponseWithLengthFails() throws Exception {
+        server.handle("/large.png", (exchange, request) -> LocalServer.respond(exchange, 200, new byte[20_000]));
+        ImageLoader loader = loader().maxResponseSize(10_000).build();
+        Throwable error = failure(loader.fetch(server.url("/large.png")));
+        assertTrue(error.getMessage(), error.getMessage().contains("too large"));
+        assertEquals(1, server.requests("/large.png"));
+    }
+
+    // without a Content-Length header, reading stops once the limit is exceeded
+    @Test
+    public void tooLargeResponseWithoutLengthFails() throws Exception {
+        server.handle("/large.png", (exchange, request) -> LocalServer.respond(exchange, 200, new byte[20_000], true));
+        ImageLoader loader = loader().maxResponseSize(10_000).build();
+        Throwable error = failure(loader.fetch(server.url("/large.png")));
+        assertTrue(error.getMessage(), error.getMessage().contains("larger than 10000 bytes"));
+        assertEquals(1, server.requests("/large.png"));
+    }
+
+    @Test
+    public void responseOfMaximumSizeIsRead() throws Exception {
+        byte[] body = new byte[10_000];
+        server.handle("/exact.png", (exchange, request) -> LocalServer.respond(exchange, 200, body, true));
+        ImageLoader loader = loader().maxResponseSize(10_000).build();
+        assertArrayEquals(body, loader.fetch(server.url("/exact.png")).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void downloadsBeyondTheLimitWait() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        server.handle("/image.png", (exchange, request) -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            release.await(5, TimeUnit.SECONDS);
+            running.decrementAndGet();
+            LocalServer.respond(exchange, 200, PNG);
+        });
+        ImageLoader loader = loader().maxConcurrentDownloads(1).build();
+        List<CompletableFuture<byte[]>> downloads = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            downloads.add(loader.fetch(server.url("/image.png")));
+        awaitRequests("/image.png", 1);
+        assertEquals(2, loader.getWaitingDownloads());
+        release.countDown();
+        for (CompletableFuture<byte[]> download : downloads)
+            assertArrayEquals(PNG, download.get(5, TimeUnit.SECONDS));
+        assertEquals(0, loader.getWaitingDownloads());
+        assertEquals(1, maxRunning.get());
+        assertEquals(3, server.requests("/image.png"));
+    }
+
+    private void awaitRequests(String path, int requests) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (server.requests(path) < requests) {
+            if (System.nanoTime() > deadline)
+                fail("The server did not receive " + requests + " requests");
+            Thread.sleep(5);
+        }
+    }
+
+    private static ImageLoader.Builder loader() {
+        return ImageLoader.builder().retries(0, 0, TimeUnit.MILLISECONDS);
+    }
+
+    // waits for a future that is expected to fail and returns why it failed
+    static Throwable failure(CompletableFuture<?> future) throws InterruptedException, TimeoutException {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            return cause instanceof CompletionException && cause.getCause() != null ? cause.getCause() : cause;
+        }
+        throw new AssertionError("The future did not fail");
+    }
+}